@@ -15,6 +15,15 @@ publishingConventions {
     }
 }
 
+// The launcher of fat Jars with nested module Jars. It runs on the module path of the application, not in Gradle.
+val launcher = sourceSets.create("launcher")
+
+tasks.named<JavaCompile>(launcher.compileJavaTaskName) { options.release = 11 }
+
+tasks.jar { from(launcher.output) }
+
+tasks.pluginUnderTestMetadata { pluginClasspath.from(launcher.output) }
+
 testingConventions { testGradleVersions("7.4", "7.6.5", "8.0.2", "8.14.2") }
 
 tasks.withType<Test>().configureEach {
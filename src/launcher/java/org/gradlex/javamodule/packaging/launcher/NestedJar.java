@@ -0,0 +1,282 @@
+// SPDX-License-Identifier: Apache-2.0
+package org.gradlex.javamodule.packaging.launcher;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.jar.Manifest;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * A Jar that is stored uncompressed inside the fat Jar and accessed through a memory-mapped buffer.
+ * The entries of a Multi-Release Jar are resolved for the Java version the launcher runs on.
+ */
+final class NestedJar {
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+    private static final int ZIP64_EXTRA = 0x0001;
+    private static final long MAX_32 = 0xFFFFFFFFL;
+    private static final String MANIFEST = "META-INF/MANIFEST.MF";
+    private static final String VERSIONS_PREFIX = "META-INF/versions/";
+
+    private static final class Entry {
+        final int method;
+        final int compressedSize;
+        final int size;
+        final int localHeaderOffset;
+
+        Entry(int method, int compressedSize, int size, int localHeaderOffset) {
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+    }
+
+    private final ByteBuffer buffer;
+    private final Map<String, Entry> entries;
+
+    NestedJar(ByteBuffer mapped) throws IOException {
+        this.buffer = mapped.order(ByteOrder.LITTLE_ENDIAN);
+        Map<String, Entry> all = readCentralDirectory();
+        this.entries = isMultiRelease(all) ? resolveVersions(all) : all;
+    }
+
+    Set<String> names() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    Optional<ByteBuffer> read(String name) throws IOException {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            return Optional.empty();
+        }
+        ByteBuffer data = data(entry);
+        if (entry.method == 0) {
+            return Optional.of(data);
+        }
+        byte[] compressed = new byte[data.remaining()];
+        data.get(compressed);
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(compressed);
+            byte[] out = new byte[entry.size];
+            int length = 0;
+            while (length < out.length && !inflater.finished()) {
+                int count = inflater.inflate(out, length, out.length - length);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new ZipException("Truncated entry: " + name);
+                }
+                length += count;
+            }
+            return Optional.of(ByteBuffer.wrap(out, 0, length));
+        } catch (DataFormatException e) {
+            throw new ZipException("Invalid entry " + name + ": " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    Optional<InputStream> open(String name) {
+        Entry entry = entries.get(name);
+        return entry == null ? Optional.empty() : Optional.of(open(entry));
+    }
+
+    private InputStream open(Entry entry) {
+        InputStream data = new ByteBufferInputStream(data(entry));
+        if (entry.method == 0) {
+            return data;
+        }
+        return new InflaterInputStream(data, new Inflater(true)) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                inf.end();
+            }
+        };
+    }
+
+    private Manifest manifest(Entry entry) throws IOException {
+        try (InputStream in = open(entry)) {
+            return new Manifest(in);
+        }
+    }
+
+    private ByteBuffer data(Entry entry) {
+        int nameLength = buffer.getShort(entry.localHeaderOffset + 26) & 0xFFFF;
+        int extraLength = buffer.getShort(entry.localHeaderOffset + 28) & 0xFFFF;
+        int start = entry.localHeaderOffset + 30 + nameLength + extraLength;
+        ByteBuffer data = buffer.duplicate();
+        data.limit(start + entry.compressedSize).position(start);
+        return data.slice();
+    }
+
+    private Map<String, Entry> readCentralDirectory() throws IOException {
+        int end = -1;
+        for (int i = buffer.capacity() - 22; i >= Math.max(0, buffer.capacity() - 22 - 0xFFFF); i--) {
+            if (buffer.getInt(i) == END_OF_CENTRAL_DIRECTORY) {
+                end = i;
+                break;
+            }
+        }
+        if (end == -1) {
+            throw new ZipException("Not a zip file");
+        }
+        long count = buffer.getShort(end + 10) & 0xFFFF;
+        long offset = buffer.getInt(end + 16) & MAX_32;
+        if (end >= 20 && buffer.getInt(end - 20) == ZIP64_LOCATOR) {
+            // more than 65535 entries or offsets beyond 4 GiB are only found in the zip64 end record
+            int zip64End = toInt(buffer.getLong(end - 20 + 8));
+            if (buffer.getInt(zip64End) != ZIP64_END_OF_CENTRAL_DIRECTORY) {
+                throw new ZipException("Invalid zip64 end of central directory");
+            }
+            count = buffer.getLong(zip64End + 32);
+            offset = buffer.getLong(zip64End + 48);
+        }
+        int p = toInt(offset);
+        Map<String, Entry> result = new LinkedHashMap<>();
+        for (long i = 0; i < count; i++) {
+            if (buffer.getInt(p) != CENTRAL_HEADER) {
+                throw new ZipException("Invalid central directory");
+            }
+            int method = buffer.getShort(p + 10) & 0xFFFF;
+            long compressedSize = buffer.getInt(p + 20) & MAX_32;
+            long size = buffer.getInt(p + 24) & MAX_32;
+            int nameLength = buffer.getShort(p + 28) & 0xFFFF;
+            int extraLength = buffer.getShort(p + 30) & 0xFFFF;
+            int commentLength = buffer.getShort(p + 32) & 0xFFFF;
+            long localHeaderOffset = buffer.getInt(p + 42) & MAX_32;
+
+            // values that do not fit into 32 bit are found in the zip64 extra field
+            int extra = p + 46 + nameLength;
+            int extraEnd = extra + extraLength;
+            while (extra + 4 <= extraEnd) {
+                int id = buffer.getShort(extra) & 0xFFFF;
+                int length = buffer.getShort(extra + 2) & 0xFFFF;
+                if (id == ZIP64_EXTRA) {
+                    int value = extra + 4;
+                    if (size == MAX_32) {
+                        size = buffer.getLong(value);
+                        value += 8;
+                    }
+                    if (compressedSize == MAX_32) {
+                        compressedSize = buffer.getLong(value);
+                        value += 8;
+                    }
+                    if (localHeaderOffset == MAX_32) {
+                        localHeaderOffset = buffer.getLong(value);
+                    }
+                }
+                extra += 4 + length;
+            }
+
+            byte[] name = new byte[nameLength];
+            ByteBuffer nameBuffer = buffer.duplicate();
+            nameBuffer.position(p + 46);
+            nameBuffer.get(name);
+            String entryName = new String(name, StandardCharsets.UTF_8);
+            if (method != 0 && method != 8) {
+                throw new ZipException("Unsupported compression method for " + entryName);
+            }
+            if (!entryName.endsWith("/") && buffer.getInt(toInt(localHeaderOffset)) == LOCAL_HEADER) {
+                result.putIfAbsent(
+                        entryName, new Entry(method, toInt(compressedSize), toInt(size), toInt(localHeaderOffset)));
+            }
+            p += 46 + nameLength + extraLength + commentLength;
+        }
+        return result;
+    }
+
+    /**
+     * The memory-mapped buffer is addressed with 'int' – nested Jars are limited to 2 GiB.
+     */
+    private static int toInt(long value) throws ZipException {
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new ZipException("Nested Jars larger than 2 GiB are not supported");
+        }
+        return (int) value;
+    }
+
+    private boolean isMultiRelease(Map<String, Entry> all) throws IOException {
+        Entry manifest = all.get(MANIFEST);
+        return manifest != null
+                && "true".equalsIgnoreCase(manifest(manifest).getMainAttributes().getValue("Multi-Release"));
+    }
+
+    /**
+     * Replaces entries by the entries for the highest version up to the current Java version.
+     */
+    private static Map<String, Entry> resolveVersions(Map<String, Entry> all) {
+        int runtimeVersion = Runtime.version().feature();
+        Map<String, Entry> result = new LinkedHashMap<>();
+        TreeMap<Integer, Map<String, Entry>> versioned = new TreeMap<>();
+        for (Map.Entry<String, Entry> entry : all.entrySet()) {
+            String name = entry.getKey();
+            if (!name.startsWith(VERSIONS_PREFIX)) {
+                result.put(name, entry.getValue());
+                continue;
+            }
+            int versionEnd = name.indexOf('/', VERSIONS_PREFIX.length());
+            if (versionEnd == -1) {
+                continue;
+            }
+            try {
+                int version = Integer.parseInt(name.substring(VERSIONS_PREFIX.length(), versionEnd));
+                if (version <= runtimeVersion) {
+                    versioned
+                            .computeIfAbsent(version, v -> new LinkedHashMap<>())
+                            .put(name.substring(versionEnd + 1), entry.getValue());
+                }
+            } catch (NumberFormatException e) {
+                // not a version folder
+            }
+        }
+        for (Map<String, Entry> entries : versioned.values()) {
+            result.putAll(entries);
+        }
+        return result;
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer data;
+
+        ByteBufferInputStream(ByteBuffer data) {
+            this.data = data;
+        }
+
+        @Override
+        public int read() {
+            return data.hasRemaining() ? data.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!data.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(len, data.remaining());
+            data.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return data.remaining();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+// SPDX-License-Identifier: Apache-2.0
+package org.gradlex.javamodule.packaging.launcher;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.module.Configuration;
+import java.lang.module.ModuleDescriptor;
+import java.lang.module.ModuleFinder;
+import java.lang.module.ModuleReference;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Launches an application from a fat Jar in which each module is a Jar stored uncompressed in the 'modulepath'
+ * folder. The nested Jars are memory-mapped through the offsets listed in 'modulegraph.idx' and put into a module
+ * layer as they are, without extracting or scanning the fat Jar. The module descriptors are also created from the
+ * index, so that a nested Jar is only read when a class or resource is loaded from it.
+ */
+public class NestedJarLauncher {
+
+    private static final String INDEX = "modulegraph.idx";
+    private static final int INDEX_MAGIC = 0x4a4d4749;
+    private static final int INDEX_VERSION = 1;
+
+    public static void main(String[] args) throws Throwable {
+        Properties application = new Properties();
+        try (InputStream in = resource("application.properties")) {
+            application.load(in);
+        }
+        String mainModule = application.getProperty("mainModule");
+        String mainClass = application.getProperty("mainClass");
+
+        Map<String, ModuleReference> modules = new LinkedHashMap<>();
+        try (FileChannel fatJar = FileChannel.open(fatJarLocation(), StandardOpenOption.READ);
+                DataInputStream index = new DataInputStream(new BufferedInputStream(resource(INDEX)))) {
+            if (index.readInt() != INDEX_MAGIC || index.readUnsignedShort() != INDEX_VERSION) {
+                throw new IOException("Unsupported '" + INDEX + "' in " + fatJarLocation());
+            }
+            int count = index.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = index.readUTF();
+                index.readUTF(); // entry name
+                long offset = index.readLong();
+                long length = index.readLong();
+                ModuleDescriptor descriptor = readDescriptor(name, index);
+                // a mapping stays valid after the channel is closed
+                ByteBuffer mapped = fatJar.map(FileChannel.MapMode.READ_ONLY, offset, length);
+                if (!modules.containsKey(name)) {
+                    modules.put(name, new NestedJarModuleReference(descriptor, mapped));
+                }
+            }
+        }
+
+        ModuleLayer boot = ModuleLayer.boot();
+        Configuration configuration =
+                boot.configuration().resolveAndBind(finder(modules), ModuleFinder.of(), Set.of(mainModule));
+        ModuleLayer.Controller controller = ModuleLayer.defineModulesWithOneLoader(
+                configuration, List.of(boot), ClassLoader.getSystemClassLoader());
+        ModuleLayer layer = controller.layer();
+
+        // the main class does not need to be in an exported package
+        controller.addExports(
+                layer.findModule(mainModule).orElseThrow(),
+                mainClass.substring(0, mainClass.lastIndexOf('.')),
+                NestedJarLauncher.class.getModule());
+        ClassLoader loader = layer.findLoader(mainModule);
+        Thread.currentThread().setContextClassLoader(loader);
+        Method main = Class.forName(mainClass, true, loader).getMethod("main", String[].class);
+        try {
+            main.invoke(null, (Object) args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Creates the descriptor from the 'module-info.class' or, for an automatic module, from the packages, service
+     * providers and main class found when the fat Jar was built.
+     */
+    private static ModuleDescriptor readDescriptor(String name, DataInputStream index) throws IOException {
+        byte[] moduleInfo = new byte[index.readInt()];
+        index.readFully(moduleInfo);
+        Set<String> packages = new LinkedHashSet<>(readStrings(index));
+        ModuleDescriptor.Builder automatic = ModuleDescriptor.newAutomaticModule(name).packages(packages);
+        int providesCount = index.readInt();
+        for (int p = 0; p < providesCount; p++) {
+            automatic.provides(index.readUTF(), readStrings(index));
+        }
+        String mainClass = index.readUTF();
+        if (moduleInfo.length > 0) {
+            return ModuleDescriptor.read(ByteBuffer.wrap(moduleInfo), () -> packages);
+        }
+        if (!mainClass.isEmpty()) {
+            automatic.mainClass(mainClass);
+        }
+        return automatic.build();
+    }
+
+    private static List<String> readStrings(DataInputStream index) throws IOException {
+        int count = index.readInt();
+        List<String> strings = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            strings.add(index.readUTF());
+        }
+        return strings;
+    }
+
+    private static ModuleFinder finder(Map<String, ModuleReference> modules) {
+        return new ModuleFinder() {
+            @Override
+            public Optional<ModuleReference> find(String name) {
+                return Optional.ofNullable(modules.get(name));
+            }
+
+            @Override
+            public Set<ModuleReference> findAll() {
+                return Set.copyOf(modules.values());
+            }
+        };
+    }
+
+    private static InputStream resource(String name) throws IOException {
+        InputStream in = NestedJarLauncher.class.getResourceAsStream("/" + name);
+        if (in == null) {
+            throw new IOException("'" + name + "' not found in " + fatJarLocation());
+        }
+        return in;
+    }
+
+    private static Path fatJarLocation() {
+        try {
+            return Paths.get(NestedJarLauncher.class
+                    .getProtectionDomain()
+                    .getCodeSource()
+                    .getLocation()
+                    .toURI());
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+// SPDX-License-Identifier: Apache-2.0
+package org.gradlex.javamodule.packaging.launcher;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.module.ModuleDescriptor;
+import java.lang.module.ModuleReader;
+import java.lang.module.ModuleReference;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * A module in a {@link NestedJar}. Resources of the module are addressed by URIs with the 'nestedjar' scheme
+ * (e.g. 'nestedjar:org.example.app!/org/example/app/app.properties'), which {@link NestedJarUrlHandlers} resolves.
+ * The descriptor is created from the index in the fat Jar. The nested Jar itself is only read when the first class
+ * or resource of the module is loaded.
+ */
+final class NestedJarModuleReference extends ModuleReference {
+
+    static final String SCHEME = "nestedjar";
+
+    private static final Map<String, NestedJarModuleReference> MODULES = new ConcurrentHashMap<>();
+
+    private final ByteBuffer mapped;
+    private volatile NestedJar jar;
+
+    NestedJarModuleReference(ModuleDescriptor descriptor, ByteBuffer mapped) {
+        super(descriptor, URI.create(SCHEME + ":" + descriptor.name() + "!/"));
+        this.mapped = mapped;
+        MODULES.putIfAbsent(descriptor.name(), this);
+    }
+
+    static Optional<InputStream> open(String module, String name) {
+        NestedJarModuleReference reference = MODULES.get(module);
+        return reference == null ? Optional.empty() : reference.jar().open(name);
+    }
+
+    private NestedJar jar() {
+        NestedJar result = jar;
+        if (result == null) {
+            synchronized (this) {
+                result = jar;
+                if (result == null) {
+                    try {
+                        result = new NestedJar(mapped);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("Cannot read module " + descriptor().name(), e);
+                    }
+                    jar = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public ModuleReader open() {
+        return new ModuleReader() {
+            @Override
+            public Optional<URI> find(String name) {
+                return jar().names().contains(name)
+                        ? Optional.of(URI.create(SCHEME + ":" + descriptor().name() + "!/" + name))
+                        : Optional.empty();
+            }
+
+            @Override
+            public Optional<InputStream> open(String name) {
+                return jar().open(name);
+            }
+
+            @Override
+            public Optional<ByteBuffer> read(String name) throws IOException {
+                return jar().read(name);
+            }
+
+            @Override
+            public Stream<String> list() {
+                return jar().names().stream();
+            }
+
+            @Override
+            public void close() {}
+        };
+    }
+}
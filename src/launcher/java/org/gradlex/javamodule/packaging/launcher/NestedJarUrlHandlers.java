@@ -0,0 +1,46 @@
+// SPDX-License-Identifier: Apache-2.0
+package org.gradlex.javamodule.packaging.launcher;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.net.spi.URLStreamHandlerProvider;
+
+/**
+ * Provides the handler for 'nestedjar' URLs, through which resources of the modules in nested Jars are read.
+ * Registered as service in the fat Jar, so that the JDK finds it on the class path.
+ */
+public class NestedJarUrlHandlers extends URLStreamHandlerProvider {
+
+    @Override
+    public URLStreamHandler createURLStreamHandler(String protocol) {
+        if (!NestedJarModuleReference.SCHEME.equals(protocol)) {
+            return null;
+        }
+        return new URLStreamHandler() {
+            @Override
+            protected URLConnection openConnection(URL url) {
+                return new URLConnection(url) {
+                    @Override
+                    public void connect() {}
+
+                    @Override
+                    public InputStream getInputStream() throws IOException {
+                        // nestedjar:<module>!/<entry>
+                        String path = url.toExternalForm().substring(NestedJarModuleReference.SCHEME.length() + 1);
+                        int separator = path.indexOf("!/");
+                        if (separator == -1) {
+                            throw new FileNotFoundException(url.toString());
+                        }
+                        return NestedJarModuleReference.open(
+                                        path.substring(0, separator), path.substring(separator + 2))
+                                .orElseThrow(() -> new FileNotFoundException(url.toString()));
+                    }
+                };
+            }
+        };
+    }
+}
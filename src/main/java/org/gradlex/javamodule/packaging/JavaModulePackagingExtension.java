@@ -19,8 +19,12 @@ import static org.gradle.nativeplatform.OperatingSystemFamily.MACOS;
 import static org.gradle.nativeplatform.OperatingSystemFamily.OPERATING_SYSTEM_ATTRIBUTE;
 import static org.gradle.nativeplatform.OperatingSystemFamily.WINDOWS;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
 import javax.inject.Inject;
 import org.gradle.api.Action;
 import org.gradle.api.NamedDomainObjectContainer;
@@ -29,6 +33,7 @@ import org.gradle.api.Project;
 import org.gradle.api.Task;
 import org.gradle.api.artifacts.Configuration;
 import org.gradle.api.artifacts.ConfigurationContainer;
+import org.gradle.api.artifacts.component.ModuleComponentIdentifier;
 import org.gradle.api.attributes.Attribute;
 import org.gradle.api.attributes.AttributeContainer;
 import org.gradle.api.attributes.Bundling;
@@ -37,7 +42,9 @@ import org.gradle.api.attributes.LibraryElements;
 import org.gradle.api.attributes.Usage;
 import org.gradle.api.attributes.java.TargetJvmEnvironment;
 import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.Directory;
 import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFile;
 import org.gradle.api.model.ObjectFactory;
 import org.gradle.api.plugins.ApplicationPlugin;
 import org.gradle.api.plugins.JavaApplication;
@@ -58,9 +65,18 @@ import org.gradle.nativeplatform.OperatingSystemFamily;
 import org.gradle.testing.base.TestSuite;
 import org.gradle.util.GradleVersion;
 import org.gradlex.javamodule.packaging.internal.HostIdentification;
+import org.gradlex.javamodule.packaging.internal.PackagingPermits;
+import org.gradlex.javamodule.packaging.internal.RuntimeImageStore;
+import org.gradlex.javamodule.packaging.model.JlinkPreset;
 import org.gradlex.javamodule.packaging.model.Target;
+import org.gradlex.javamodule.packaging.tasks.BenchmarkStartup;
+import org.gradlex.javamodule.packaging.tasks.ComputeJdkModules;
+import org.gradlex.javamodule.packaging.tasks.ComputeRuntimeModules;
 import org.gradlex.javamodule.packaging.tasks.FatModuleJar;
+import org.gradlex.javamodule.packaging.tasks.ImageSizeReport;
+import org.gradlex.javamodule.packaging.tasks.Jlink;
 import org.gradlex.javamodule.packaging.tasks.Jpackage;
+import org.gradlex.javamodule.packaging.tasks.OciImage;
 import org.gradlex.javamodule.packaging.tasks.ValidateHostSystemAction;
 import org.jspecify.annotations.NullMarked;
 
@@ -71,7 +87,20 @@ public abstract class JavaModulePackagingExtension {
     private static final Attribute<Boolean> JAVA_MODULE_ATTRIBUTE = Attribute.of("javaModule", Boolean.class);
     private static final String INTERNAL = "internal";
     private static final String JPACKAGE = "jpackage";
+    private static final String JLINK = "jlink";
+    private static final String COMPUTE_RUNTIME_MODULES = "computeRuntimeModules";
+    private static final String COMPUTE_JDK_MODULES = "computeJdkModules";
+    private static final String BENCHMARK_STARTUP = "benchmarkStartup";
+    private static final String IMAGE_SIZE_REPORT = "imageSizeReport";
+    private static final String APP_IMAGE = "app-image";
+    private static final List<String> PACKAGE_TYPES =
+            Arrays.asList("exe", "msi", "pkg", "dmg", "deb", "rpm", Jpackage.ARCHIVE);
+    private static final String DEV_PROFILE = "dev";
+    private static final String RELEASE_PROFILE = "release";
     private static final String FAT_MODULE_JAR = "fatModuleJar";
+    private static final String OCI_IMAGE = "ociImage";
+    private static final String RUNTIME_IMAGE_STORE = "java-module-packaging-runtime-images";
+    private static final String PACKAGING_PERMITS = "java-module-packaging-permits";
 
     private final Project project;
 
@@ -87,6 +116,11 @@ public abstract class JavaModulePackagingExtension {
 
     public abstract ListProperty<String> getJlinkOptions();
 
+    /**
+     * A named set of 'jlink' options that is added to the {@link #getJlinkOptions()} of all targets.
+     */
+    public abstract Property<JlinkPreset> getJlinkPreset();
+
     public abstract ListProperty<String> getAddModules();
 
     public abstract DirectoryProperty getJpackageResources();
@@ -95,6 +129,36 @@ public abstract class JavaModulePackagingExtension {
 
     public abstract Property<Boolean> getVerbose();
 
+    /**
+     * Link runtime images that only contain JDK modules and share identical images between all projects and
+     * builds on the machine. The application modules are then placed next to the runtime in the image.
+     */
+    public abstract Property<Boolean> getShareRuntimeImages();
+
+    /**
+     * Run 'jdeps' to compute the JDK modules the application needs at runtime and add them to the runtime image.
+     * This covers modules that are not explicitly required – e.g. by automatic modules. Without it, the image
+     * contains the required modules and the {@link #getAddModules()}, or all of 'java.se' for automatic modules.
+     */
+    public abstract Property<Boolean> getComputeRuntimeModules();
+
+    /**
+     * Hard-link the resources into the images instead of copying them, if they are on the same file system.
+     * Falls back to copying otherwise. The resource files must then not be modified in place.
+     */
+    public abstract Property<Boolean> getLinkResources();
+
+    /**
+     * How many packages may be built at the same time by the 'Jpackage' tasks of this project. This limits the
+     * package types of one task as well as tasks that Gradle runs in parallel. Defaults to 1.
+     */
+    public abstract Property<Integer> getMaxParallelPackageTypes();
+
+    /**
+     * The algorithms used to compute checksums for the packages: 'SHA-256', 'SHA-512', or 'BLAKE3'.
+     */
+    public abstract ListProperty<String> getChecksumAlgorithms();
+
     private final NamedDomainObjectContainer<Target> targets = getObjects().domainObjectContainer(Target.class);
 
     @Inject
@@ -202,6 +266,18 @@ public abstract class JavaModulePackagingExtension {
         return testSuite;
     }
 
+    void limitParallelPackaging() {
+        Provider<PackagingPermits> packagingPermits = project.getGradle()
+                .getSharedServices()
+                .registerIfAbsent(PACKAGING_PERMITS + project.getPath(), PackagingPermits.class, s -> s.getParameters()
+                        .getMaxParallelPackageTypes()
+                        .set(getMaxParallelPackageTypes()));
+        project.getTasks().withType(Jpackage.class).configureEach(t -> {
+            t.getPackagingPermits().convention(packagingPermits);
+            t.usesService(packagingPermits);
+        });
+    }
+
     void registerSingleDefaultTargetTasks() {
         project.getTasks().register(FAT_MODULE_JAR, FatModuleJar.class);
     }
@@ -218,6 +294,7 @@ public abstract class JavaModulePackagingExtension {
     }
 
     private void newTarget(Target target, boolean singleDefault) {
+        target.getJlinkPreset().convention(getJlinkPreset());
         target.getPackageTypes().convention(target.getOperatingSystem().map(os -> {
             switch (os) {
                 case WINDOWS:
@@ -310,9 +387,99 @@ public abstract class JavaModulePackagingExtension {
         JavaPluginExtension java = project.getExtensions().getByType(JavaPluginExtension.class);
         JavaApplication application = project.getExtensions().getByType(JavaApplication.class);
 
-        TaskProvider<Jpackage> jpackage = tasks.register(JPACKAGE + capitalize(target.getName()), Jpackage.class, t -> {
-            t.setDescription("Runs 'jpackage' command to create an image or a package.");
+        Provider<RuntimeImageStore> runtimeImageStore = project.getGradle()
+                .getSharedServices()
+                .registerIfAbsent(RUNTIME_IMAGE_STORE, RuntimeImageStore.class, s -> s.getParameters()
+                        .getStoreDirectory()
+                        .set(new File(project.getGradle().getGradleUserHomeDir(), "caches/" + RUNTIME_IMAGE_STORE)));
+
+        TaskProvider<ComputeRuntimeModules> computeRuntimeModules = tasks.register(
+                COMPUTE_RUNTIME_MODULES + capitalize(target.getName()), ComputeRuntimeModules.class, t -> {
+                    t.setDescription("Runs 'jdeps' to compute the JDK modules needed in the runtime image.");
+                    t.getJavaInstallation()
+                            .convention(getJavaToolchains()
+                                    .compilerFor(java.getToolchain())
+                                    .get()
+                                    .getMetadata());
+                    t.getModulePath().from(tasks.named(applicationJarTask));
+                    t.getModulePath().from(runtimeClasspath);
+                    t.getRuntimeModules()
+                            .convention(project.getLayout()
+                                    .getBuildDirectory()
+                                    .file("runtime-modules/" + target.getName() + ".txt"));
+                });
+
+        TaskProvider<ComputeJdkModules> computeJdkModules = tasks.register(
+                COMPUTE_JDK_MODULES + capitalize(target.getName()), ComputeJdkModules.class, t -> {
+                    t.setDescription("Reads the module descriptors to compute the JDK modules of the runtime image.");
+                    t.getModulePath().from(tasks.named(applicationJarTask));
+                    t.getModulePath().from(runtimeClasspath);
+                    t.getAddModules().convention(getAddModules());
+                    t.getRuntimeModules().convention(computedRuntimeModules(computeRuntimeModules));
+                    t.getJdkModules()
+                            .convention(project.getLayout()
+                                    .getBuildDirectory()
+                                    .file("jdk-modules/" + target.getName() + ".txt"));
+                });
+
+        TaskProvider<Jlink> jlink = tasks.register(JLINK + capitalize(target.getName()), Jlink.class, t -> {
+            t.setDescription("Runs 'jlink' command to create the runtime image used by 'jpackage'.");
+            configureJlinkTask(
+                    t,
+                    target,
+                    applicationJarTask,
+                    runtimeClasspath,
+                    computeRuntimeModules,
+                    computeJdkModules,
+                    runtimeImageStore);
+            t.getDestination()
+                    .convention(project.getLayout().getBuildDirectory().dir("jlink/" + target.getName()));
+        });
+
+        // The container image has the modules in their own layers, next to a runtime image with only JDK modules
+        TaskProvider<Jlink> jlinkJdk = tasks.register(JLINK + "Jdk" + capitalize(target.getName()), Jlink.class, t -> {
+            t.setDescription("Runs 'jlink' command to create a runtime image with only JDK modules.");
+            configureJlinkTask(
+                    t,
+                    target,
+                    applicationJarTask,
+                    runtimeClasspath,
+                    computeRuntimeModules,
+                    computeJdkModules,
+                    runtimeImageStore);
+            t.getJdkModulesOnly().set(true);
+            // the container starts the application with 'java', which is stripped by default for 'jpackage'
+            t.getJlinkOptions()
+                    .convention(jlinkOptions(target).map(options -> options.isEmpty()
+                            ? Arrays.asList("--strip-debug", "--no-man-pages", "--no-header-files")
+                            : options.stream()
+                                    .filter(option -> !"--strip-native-commands".equals(option))
+                                    .collect(Collectors.toList())));
+            t.getDestination()
+                    .convention(project.getLayout().getBuildDirectory().dir("jlink/" + target.getName() + "-jdk"));
+        });
 
+        TaskProvider<Jpackage> appImage =
+                tasks.register(JPACKAGE + "AppImage" + capitalize(target.getName()), Jpackage.class, t -> {
+                    t.setDescription("Runs 'jpackage' command to create an app-image.");
+                    configureJpackageTask(t, target, applicationJarTask, runtimeClasspath);
+                    t.getPackageTypes().set(Collections.singletonList(APP_IMAGE));
+                    t.getSingleStepPackaging().set(false);
+                    t.getRuntimeImage().convention(jlink.flatMap(Jlink::getDestination));
+                    t.getDestination()
+                            .convention(project.getLayout()
+                                    .getBuildDirectory()
+                                    .dir("packages/" + target.getName() + "/" + APP_IMAGE));
+                    t.getTempDirectory()
+                            .convention(project.getLayout()
+                                    .getBuildDirectory()
+                                    .dir("tmp/jpackage/" + target.getName()));
+                });
+
+        registerOciImageTask(target, applicationJarTask, runtimeClasspath, jlinkJdk);
+
+        tasks.register(BENCHMARK_STARTUP + capitalize(target.getName()), BenchmarkStartup.class, t -> {
+            t.setDescription("Measures the startup time of the app-image.");
             t.getJavaInstallation()
                     .convention(getJavaToolchains()
                             .compilerFor(java.getToolchain())
@@ -320,31 +487,75 @@ public abstract class JavaModulePackagingExtension {
                             .getMetadata());
             t.getOperatingSystem().convention(target.getOperatingSystem());
             t.getArchitecture().convention(target.getArchitecture());
-            t.getMainModule().convention(application.getMainModule());
-            t.getVersion().convention(getApplicationVersion());
-            t.getModulePath().from(tasks.named(applicationJarTask));
-            t.getModulePath().from(runtimeClasspath);
-
             t.getApplicationName().convention(getApplicationName());
-            t.getJpackageResources().from(getJpackageResources().dir(target.getOperatingSystem()));
-            t.getApplicationDescription().convention(getApplicationDescription());
-            t.getVendor().convention(getVendor());
-            t.getCopyright().convention(getCopyright());
-            t.getJavaOptions().convention(application.getApplicationDefaultJvmArgs());
-            t.getJlinkOptions().convention(getJlinkOptions());
-            t.getAddModules().convention(getAddModules());
-            t.getOptions().convention(target.getOptions());
-            t.getAppImageOptions().convention(target.getAppImageOptions());
-            t.getPackageTypes().convention(target.getPackageTypes());
-            t.getSingleStepPackaging().convention(target.getSingleStepPackaging());
+            t.getAppImage().convention(appImage.flatMap(Jpackage::getDestination));
+            t.getArguments().convention(target.getTrainingArguments());
+            t.getReport()
+                    .convention(project.getLayout()
+                            .getBuildDirectory()
+                            .file("reports/startup/" + target.getName() + ".json"));
+        });
+
+        tasks.register(IMAGE_SIZE_REPORT + capitalize(target.getName()), ImageSizeReport.class, t -> {
+            t.setDescription("Reports the size of the app-image by module, resource, and native library.");
+            t.getJavaInstallation()
+                    .convention(getJavaToolchains()
+                            .compilerFor(java.getToolchain())
+                            .get()
+                            .getMetadata());
+            t.getAppImage().convention(appImage.flatMap(Jpackage::getDestination));
             t.getResources().from(getResources());
             t.getTargetResources().from(target.getTargetResources());
-            t.getVerbose().convention(getVerbose());
+            t.getReportDirectory()
+                    .convention(project.getLayout()
+                            .getBuildDirectory()
+                            .dir("reports/image-size/" + target.getName()));
+        });
 
-            t.getDestination()
-                    .convention(project.getLayout().getBuildDirectory().dir("packages/" + target.getName()));
-            t.getTempDirectory()
-                    .convention(project.getLayout().getBuildDirectory().dir("tmp/jpackage/" + target.getName()));
+        // One task per package type. The types are only known when the tasks run, hence a task is registered for
+        // each type that can be built and 'jpackage<Target>' only depends on the ones of the target.
+        for (String type : PACKAGE_TYPES) {
+            tasks.register(JPACKAGE + capitalize(type) + capitalize(target.getName()), Jpackage.class, t -> {
+                t.setDescription(
+                        Jpackage.ARCHIVE.equals(type)
+                                ? "Writes the app-image as 'tar.gz' archive."
+                                : "Runs 'jpackage' command to create a '" + type + "' package.");
+                configureJpackageTask(t, target, applicationJarTask, runtimeClasspath);
+                t.getPackageTypes().set(Collections.singletonList(type));
+                if ("rpm".equals(type)) {
+                    // 'rpmbuild' only reads the compression from macro files, hence the 'dev' profile writes 'rpm'
+                    // packages with the builtin backend, which compresses with the level of the profile
+                    t.getPackagingBackend()
+                            .convention(target.getPackagingProfile()
+                                    .zip(target.getSingleStepPackaging(), (profile, singleStep) ->
+                                            isDevProfile(profile) && !singleStep ? "builtin" : null)
+                                    .orElse(target.getPackagingBackend()));
+                }
+                t.getRuntimeImage()
+                        .convention(target.getSingleStepPackaging()
+                                .flatMap(singleStep ->
+                                        singleStep ? jlink.flatMap(Jlink::getDestination) : noDirectory()));
+                t.getAppImage()
+                        .convention(target.getSingleStepPackaging()
+                                .flatMap(singleStep ->
+                                        singleStep ? noDirectory() : appImage.flatMap(Jpackage::getDestination)));
+                t.getDestination()
+                        .convention(project.getLayout()
+                                .getBuildDirectory()
+                                .dir("packages/" + target.getName() + "/" + type));
+                t.getTempDirectory()
+                        .convention(project.getLayout()
+                                .getBuildDirectory()
+                                .dir("tmp/jpackage/" + target.getName() + "-" + type));
+            });
+        }
+
+        TaskProvider<Task> jpackage = tasks.register(JPACKAGE + capitalize(target.getName()), t -> {
+            t.setDescription("Builds the image and the packages of the target.");
+            t.dependsOn(target.getPackageTypes()
+                    .zip(
+                            target.getSingleStepPackaging(),
+                            (types, singleStep) -> packageTasks(target, types, singleStep)));
         });
 
         tasks.register("run" + capitalize(target.getName()), JavaExec.class, t -> {
@@ -362,9 +573,211 @@ public abstract class JavaModulePackagingExtension {
         maybeAddJpackageLifecycleTask(target, jpackage);
     }
 
+    /**
+     * The names of the tasks that build the given package types of the target. The app-image is built in its own
+     * task, unless all packages are built in one step and the app-image is not requested.
+     */
+    private List<String> packageTasks(Target target, List<String> packageTypes, boolean singleStepPackaging) {
+        List<String> taskNames = new ArrayList<>();
+        if (!singleStepPackaging || packageTypes.contains(APP_IMAGE)) {
+            taskNames.add(JPACKAGE + "AppImage" + capitalize(target.getName()));
+        }
+        for (String type : packageTypes) {
+            if (APP_IMAGE.equals(type)) {
+                continue;
+            }
+            if (!PACKAGE_TYPES.contains(type)) {
+                throw new RuntimeException("Unsupported package type '" + type + "'. Supported: " + APP_IMAGE + ", "
+                        + String.join(", ", PACKAGE_TYPES));
+            }
+            taskNames.add(JPACKAGE + capitalize(type) + capitalize(target.getName()));
+        }
+        return taskNames;
+    }
+
+    private Provider<Directory> noDirectory() {
+        return getObjects().directoryProperty();
+    }
+
+    private Provider<RegularFile> computedRuntimeModules(TaskProvider<ComputeRuntimeModules> computeRuntimeModules) {
+        return getComputeRuntimeModules()
+                .flatMap(compute ->
+                        compute ? computeRuntimeModules.flatMap(ComputeRuntimeModules::getRuntimeModules) : noFile());
+    }
+
+    private Provider<RegularFile> noFile() {
+        return getObjects().fileProperty();
+    }
+
+    private void configureJlinkTask(
+            Jlink t,
+            Target target,
+            String applicationJarTask,
+            Configuration runtimeClasspath,
+            TaskProvider<ComputeRuntimeModules> computeRuntimeModules,
+            TaskProvider<ComputeJdkModules> computeJdkModules,
+            Provider<RuntimeImageStore> runtimeImageStore) {
+        TaskContainer tasks = project.getTasks();
+        JavaPluginExtension java = project.getExtensions().getByType(JavaPluginExtension.class);
+        JavaApplication application = project.getExtensions().getByType(JavaApplication.class);
+
+        t.getJavaInstallation()
+                .convention(getJavaToolchains()
+                        .compilerFor(java.getToolchain())
+                        .get()
+                        .getMetadata());
+        t.getOperatingSystem().convention(target.getOperatingSystem());
+        t.getArchitecture().convention(target.getArchitecture());
+        t.getMainModule().convention(application.getMainModule());
+        t.getModulePath().from(tasks.named(applicationJarTask));
+        t.getModulePath().from(runtimeClasspath);
+        t.getJlinkOptions().convention(jlinkOptions(target));
+        t.getJlinkPreset().convention(jlinkPreset(target));
+        t.getAddModules().convention(getAddModules());
+        t.getRuntimeModules().convention(computedRuntimeModules(computeRuntimeModules));
+        // the application Jars are only an input of the task if they are linked into the image
+        t.getJdkModules()
+                .convention(t.getJdkModulesOnly()
+                        .flatMap(jdkModulesOnly -> jdkModulesOnly
+                                ? computeJdkModules.flatMap(ComputeJdkModules::getJdkModules)
+                                : noFile()));
+        t.getRuntimeImageStore()
+                .convention(getShareRuntimeImages()
+                        .flatMap(share -> share ? runtimeImageStore : getObjects().property(RuntimeImageStore.class)));
+        t.usesService(runtimeImageStore);
+    }
+
+    private void configureJpackageTask(
+            Jpackage t, Target target, String applicationJarTask, Configuration runtimeClasspath) {
+        TaskContainer tasks = project.getTasks();
+        JavaPluginExtension java = project.getExtensions().getByType(JavaPluginExtension.class);
+        JavaApplication application = project.getExtensions().getByType(JavaApplication.class);
+
+        t.getJavaInstallation()
+                .convention(getJavaToolchains()
+                        .compilerFor(java.getToolchain())
+                        .get()
+                        .getMetadata());
+        t.getOperatingSystem().convention(target.getOperatingSystem());
+        t.getArchitecture().convention(target.getArchitecture());
+        t.getMainModule().convention(application.getMainModule());
+        t.getMainClass().convention(application.getMainClass());
+        t.getVersion().convention(getApplicationVersion());
+        // The runtime image only contains JDK modules, 'jpackage' places the modules next to it
+        t.getModulePath().from(tasks.named(applicationJarTask));
+        t.getModulePath().from(runtimeClasspath);
+
+        t.getApplicationName().convention(getApplicationName());
+        t.getJpackageResources().from(getJpackageResources().dir(target.getOperatingSystem()));
+        t.getApplicationDescription().convention(getApplicationDescription());
+        t.getVendor().convention(getVendor());
+        t.getCopyright().convention(getCopyright());
+        t.getJavaOptions().convention(application.getApplicationDefaultJvmArgs());
+        t.getJlinkOptions().convention(jlinkOptions(target));
+        t.getJlinkPreset().convention(jlinkPreset(target));
+        t.getAddModules().convention(getAddModules());
+        t.getOptions().convention(target.getOptions());
+        t.getAppImageOptions().convention(target.getAppImageOptions());
+        t.getSingleStepPackaging().convention(target.getSingleStepPackaging());
+        t.getResources().from(getResources());
+        t.getTargetResources().from(target.getTargetResources());
+        t.getAppCdsArchive().convention(target.getAppCdsArchive());
+        t.getAotCache().convention(target.getAotCache());
+        t.getTrainingArguments().convention(target.getTrainingArguments());
+        t.getPackagingBackend().convention(target.getPackagingBackend());
+        t.getVerbose().convention(getVerbose());
+        t.getLinkResources().convention(getLinkResources());
+        t.getChecksumAlgorithms()
+                .convention(target.getPackagingProfile()
+                        .zip(getChecksumAlgorithms(), (profile, algorithms) ->
+                                isDevProfile(profile) ? Collections.<String>emptyList() : algorithms));
+        t.getCompressionLevel()
+                .convention(target.getPackagingProfile().map(profile -> isDevProfile(profile) ? 1 : null));
+        t.getTimingsReport()
+                .convention(project.getLayout()
+                        .getBuildDirectory()
+                        .file("reports/jpackage/" + t.getName() + "-timings.json"));
+    }
+
+    /**
+     * The 'dev' profile trades size for build speed: the runtime image is not compressed, packages are compressed
+     * with the fastest level ('rpm' packages by the builtin backend), and no checksums are computed.
+     * The 'release' profile uses the configured options.
+     */
+    private static boolean isDevProfile(String profile) {
+        if (!DEV_PROFILE.equals(profile) && !RELEASE_PROFILE.equals(profile)) {
+            throw new RuntimeException("Unsupported packaging profile '" + profile + "'. Supported: " + DEV_PROFILE
+                    + ", " + RELEASE_PROFILE);
+        }
+        return DEV_PROFILE.equals(profile);
+    }
+
+    private Provider<List<String>> jlinkOptions(Target target) {
+        return target.getPackagingProfile().zip(getJlinkOptions(), (profile, options) -> {
+            if (!isDevProfile(profile)) {
+                return options;
+            }
+            List<String> uncompressed = new ArrayList<>();
+            for (int i = 0; i < options.size(); i++) {
+                String option = options.get(i);
+                if ("--compress".equals(option) || "-c".equals(option)) {
+                    i++; // skip the level
+                } else if (!option.startsWith("--compress=")) {
+                    uncompressed.add(option);
+                }
+            }
+            return uncompressed;
+        });
+    }
+
+    /**
+     * The preset of the target, which the 'dev' profile does not use, as it is about build speed.
+     */
+    private Provider<JlinkPreset> jlinkPreset(Target target) {
+        return target.getPackagingProfile()
+                .zip(target.getJlinkPreset(), (profile, preset) -> isDevProfile(profile) ? null : preset);
+    }
+
+    private void registerOciImageTask(
+            Target target, String applicationJarTask, Configuration runtimeClasspath, TaskProvider<Jlink> jlinkJdk) {
+        TaskContainer tasks = project.getTasks();
+        JavaApplication application = project.getExtensions().getByType(JavaApplication.class);
+
+        tasks.register(OCI_IMAGE + capitalize(target.getName()), OciImage.class, t -> {
+            t.setDescription("Writes a container image with layers for the runtime, libraries, and application.");
+            t.getOperatingSystem().convention(target.getOperatingSystem());
+            t.getArchitecture().convention(target.getArchitecture());
+            t.getApplicationName().convention(getApplicationName());
+            t.getVersion().convention(getApplicationVersion());
+            t.getMainModule().convention(application.getMainModule());
+            t.getMainClass().convention(application.getMainClass());
+            t.getJavaOptions().convention(application.getApplicationDefaultJvmArgs());
+            t.getRuntimeImage().convention(jlinkJdk.flatMap(Jlink::getDestination));
+            t.getLibraryModules()
+                    .from(runtimeClasspath
+                            .getIncoming()
+                            .artifactView(v -> v.componentFilter(id -> id instanceof ModuleComponentIdentifier))
+                            .getFiles());
+            t.getApplicationModules().from(tasks.named(applicationJarTask));
+            t.getApplicationModules()
+                    .from(runtimeClasspath
+                            .getIncoming()
+                            .artifactView(v -> v.componentFilter(id -> !(id instanceof ModuleComponentIdentifier)))
+                            .getFiles());
+            t.getResources().from(getResources());
+            t.getTargetResources().from(target.getTargetResources());
+            t.getImage()
+                    .convention(project.getLayout()
+                            .getBuildDirectory()
+                            .file(getApplicationName()
+                                    .map(name -> "images/" + target.getName() + "/" + name + "-oci.tar")));
+        });
+    }
+
     private void registerFatModuleJarTask(
             Target target, boolean singleDefaultTarget, String applicationJarTask, Configuration runtimeClasspath) {
         TaskContainer tasks = project.getTasks();
+        JavaPluginExtension java = project.getExtensions().getByType(JavaPluginExtension.class);
         JavaApplication application = project.getExtensions().getByType(JavaApplication.class);
 
         TaskProvider<FatModuleJar> fatModuleJar = singleDefaultTarget
@@ -380,12 +793,14 @@ public abstract class JavaModulePackagingExtension {
             t.getModulePath().from(tasks.named(applicationJarTask));
             t.getModulePath().from(runtimeClasspath);
 
+            t.getJavaLauncher().convention(getJavaToolchains().launcherFor(java.getToolchain()));
+
             String classifier = singleDefaultTarget ? "all" : "all-" + target.getName();
             t.getArchiveClassifier().set(classifier);
         });
     }
 
-    private void maybeAddJpackageLifecycleTask(Target target, TaskProvider<Jpackage> targetJpackage) {
+    private void maybeAddJpackageLifecycleTask(Target target, TaskProvider<Task> targetJpackage) {
         TaskContainer tasks = project.getTasks();
 
         // if a task already exists, do nothing to avoid conflict with other plugins
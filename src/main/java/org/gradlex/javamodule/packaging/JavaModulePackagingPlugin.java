@@ -6,6 +6,7 @@ import static org.gradle.api.attributes.Category.LIBRARY;
 import static org.gradle.api.attributes.Usage.JAVA_RUNTIME;
 import static org.gradle.api.attributes.Usage.USAGE_ATTRIBUTE;
 
+import java.util.Collections;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
 import org.gradle.api.artifacts.Configuration;
@@ -46,10 +47,16 @@ public abstract class JavaModulePackagingPlugin implements Plugin<Project> {
                 .getProjectDirectory()
                 .dir(mainResources.getSrcDirs().iterator().next().getParent() + "/resourcesPackage")));
         javaModulePackaging.getVerbose().convention(false);
+        javaModulePackaging.getShareRuntimeImages().convention(false);
+        javaModulePackaging.getComputeRuntimeModules().convention(false);
+        javaModulePackaging.getLinkResources().convention(false);
+        javaModulePackaging.getMaxParallelPackageTypes().convention(1);
+        javaModulePackaging.getChecksumAlgorithms().convention(Collections.singletonList("SHA-256"));
 
         Target hostTarget = HostIdentification.hostTarget(project.getObjects());
         javaModulePackaging.primaryTarget(hostTarget);
 
+        javaModulePackaging.limitParallelPackaging();
         javaModulePackaging.registerSingleDefaultTargetTasks();
         project.afterEvaluate(__ -> javaModulePackaging.maybeAddSingleDefaultTarget(hostTarget));
 
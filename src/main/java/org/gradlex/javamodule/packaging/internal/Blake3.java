@@ -0,0 +1,210 @@
+// SPDX-License-Identifier: Apache-2.0
+package org.gradlex.javamodule.packaging.internal;
+
+import java.util.Arrays;
+import org.jspecify.annotations.NullMarked;
+
+/**
+ * The BLAKE3 hash function with the default output length of 32 bytes, following the reference implementation
+ * (<a href="https://github.com/BLAKE3-team/BLAKE3">github.com/BLAKE3-team/BLAKE3</a>).
+ * Only the plain hash mode is supported.
+ */
+@NullMarked
+final class Blake3 {
+
+    private static final int[] IV = {
+        0x6A09E667, 0xBB67AE85, 0x3C6EF372, 0xA54FF53A, 0x510E527F, 0x9B05688C, 0x1F83D9AB, 0x5BE0CD19
+    };
+    private static final int[] MSG_PERMUTATION = {2, 6, 3, 10, 7, 0, 4, 13, 1, 11, 12, 5, 9, 14, 15, 8};
+
+    private static final int BLOCK_LEN = 64;
+    private static final int CHUNK_LEN = 1024;
+
+    private static final int CHUNK_START = 1;
+    private static final int CHUNK_END = 1 << 1;
+    private static final int PARENT = 1 << 2;
+    private static final int ROOT = 1 << 3;
+
+    // chaining values of completed subtrees; 54 levels are enough for 2^64 bytes of input
+    private final int[][] cvStack = new int[54][];
+    private int cvStackLen = 0;
+
+    private ChunkState chunkState = new ChunkState(0);
+
+    void update(byte[] input, int offset, int length) {
+        int end = offset + length;
+        while (offset < end) {
+            if (chunkState.length() == CHUNK_LEN) {
+                int[] chunkCv = chunkState.output().chainingValue();
+                long totalChunks = chunkState.chunkCounter + 1;
+                addChunkChainingValue(chunkCv, totalChunks);
+                chunkState = new ChunkState(totalChunks);
+            }
+            int take = Math.min(CHUNK_LEN - chunkState.length(), end - offset);
+            chunkState.update(input, offset, take);
+            offset += take;
+        }
+    }
+
+    byte[] digest() {
+        Output output = chunkState.output();
+        for (int i = cvStackLen - 1; i >= 0; i--) {
+            output = parentOutput(cvStack[i], output.chainingValue());
+        }
+        return output.rootBytes();
+    }
+
+    private void addChunkChainingValue(int[] cv, long totalChunks) {
+        // merge completed subtrees, as indicated by the trailing zero bits of the chunk count
+        int[] newCv = cv;
+        long chunks = totalChunks;
+        while ((chunks & 1) == 0) {
+            newCv = parentOutput(cvStack[--cvStackLen], newCv).chainingValue();
+            chunks >>= 1;
+        }
+        cvStack[cvStackLen++] = newCv;
+    }
+
+    private static Output parentOutput(int[] leftCv, int[] rightCv) {
+        int[] blockWords = new int[16];
+        System.arraycopy(leftCv, 0, blockWords, 0, 8);
+        System.arraycopy(rightCv, 0, blockWords, 8, 8);
+        return new Output(IV, blockWords, 0, BLOCK_LEN, PARENT);
+    }
+
+    private static final class ChunkState {
+        private int[] cv = IV;
+        private final long chunkCounter;
+        private final byte[] block = new byte[BLOCK_LEN];
+        private int blockLen = 0;
+        private int blocksCompressed = 0;
+
+        ChunkState(long chunkCounter) {
+            this.chunkCounter = chunkCounter;
+        }
+
+        int length() {
+            return BLOCK_LEN * blocksCompressed + blockLen;
+        }
+
+        private int startFlag() {
+            return blocksCompressed == 0 ? CHUNK_START : 0;
+        }
+
+        void update(byte[] input, int offset, int length) {
+            int end = offset + length;
+            while (offset < end) {
+                if (blockLen == BLOCK_LEN) {
+                    int[] state = compress(cv, words(block), chunkCounter, BLOCK_LEN, startFlag());
+                    cv = new int[8];
+                    System.arraycopy(state, 0, cv, 0, 8);
+                    blocksCompressed++;
+                    Arrays.fill(block, (byte) 0);
+                    blockLen = 0;
+                }
+                int take = Math.min(BLOCK_LEN - blockLen, end - offset);
+                System.arraycopy(input, offset, block, blockLen, take);
+                blockLen += take;
+                offset += take;
+            }
+        }
+
+        Output output() {
+            return new Output(cv, words(block), chunkCounter, blockLen, startFlag() | CHUNK_END);
+        }
+    }
+
+    private static final class Output {
+        private final int[] inputCv;
+        private final int[] blockWords;
+        private final long counter;
+        private final int blockLen;
+        private final int flags;
+
+        Output(int[] inputCv, int[] blockWords, long counter, int blockLen, int flags) {
+            this.inputCv = inputCv;
+            this.blockWords = blockWords;
+            this.counter = counter;
+            this.blockLen = blockLen;
+            this.flags = flags;
+        }
+
+        int[] chainingValue() {
+            int[] cv = new int[8];
+            System.arraycopy(compress(inputCv, blockWords, counter, blockLen, flags), 0, cv, 0, 8);
+            return cv;
+        }
+
+        byte[] rootBytes() {
+            int[] state = compress(inputCv, blockWords, 0, blockLen, flags | ROOT);
+            byte[] out = new byte[32];
+            for (int i = 0; i < 8; i++) {
+                out[4 * i] = (byte) state[i];
+                out[4 * i + 1] = (byte) (state[i] >>> 8);
+                out[4 * i + 2] = (byte) (state[i] >>> 16);
+                out[4 * i + 3] = (byte) (state[i] >>> 24);
+            }
+            return out;
+        }
+    }
+
+    private static int[] words(byte[] block) {
+        int[] words = new int[16];
+        for (int i = 0; i < 16; i++) {
+            words[i] = (block[4 * i] & 0xff)
+                    | (block[4 * i + 1] & 0xff) << 8
+                    | (block[4 * i + 2] & 0xff) << 16
+                    | (block[4 * i + 3] & 0xff) << 24;
+        }
+        return words;
+    }
+
+    private static int[] compress(int[] cv, int[] blockWords, long counter, int blockLen, int flags) {
+        int[] state = {
+            cv[0], cv[1], cv[2], cv[3], cv[4], cv[5], cv[6], cv[7],
+            IV[0], IV[1], IV[2], IV[3], (int) counter, (int) (counter >>> 32), blockLen, flags
+        };
+        int[] m = blockWords.clone();
+        for (int r = 0; r < 7; r++) {
+            round(state, m);
+            if (r < 6) {
+                m = permute(m);
+            }
+        }
+        for (int i = 0; i < 8; i++) {
+            state[i] ^= state[i + 8];
+            state[i + 8] ^= cv[i];
+        }
+        return state;
+    }
+
+    private static void round(int[] s, int[] m) {
+        g(s, 0, 4, 8, 12, m[0], m[1]);
+        g(s, 1, 5, 9, 13, m[2], m[3]);
+        g(s, 2, 6, 10, 14, m[4], m[5]);
+        g(s, 3, 7, 11, 15, m[6], m[7]);
+        g(s, 0, 5, 10, 15, m[8], m[9]);
+        g(s, 1, 6, 11, 12, m[10], m[11]);
+        g(s, 2, 7, 8, 13, m[12], m[13]);
+        g(s, 3, 4, 9, 14, m[14], m[15]);
+    }
+
+    private static void g(int[] s, int a, int b, int c, int d, int mx, int my) {
+        s[a] = s[a] + s[b] + mx;
+        s[d] = Integer.rotateRight(s[d] ^ s[a], 16);
+        s[c] = s[c] + s[d];
+        s[b] = Integer.rotateRight(s[b] ^ s[c], 12);
+        s[a] = s[a] + s[b] + my;
+        s[d] = Integer.rotateRight(s[d] ^ s[a], 8);
+        s[c] = s[c] + s[d];
+        s[b] = Integer.rotateRight(s[b] ^ s[c], 7);
+    }
+
+    private static int[] permute(int[] m) {
+        int[] permuted = new int[16];
+        for (int i = 0; i < 16; i++) {
+            permuted[i] = m[MSG_PERMUTATION[i]];
+        }
+        return permuted;
+    }
+}
@@ -0,0 +1,23 @@
+// SPDX-License-Identifier: Apache-2.0
+package org.gradlex.javamodule.packaging.internal;
+
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+import org.jspecify.annotations.NullMarked;
+
+@NullMarked
+public abstract class ChecksumWorkAction implements WorkAction<ChecksumWorkAction.Parameters> {
+
+    public interface Parameters extends WorkParameters {
+        RegularFileProperty getFile();
+
+        ListProperty<String> getAlgorithms();
+    }
+
+    @Override
+    public void execute() {
+        Checksums.write(getParameters().getFile().get().getAsFile(), getParameters().getAlgorithms().get());
+    }
+}
@@ -0,0 +1,209 @@
+// SPDX-License-Identifier: Apache-2.0
+package org.gradlex.javamodule.packaging.internal;
+
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+import org.jspecify.annotations.NullMarked;
+
+/**
+ * Computes checksums of files with several algorithms in one pass over the file. Files are read with a buffer
+ * of fixed size, so that large packages are never loaded into memory as a whole.
+ * <p>
+ * For each file and algorithm, a file with the hex-encoded checksum is written next to the file
+ * (e.g. 'app.deb.sha256'). {@link #writeManifests(File)} combines these into one manifest per algorithm
+ * in the format of the 'sha256sum' tool (e.g. 'SHA256SUMS').
+ */
+@NullMarked
+public final class Checksums {
+
+    public static final List<String> ALGORITHMS =
+            Collections.unmodifiableList(Arrays.asList("SHA-256", "SHA-512", "BLAKE3"));
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private Checksums() {}
+
+    public static void validate(List<String> algorithms) {
+        for (String algorithm : algorithms) {
+            if (!ALGORITHMS.contains(algorithm)) {
+                throw new RuntimeException("Unsupported checksum algorithm '" + algorithm + "'. Supported: "
+                        + String.join(", ", ALGORITHMS));
+            }
+        }
+    }
+
+    /**
+     * Writes the checksum files for the given file.
+     */
+    public static void write(File file, List<String> algorithms) {
+        List<Digest> digests = algorithms.stream().map(Checksums::digest).collect(Collectors.toList());
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try {
+            try (InputStream in = Files.newInputStream(file.toPath())) {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    for (Digest digest : digests) {
+                        digest.update(buffer, read);
+                    }
+                }
+            }
+            for (int i = 0; i < algorithms.size(); i++) {
+                writeChecksumFile(file, algorithms.get(i), digests.get(i).digest());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Wraps the stream that writes the given file, so that its checksums are computed in the same pass.
+     * The checksum files are written when the stream is closed.
+     */
+    public static OutputStream writing(File file, OutputStream out, List<String> algorithms) {
+        List<Digest> digests = algorithms.stream().map(Checksums::digest).collect(Collectors.toList());
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                for (Digest digest : digests) {
+                    digest.update(b, off, len);
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                super.close();
+                for (int i = 0; i < algorithms.size(); i++) {
+                    writeChecksumFile(file, algorithms.get(i), digests.get(i).digest());
+                }
+            }
+        };
+    }
+
+    /**
+     * Whether the checksum files of the file exist for all algorithms, or the file is a checksum file itself.
+     */
+    public static boolean isWritten(File file, List<String> algorithms) {
+        for (String algorithm : ALGORITHMS) {
+            if (file.getName().endsWith("." + extension(algorithm))) {
+                return true;
+            }
+        }
+        return algorithms.stream()
+                .allMatch(a -> new File(file.getParentFile(), file.getName() + "." + extension(a)).exists());
+    }
+
+    /**
+     * Writes a manifest for each algorithm for which checksum files exist in the folder.
+     */
+    public static void writeManifests(File folder) {
+        for (String algorithm : ALGORITHMS) {
+            String extension = extension(algorithm);
+            File[] checksumFiles = folder.listFiles((dir, name) -> name.endsWith("." + extension));
+            if (checksumFiles == null || checksumFiles.length == 0) {
+                continue;
+            }
+            Arrays.sort(checksumFiles);
+            List<String> lines = new ArrayList<>();
+            for (File checksumFile : checksumFiles) {
+                String name = checksumFile.getName();
+                try {
+                    String checksum = new String(Files.readAllBytes(checksumFile.toPath()), StandardCharsets.UTF_8);
+                    // two spaces: the file is read in binary mode when verifying
+                    lines.add(checksum.trim() + "  " + name.substring(0, name.length() - extension.length() - 1));
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            File manifest = new File(folder, extension.toUpperCase(Locale.ROOT) + "SUMS");
+            try {
+                // '\n' on all operating systems, as expected by the tools that verify checksums
+                Files.write(manifest.toPath(), (String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private static void writeChecksumFile(File file, String algorithm, byte[] checksum) throws IOException {
+        File checksumFile = new File(file.getParentFile(), file.getName() + "." + extension(algorithm));
+        Files.write(checksumFile.toPath(), hex(checksum).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String extension(String algorithm) {
+        return algorithm.replace("-", "").toLowerCase(Locale.ROOT);
+    }
+
+    private static Digest digest(String algorithm) {
+        if ("BLAKE3".equals(algorithm)) {
+            Blake3 blake3 = new Blake3();
+            return new Digest() {
+                @Override
+                public void update(byte[] buffer, int offset, int length) {
+                    blake3.update(buffer, offset, length);
+                }
+
+                @Override
+                public byte[] digest() {
+                    return blake3.digest();
+                }
+            };
+        }
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance(algorithm);
+            return new Digest() {
+                @Override
+                public void update(byte[] buffer, int offset, int length) {
+                    messageDigest.update(buffer, offset, length);
+                }
+
+                @Override
+                public byte[] digest() {
+                    return messageDigest.digest();
+                }
+            };
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String hex(byte[] hash) {
+        StringBuilder hexString = new StringBuilder(2 * hash.length);
+        for (byte b : hash) {
+            String hex = Integer.toHexString(0xff & b);
+            if (hex.length() == 1) {
+                hexString.append('0');
+            }
+            hexString.append(hex);
+        }
+        return hexString.toString();
+    }
+
+    private interface Digest {
+        default void update(byte[] buffer, int length) {
+            update(buffer, 0, length);
+        }
+
+        void update(byte[] buffer, int offset, int length);
+
+        byte[] digest();
+    }
+}
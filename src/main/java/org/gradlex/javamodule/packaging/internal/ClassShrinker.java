@@ -0,0 +1,447 @@
+// SPDX-License-Identifier: Apache-2.0
+package org.gradlex.javamodule.packaging.internal;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.jar.JarFile;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Computes which classes of the modules of an application are reachable and which entries of the module Jars can
+ * therefore be dropped. A class is reachable if it is referenced from the constant pool of a reachable class – as
+ * class, in a field or method descriptor, in a generic signature, or as a string constant that is the name of a
+ * class (for 'Class.forName()'). The roots are:
+ * <ul>
+ *   <li>the main class</li>
+ *   <li>the classes matching a keep rule</li>
+ *   <li>the classes in packages a module opens for deep reflection, and all classes of open modules</li>
+ *   <li>the providers of services that are reachable or defined outside of the modules (e.g. in the JDK)</li>
+ * </ul>
+ * Resources are kept if a reachable class is in their package, if a string constant of a reachable class is their
+ * path or file name, or if they match a keep rule. Everything in 'META-INF' is kept, except for the service files of
+ * services that are not reachable.
+ * <p>
+ * Keep rules are class names, in which '*' matches any part of a name without '.' and '**' matches any part of a
+ * name (e.g. 'org.example.model.*' or 'org.example.**').
+ * <p>
+ * The module descriptors are kept: if a descriptor does not list the packages of its module, they are added
+ * (the 'ModulePackages' attribute), so that packages that are exported or opened, but have become empty, are still
+ * part of the module.
+ */
+@NullMarked
+public final class ClassShrinker implements Closeable {
+
+    private static final String MODULE_INFO_CLASS = "module-info.class";
+    private static final String META_INF = "META-INF/";
+    private static final String SERVICES_PREFIX = "META-INF/services/";
+    private static final String MULTI_RELEASE_PREFIX = "META-INF/versions/";
+    private static final String CLASS_SUFFIX = ".class";
+    private static final Pattern TYPE_IN_DESCRIPTOR = Pattern.compile("L([^;<>()\\[.]+)[;<]");
+
+    private final List<Pattern> keepRules = new ArrayList<>();
+    private final Map<File, Module> modules = new LinkedHashMap<>();
+    // by internal class name (e.g. 'org/example/app/Main')
+    private final Map<String, Module> classes = new LinkedHashMap<>();
+    private final Set<String> reachable = new HashSet<>();
+    private final Set<String> strings = new HashSet<>();
+    private final Set<String> keptServices = new HashSet<>();
+
+    private static final class Module {
+        private final JarFile jar;
+        private final ModuleInfo moduleInfo;
+        private final Map<String, List<String>> classEntries = new LinkedHashMap<>();
+        private final Set<String> packages = new TreeSet<>();
+        private final Set<String> packagesWithReachableClasses = new HashSet<>();
+
+        private Module(JarFile jar, ModuleInfo moduleInfo) {
+            this.jar = jar;
+            this.moduleInfo = moduleInfo;
+        }
+    }
+
+    public ClassShrinker(Collection<String> keepRules) {
+        for (String keepRule : keepRules) {
+            this.keepRules.add(Pattern.compile(keepRule.trim()
+                    .replace(".", "\\.")
+                    .replace("$", "\\$")
+                    .replace("**", "\u0000")
+                    .replace("*", "[^.]*")
+                    .replace("\u0000", ".*")));
+        }
+    }
+
+    /**
+     * Computes the reachable classes of the module Jars.
+     *
+     * @param mainClass the main class of the application, e.g. 'org.example.app.Main'
+     */
+    public void analyze(List<File> moduleJars, String mainClass) throws IOException {
+        for (File moduleJar : moduleJars) {
+            Module module = new Module(new JarFile(moduleJar), requireNonNull(ModuleInfo.read(moduleJar)));
+            modules.put(moduleJar, module);
+            for (ZipEntry entry : Collections.list(module.jar.entries())) {
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                String path = unversioned(entry.getName());
+                String packageName = packageOf(path);
+                if (!packageName.isEmpty()
+                        && !path.startsWith(META_INF)
+                        && ModuleGraphIndex.isPackageName(packageName)) {
+                    module.packages.add(packageName);
+                }
+                if (path.endsWith(CLASS_SUFFIX) && !path.equals(MODULE_INFO_CLASS)) {
+                    String className = path.substring(0, path.length() - CLASS_SUFFIX.length());
+                    module.classEntries
+                            .computeIfAbsent(className, c -> new ArrayList<>())
+                            .add(entry.getName());
+                    // as on the module path, the first module that contains a class wins
+                    classes.putIfAbsent(className, module);
+                }
+            }
+        }
+
+        Deque<String> queue = new ArrayDeque<>();
+        queue.add(internalName(mainClass));
+        for (Module module : modules.values()) {
+            for (String className : module.classEntries.keySet()) {
+                if (isKept(className.replace('/', '.'))
+                        || module.moduleInfo.isOpen()
+                        || module.moduleInfo.getOpens().contains(packageOf(className))) {
+                    queue.add(className);
+                }
+            }
+        }
+        while (!queue.isEmpty()) {
+            while (!queue.isEmpty()) {
+                String className = queue.remove();
+                Module module = classes.get(className);
+                if (module == null || !reachable.add(className)) {
+                    // a class of the JDK, or already reachable
+                    continue;
+                }
+                module.packagesWithReachableClasses.add(packageOf(className));
+                for (String entryName : requireNonNull(module.classEntries.get(className))) {
+                    queue.addAll(references(read(module.jar, entryName)));
+                }
+            }
+            // services that have become reachable make their providers reachable
+            for (Module module : modules.values()) {
+                for (Map.Entry<String, List<String>> provides :
+                        module.moduleInfo.getProvides().entrySet()) {
+                    String service = internalName(provides.getKey());
+                    if (reachable.contains(service) || !classes.containsKey(service)) {
+                        keptServices.add(provides.getKey());
+                        for (String provider : provides.getValue()) {
+                            String providerClass = internalName(provider);
+                            if (classes.containsKey(providerClass) && !reachable.contains(providerClass)) {
+                                queue.add(providerClass);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    public int getClassCount() {
+        return classes.size();
+    }
+
+    public int getReachableClassCount() {
+        return reachable.size();
+    }
+
+    /**
+     * Writes the entries of the module Jar that are kept to the appender. Returns the number of dropped entries.
+     */
+    public int write(File moduleJar, RawZip.Appender appender) throws IOException {
+        Module module = requireNonNull(modules.get(moduleJar), "Module was not analyzed");
+        ZipEntry moduleInfoEntry = ModuleInfo.moduleInfoEntry(module.jar);
+        byte @Nullable [] moduleInfo = moduleInfoEntry == null ? null : read(module.jar, moduleInfoEntry.getName());
+        byte @Nullable [] rewritten = moduleInfo == null ? null : withModulePackages(moduleInfo, module.packages);
+        int[] dropped = {0};
+        appender.transferEntries(moduleJar.toPath(), "", name -> {
+            if (name.endsWith("/")) {
+                // folders are added for the entries that are kept
+                return false;
+            }
+            if (moduleInfoEntry != null && name.equals(moduleInfoEntry.getName())) {
+                return moduleInfo == rewritten;
+            }
+            boolean kept = isKept(module, name);
+            if (!kept) {
+                dropped[0]++;
+            }
+            return kept;
+        });
+        if (moduleInfoEntry != null && rewritten != moduleInfo) {
+            appender.store(rewritten, moduleInfoEntry.getName());
+        }
+        return dropped[0];
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Module module : modules.values()) {
+            module.jar.close();
+        }
+    }
+
+    private boolean isKept(Module module, String entryName) {
+        String path = unversioned(entryName);
+        if (path.endsWith(CLASS_SUFFIX) && !path.equals(MODULE_INFO_CLASS)) {
+            return reachable.contains(path.substring(0, path.length() - CLASS_SUFFIX.length()));
+        }
+        if (path.startsWith(SERVICES_PREFIX) && path.indexOf('/', SERVICES_PREFIX.length()) == -1) {
+            String service = path.substring(SERVICES_PREFIX.length());
+            return keptServices.contains(service) || !classes.containsKey(internalName(service));
+        }
+        if (path.startsWith(META_INF)) {
+            return true;
+        }
+        String fileName = path.substring(path.lastIndexOf('/') + 1);
+        return module.packagesWithReachableClasses.contains(packageOf(path))
+                || strings.contains(path)
+                || strings.contains("/" + path)
+                || strings.contains(fileName)
+                || isKept(path.replace('/', '.'));
+    }
+
+    private boolean isKept(String name) {
+        for (Pattern keepRule : keepRules) {
+            if (keepRule.matcher(name).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The classes referenced from the constant pool of the class. Collects the string constants on the way.
+     */
+    private Set<String> references(byte[] classFile) throws IOException {
+        Set<String> references = new HashSet<>();
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(classFile));
+        in.skipBytes(8); // magic, minor and major version
+        int poolCount = in.readUnsignedShort();
+        String[] utf8 = new String[poolCount];
+        List<Integer> classIndexes = new ArrayList<>();
+        List<Integer> stringIndexes = new ArrayList<>();
+        for (int i = 1; i < poolCount; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case 1: // Utf8
+                    utf8[i] = in.readUTF();
+                    break;
+                case 7: // Class
+                    classIndexes.add(in.readUnsignedShort());
+                    break;
+                case 8: // String
+                    stringIndexes.add(in.readUnsignedShort());
+                    break;
+                default:
+                    i += skipConstant(in, tag);
+            }
+        }
+        for (int index : classIndexes) {
+            String name = utf8[index];
+            if (name.startsWith("[")) {
+                addTypesInDescriptor(name, references);
+            } else {
+                references.add(name);
+            }
+        }
+        for (String constant : utf8) {
+            if (constant != null && constant.indexOf(';') != -1) {
+                addTypesInDescriptor(constant, references);
+            }
+        }
+        for (int index : stringIndexes) {
+            String constant = utf8[index];
+            strings.add(constant);
+            String className = internalName(constant);
+            if (classes.containsKey(className)) {
+                references.add(className);
+            }
+        }
+        return references;
+    }
+
+    private static void addTypesInDescriptor(String descriptor, Set<String> references) {
+        Matcher matcher = TYPE_IN_DESCRIPTOR.matcher(descriptor);
+        while (matcher.find()) {
+            references.add(matcher.group(1));
+        }
+    }
+
+    /**
+     * Adds the 'ModulePackages' attribute with the given packages to the 'module-info.class', if it has none.
+     * Otherwise, the 'module-info.class' is returned as it is.
+     */
+    static byte[] withModulePackages(byte[] moduleInfo, Collection<String> packages) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(moduleInfo));
+        in.skipBytes(8); // magic, minor and major version
+        int poolCount = in.readUnsignedShort();
+        String[] utf8 = new String[poolCount];
+        for (int i = 1; i < poolCount; i++) {
+            int tag = in.readUnsignedByte();
+            if (tag == 1) {
+                utf8[i] = in.readUTF();
+            } else {
+                i += skipConstant(in, tag);
+            }
+        }
+        int poolEnd = moduleInfo.length - in.available();
+        in.skipBytes(6); // access flags, this class, super class
+        in.skipBytes(2 * in.readUnsignedShort()); // interfaces
+        skipMembers(in); // fields
+        skipMembers(in); // methods
+        int attributesStart = moduleInfo.length - in.available();
+        int attributesCount = in.readUnsignedShort();
+        for (int a = 0; a < attributesCount; a++) {
+            if ("ModulePackages".equals(utf8[in.readUnsignedShort()])) {
+                return moduleInfo;
+            }
+            in.skipBytes(in.readInt());
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(moduleInfo.length + 16 * packages.size());
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(moduleInfo, 0, 8);
+        out.writeShort(poolCount + 1 + 2 * packages.size());
+        out.write(moduleInfo, 10, poolEnd - 10);
+        // new constants: the attribute name, and a Utf8 and a Package constant for each package
+        int next = poolCount;
+        out.writeByte(1);
+        out.writeUTF("ModulePackages");
+        int attributeName = next++;
+        List<Integer> packageIndexes = new ArrayList<>();
+        for (String packageName : packages) {
+            out.writeByte(1);
+            out.writeUTF(packageName.replace('.', '/'));
+            out.writeByte(20);
+            out.writeShort(next);
+            packageIndexes.add(next + 1);
+            next += 2;
+        }
+        out.write(moduleInfo, poolEnd, attributesStart - poolEnd);
+        out.writeShort(attributesCount + 1);
+        out.write(moduleInfo, attributesStart + 2, moduleInfo.length - attributesStart - 2);
+        out.writeShort(attributeName);
+        out.writeInt(2 + 2 * packageIndexes.size());
+        out.writeShort(packageIndexes.size());
+        for (int packageIndex : packageIndexes) {
+            out.writeShort(packageIndex);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Skips a constant other than Utf8 and returns how many additional pool slots it takes.
+     */
+    private static int skipConstant(DataInputStream in, int tag) throws IOException {
+        switch (tag) {
+            case 7: // Class
+            case 8: // String
+            case 16: // MethodType
+            case 19: // Module
+            case 20: // Package
+                in.skipBytes(2);
+                return 0;
+            case 15: // MethodHandle
+                in.skipBytes(3);
+                return 0;
+            case 3: // Integer
+            case 4: // Float
+            case 9: // Fieldref
+            case 10: // Methodref
+            case 11: // InterfaceMethodref
+            case 12: // NameAndType
+            case 17: // Dynamic
+            case 18: // InvokeDynamic
+                in.skipBytes(4);
+                return 0;
+            case 5: // Long
+            case 6: // Double
+                in.skipBytes(8);
+                return 1;
+            default:
+                throw new IOException("Unknown constant pool tag " + tag);
+        }
+    }
+
+    private static void skipMembers(DataInputStream in) throws IOException {
+        int count = in.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            in.skipBytes(6); // access flags, name, descriptor
+            int attributes = in.readUnsignedShort();
+            for (int a = 0; a < attributes; a++) {
+                in.skipBytes(2);
+                in.skipBytes(in.readInt());
+            }
+        }
+    }
+
+    private static byte[] read(JarFile jar, String entryName) throws IOException {
+        ZipEntry entry = jar.getEntry(entryName);
+        if (entry == null) {
+            throw new IOException("No entry '" + entryName + "' in " + jar.getName());
+        }
+        try (InputStream in = jar.getInputStream(entry)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * The path of an entry of a Multi-Release Jar without the 'META-INF/versions/N/' prefix.
+     */
+    private static String unversioned(String entryName) {
+        if (entryName.startsWith(MULTI_RELEASE_PREFIX)) {
+            int versionEnd = entryName.indexOf('/', MULTI_RELEASE_PREFIX.length());
+            if (versionEnd != -1) {
+                return entryName.substring(versionEnd + 1);
+            }
+        }
+        return entryName;
+    }
+
+    private static String packageOf(String path) {
+        int index = path.lastIndexOf('/');
+        return index == -1 ? "" : path.substring(0, index).replace('/', '.');
+    }
+
+    private static String internalName(String className) {
+        return className.replace('.', '/');
+    }
+}
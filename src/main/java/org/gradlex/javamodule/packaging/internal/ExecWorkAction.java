@@ -0,0 +1,99 @@
+// SPDX-License-Identifier: Apache-2.0
+package org.gradlex.javamodule.packaging.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import javax.inject.Inject;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.process.ExecOperations;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+import org.jspecify.annotations.NullMarked;
+
+@NullMarked
+public abstract class ExecWorkAction implements WorkAction<ExecWorkAction.Parameters> {
+
+    public interface Parameters extends WorkParameters {
+        ListProperty<String> getCommandLine();
+
+        MapProperty<String, String> getEnvironment();
+
+        Property<String> getLabel();
+
+        /**
+         * Log the output of the process with timestamps relative to {@link #getStartNanos()}.
+         */
+        Property<Boolean> getTimestampedOutput();
+
+        Property<Long> getStartNanos();
+
+        /**
+         * If set, the start (relative to {@link #getStartNanos()}) and the duration of the process
+         * are written to this file.
+         */
+        RegularFileProperty getDurationFile();
+
+        /**
+         * If set, the process only runs while a permit of the service is held.
+         */
+        Property<PackagingPermits> getPermits();
+    }
+
+    @Inject
+    protected abstract ExecOperations getExec();
+
+    @Override
+    public void execute() {
+        Parameters parameters = getParameters();
+        if (!parameters.getPermits().isPresent()) {
+            exec(parameters);
+            return;
+        }
+        PackagingPermits permits = parameters.getPermits().get();
+        permits.acquire();
+        try {
+            exec(parameters);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void exec(Parameters parameters) {
+        long start = System.nanoTime();
+        if (parameters.getTimestampedOutput().getOrElse(false)) {
+            long startNanos = parameters.getStartNanos().get();
+            String label = parameters.getLabel().get();
+            try (TimestampedOutputStream out = new TimestampedOutputStream(
+                            Logging.getLogger(ExecWorkAction.class), startNanos, label);
+                    TimestampedOutputStream err = new TimestampedOutputStream(
+                            Logging.getLogger(ExecWorkAction.class), startNanos, label)) {
+                getExec().exec(e -> {
+                    e.commandLine(parameters.getCommandLine().get());
+                    e.environment(parameters.getEnvironment().get());
+                    e.setStandardOutput(out);
+                    e.setErrorOutput(err);
+                });
+            }
+        } else {
+            getExec().exec(e -> {
+                e.commandLine(parameters.getCommandLine().get());
+                e.environment(parameters.getEnvironment().get());
+            });
+        }
+        if (parameters.getDurationFile().isPresent()) {
+            File durationFile = parameters.getDurationFile().get().getAsFile();
+            String duration = (start - parameters.getStartNanos().getOrElse(start)) + " " + (System.nanoTime() - start);
+            try {
+                Files.write(durationFile.toPath(), duration.getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+// SPDX-License-Identifier: Apache-2.0
+package org.gradlex.javamodule.packaging.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import org.gradle.api.file.FileCollection;
+import org.jspecify.annotations.NullMarked;
+
+/**
+ * Places files in a destination by hard-linking them if possible and copying them otherwise.
+ * Linking only works if source and destination are on the same file system.
+ */
+@NullMarked
+public final class FileLinks {
+
+    private FileLinks() {}
+
+    /**
+     * Links or copies all files of the collection into the destination, keeping their relative paths.
+     */
+    public static void linkOrCopy(FileCollection files, File destination) {
+        files.getAsFileTree().visit(details -> {
+            File target = details.getRelativePath().getFile(destination);
+            try {
+                if (details.isDirectory()) {
+                    Files.createDirectories(target.toPath());
+                } else {
+                    Files.createDirectories(target.getParentFile().toPath());
+                    linkOrCopyFile(details.getFile().toPath(), target.toPath());
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    /**
+     * Links or copies the folder and everything it contains to the destination.
+     */
+    public static void linkOrCopyTree(Path source, Path destination) {
+        try {
+            Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    Files.createDirectories(destination.resolve(source.relativize(dir).toString()));
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    linkOrCopyFile(file, destination.resolve(source.relativize(file).toString()));
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Replaces the files of a copy of the source folder by links to the files of the source. Only files that exist
+     * in both folders with the same size are replaced, so that files the copy adds or changes are kept.
+     */
+    public static void relinkTree(Path source, Path copy) {
+        try {
+            Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    Path target = copy.resolve(source.relativize(file).toString());
+                    if (attrs.isRegularFile()
+                            && Files.isRegularFile(target, LinkOption.NOFOLLOW_LINKS)
+                            && Files.size(target) == attrs.size()
+                            && !Files.isSameFile(file, target)) {
+                        linkOrCopyFile(file, target);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Links or copies a file. An existing file at the target location is replaced and not written to,
+     * so that a file it may be linked to stays untouched.
+     */
+    public static void linkOrCopyFile(Path source, Path target) throws IOException {
+        Files.deleteIfExists(target);
+        try {
+            Files.createLink(target, source);
+        } catch (IOException | UnsupportedOperationException e) {
+            // e.g. source and target on different file systems
+            Files.copy(source, target, StandardCopyOption.COPY_ATTRIBUTES);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+// SPDX-License-Identifier: Apache-2.0
+package org.gradlex.javamodule.packaging.internal;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Helpers to write the JSON reports of the plugin, and to read JSON documents, without depending on a JSON library.
+ */
+@NullMarked
+public class Json {
+
+    public static String string(@Nullable String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder json = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        return json.append('"').toString();
+    }
+
+    /**
+     * Reverts {@link #string(String)}, or the escaping of any JSON string, for a value without the surrounding
+     * quotes.
+     */
+    public static String unescape(String value) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                if (next == 'u' && i + 4 < value.length()) {
+                    result.append((char) Integer.parseInt(value.substring(i + 1, i + 5), 16));
+                    i += 4;
+                } else if (next == 'n') {
+                    result.append('\n');
+                } else if (next == 't') {
+                    result.append('\t');
+                } else if (next == 'r') {
+                    result.append('\r');
+                } else if (next == 'b') {
+                    result.append('\b');
+                } else if (next == 'f') {
+                    result.append('\f');
+                } else {
+                    result.append(next);
+                }
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * Parses a JSON document into maps ('LinkedHashMap'), lists, strings, numbers ('Long' or 'Double'), booleans,
+     * and 'null'.
+     */
+    @Nullable
+    public static Object parse(String json) {
+        int[] position = {0};
+        Object value = parseValue(json, position);
+        skipWhitespace(json, position);
+        if (position[0] != json.length()) {
+            throw new IllegalArgumentException("Unexpected content at position " + position[0]);
+        }
+        return value;
+    }
+
+    @Nullable
+    private static Object parseValue(String json, int[] position) {
+        skipWhitespace(json, position);
+        if (position[0] >= json.length()) {
+            throw new IllegalArgumentException("Unexpected end of JSON");
+        }
+        char c = json.charAt(position[0]);
+        if (c == '{') {
+            Map<String, @Nullable Object> object = new LinkedHashMap<>();
+            position[0]++;
+            skipWhitespace(json, position);
+            if (json.charAt(position[0]) == '}') {
+                position[0]++;
+                return object;
+            }
+            while (true) {
+                skipWhitespace(json, position);
+                String key = parseString(json, position);
+                skipWhitespace(json, position);
+                expect(json, position, ':');
+                object.put(key, parseValue(json, position));
+                skipWhitespace(json, position);
+                if (json.charAt(position[0]) == ',') {
+                    position[0]++;
+                } else {
+                    expect(json, position, '}');
+                    return object;
+                }
+            }
+        }
+        if (c == '[') {
+            List<@Nullable Object> array = new ArrayList<>();
+            position[0]++;
+            skipWhitespace(json, position);
+            if (json.charAt(position[0]) == ']') {
+                position[0]++;
+                return array;
+            }
+            while (true) {
+                array.add(parseValue(json, position));
+                skipWhitespace(json, position);
+                if (json.charAt(position[0]) == ',') {
+                    position[0]++;
+                } else {
+                    expect(json, position, ']');
+                    return array;
+                }
+            }
+        }
+        if (c == '"') {
+            return parseString(json, position);
+        }
+        for (String literal : new String[] {"true", "false", "null"}) {
+            if (json.startsWith(literal, position[0])) {
+                position[0] += literal.length();
+                return "null".equals(literal) ? null : Boolean.valueOf(literal);
+            }
+        }
+        int start = position[0];
+        while (position[0] < json.length() && "+-0123456789.eE".indexOf(json.charAt(position[0])) != -1) {
+            position[0]++;
+        }
+        String number = json.substring(start, position[0]);
+        if (number.isEmpty()) {
+            throw new IllegalArgumentException("Unexpected character '" + c + "' at position " + start);
+        }
+        return number.contains(".") || number.contains("e") || number.contains("E")
+                ? (Object) Double.valueOf(number)
+                : (Object) Long.valueOf(number);
+    }
+
+    private static String parseString(String json, int[] position) {
+        expect(json, position, '"');
+        int start = position[0];
+        while (json.charAt(position[0]) != '"') {
+            position[0] += json.charAt(position[0]) == '\\' ? 2 : 1;
+        }
+        String value = json.substring(start, position[0]);
+        position[0]++;
+        return unescape(value);
+    }
+
+    private static void expect(String json, int[] position, char expected) {
+        if (position[0] >= json.length() || json.charAt(position[0]) != expected) {
+            throw new IllegalArgumentException("Expected '" + expected + "' at position " + position[0]);
+        }
+        position[0]++;
+    }
+
+    private static void skipWhitespace(String json, int[] position) {
+        while (position[0] < json.length() && Character.isWhitespace(json.charAt(position[0]))) {
+            position[0]++;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+// SPDX-License-Identifier: Apache-2.0
+package org.gradlex.javamodule.packaging.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import org.jspecify.annotations.NullMarked;
+
+/**
+ * The '.cfg' file of an application launcher in an image created by 'jpackage'. Used to run the launcher
+ * with additional Java options, for example, in a training run.
+ */
+@NullMarked
+public class LauncherConfig {
+
+    private static final String JAVA_OPTIONS_SECTION = "[JavaOptions]";
+
+    private final File file;
+    private final List<String> originalLines;
+
+    public LauncherConfig(File file) {
+        this.file = file;
+        try {
+            this.originalLines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot read launcher configuration " + file, e);
+        }
+    }
+
+    /**
+     * Writes the original configuration with the given options added at the end of the '[JavaOptions]' section.
+     */
+    public void withJavaOptions(List<String> javaOptions) {
+        List<String> lines = new ArrayList<>(originalLines);
+        int sectionStart = lines.indexOf(JAVA_OPTIONS_SECTION);
+        if (sectionStart == -1) {
+            lines.add(JAVA_OPTIONS_SECTION);
+            sectionStart = lines.size() - 1;
+        }
+        int insertAt = sectionStart + 1;
+        while (insertAt < lines.size() && !lines.get(insertAt).startsWith("[")) {
+            insertAt++;
+        }
+        // do not insert after the empty lines that separate the sections
+        while (insertAt > sectionStart + 1 && lines.get(insertAt - 1).trim().isEmpty()) {
+            insertAt--;
+        }
+        for (String option : javaOptions) {
+            lines.add(insertAt++, "java-options=" + option);
+        }
+        write(lines);
+    }
+
+    /**
+     * Writes the configuration as it was when this object was created.
+     */
+    public void restore() {
+        write(originalLines);
+    }
+
+    private void write(List<String> lines) {
+        try {
+            Files.write(file.toPath(), lines, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot write launcher configuration " + file, e);
+        }
+    }
+}
@@ -0,0 +1,701 @@
+// SPDX-License-Identifier: Apache-2.0
+package org.gradlex.javamodule.packaging.internal;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.jspecify.annotations.NullMarked;
+
+/**
+ * Writes '.deb' and '.rpm' packages that install an app-image, without calling 'dpkg-deb' or 'rpmbuild'.
+ * The files are streamed from the image into the compressed payload, which is compressed in parallel with
+ * {@link ParallelGzipOutputStream}. All entries have the same timestamp, so that the packages are reproducible.
+ * The packages contain the files and the package metadata, but no installation scripts.
+ */
+@NullMarked
+public final class LinuxPackageWriter {
+
+    private static final long MTIME = 0;
+    private static final int DIRECTORY_SIZE = 4096;
+    private static final long MAX_SIZE = 0xFFFFFFFFL;
+
+    private final Path appImageFolder;
+    private final String installDir;
+    private final String name;
+    private final String version;
+    private final String release;
+    private final String architecture;
+    private final String description;
+    private final String maintainer;
+    private final String license;
+    private final String category;
+    private final List<String> dependencies;
+
+    /**
+     * @param appImageFolder the folder of the app-image that is installed as the 'installDir'
+     * @param installDir the absolute path of the installed application, e.g. '/opt/app'
+     * @param architecture the target architecture as named by Gradle, e.g. 'x86-64'
+     */
+    public LinuxPackageWriter(
+            Path appImageFolder,
+            String installDir,
+            String name,
+            String version,
+            String release,
+            String architecture,
+            String description,
+            String maintainer,
+            String license,
+            String category,
+            List<String> dependencies) {
+        this.appImageFolder = appImageFolder;
+        this.installDir = installDir;
+        this.name = name;
+        this.version = version;
+        this.release = release;
+        this.architecture = architecture;
+        this.description = description;
+        this.maintainer = maintainer;
+        this.license = license;
+        this.category = category;
+        this.dependencies = dependencies;
+    }
+
+    /**
+     * The file name 'jpackage' uses for the package: 'name_version-release_arch.deb' or
+     * 'name-version-release.arch.rpm'.
+     */
+    public String fileName(String packageType) {
+        if ("deb".equals(packageType)) {
+            return name + "_" + version + "-" + release + "_" + debArchitecture() + ".deb";
+        }
+        return name + "-" + version + "-" + release + "." + rpmArchitecture() + ".rpm";
+    }
+
+    /**
+     * Writes an 'ar' archive with the 'debian-binary', 'control.tar.gz', and 'data.tar.gz' members.
+     * The size of the data member is only known after it was written and is set in its header afterward.
+     */
+    public void writeDeb(File deb, int level, ExecutorService pool, int parallelism) throws IOException {
+        List<Entry> entries = entries();
+        try (FileChannel channel = FileChannel.open(
+                deb.toPath(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024);
+            out.write("!<arch>\n".getBytes(UTF_8));
+            arMember(out, "debian-binary", "2.0\n".getBytes(UTF_8));
+            arMember(out, "control.tar.gz", controlArchive(entries, level, pool, parallelism));
+            out.flush();
+
+            long dataHeader = channel.position();
+            out.write(arHeader("data.tar.gz", 0));
+            CountingOutputStream data = new CountingOutputStream(out);
+            try (TarWriter tar = new TarWriter(
+                    new ParallelGzipOutputStream(new NonClosingOutputStream(data), level, pool, parallelism),
+                    MTIME)) {
+                for (Entry entry : entries) {
+                    String path = "." + entry.path;
+                    if (entry.isDirectory()) {
+                        tar.directory(path);
+                    } else if (entry.isSymbolicLink()) {
+                        tar.symbolicLink(path, entry.linkTarget);
+                    } else {
+                        tar.file(path, entry.mode, entry.source);
+                    }
+                }
+            }
+            if (data.count % 2 != 0) {
+                out.write('\n');
+            }
+            out.flush();
+            channel.write(ByteBuffer.wrap(arHeader("data.tar.gz", data.count)), dataHeader);
+        }
+    }
+
+    /**
+     * Writes the lead, the signature, the header, and the 'cpio' payload. The signature contains the digests of
+     * the header and the payload. It has a fixed size and is written after the payload.
+     */
+    public void writeRpm(File rpm, int level, ExecutorService pool, int parallelism) throws IOException {
+        List<Entry> entries = entries();
+        Map<Entry, String> digests = fileDigests(entries, pool);
+        byte[] header = rpmHeader(entries, digests);
+        int signatureSize = rpmSignature(0, new byte[16], hex(new byte[20]), hex(new byte[32]), 0).length;
+
+        try (FileChannel channel = FileChannel.open(
+                rpm.toPath(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024);
+            out.write(rpmLead());
+            out.write(new byte[signatureSize]);
+
+            MessageDigest md5 = messageDigest("MD5");
+            md5.update(header);
+            out.write(header);
+            CountingOutputStream payload = new CountingOutputStream(new DigestOutputStream(out, md5));
+            CountingOutputStream archive = new CountingOutputStream(
+                    new ParallelGzipOutputStream(new NonClosingOutputStream(payload), level, pool, parallelism));
+            try (CpioWriter cpio = new CpioWriter(archive)) {
+                for (int i = 0; i < entries.size(); i++) {
+                    cpio.entry(entries.get(i), i + 1);
+                }
+            }
+            out.flush();
+
+            long size = header.length + payload.count;
+            if (size > MAX_SIZE || archive.count > MAX_SIZE) {
+                throw new RuntimeException("Packages of 4 GiB or more are not supported: " + rpm);
+            }
+            byte[] signature = rpmSignature(
+                    (int) size,
+                    md5.digest(),
+                    hex(messageDigest("SHA-1").digest(header)),
+                    hex(messageDigest("SHA-256").digest(header)),
+                    (int) archive.count);
+            channel.write(ByteBuffer.wrap(signature), rpmLead().length);
+        }
+    }
+
+    private String debArchitecture() {
+        if ("x86-64".equals(architecture)) {
+            return "amd64";
+        }
+        if ("aarch64".equals(architecture)) {
+            return "arm64";
+        }
+        return architecture;
+    }
+
+    private String rpmArchitecture() {
+        if ("x86-64".equals(architecture)) {
+            return "x86_64";
+        }
+        return architecture;
+    }
+
+    private String summary() {
+        int lineEnd = description.indexOf('\n');
+        return lineEnd == -1 ? description : description.substring(0, lineEnd);
+    }
+
+    /**
+     * The installation folder and everything in the app-image, sorted by path.
+     */
+    private List<Entry> entries() throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        try (Stream<Path> files = Files.walk(appImageFolder)) {
+            for (Path file : files.collect(Collectors.toList())) {
+                String relative = appImageFolder.relativize(file).toString().replace(File.separatorChar, '/');
+                String path = relative.isEmpty() ? installDir : installDir + "/" + relative;
+                if (Files.isSymbolicLink(file)) {
+                    entries.add(new Entry(path, file, 0120777, 0, Files.readSymbolicLink(file).toString()));
+                } else if (Files.isDirectory(file)) {
+                    entries.add(new Entry(path, file, 040755, DIRECTORY_SIZE, ""));
+                } else {
+                    int mode = Files.isExecutable(file) ? TarWriter.EXECUTABLE_MODE : TarWriter.FILE_MODE;
+                    entries.add(new Entry(path, file, 0100000 | mode, Files.size(file), ""));
+                }
+            }
+        }
+        entries.sort(Comparator.comparing(e -> e.path));
+        return entries;
+    }
+
+    private byte[] controlArchive(List<Entry> entries, int level, ExecutorService pool, int parallelism)
+            throws IOException {
+        long installedSize = 0;
+        for (Entry entry : entries) {
+            installedSize += (entry.size + 1023) / 1024;
+        }
+        StringBuilder control = new StringBuilder();
+        control.append("Package: ").append(name).append('\n');
+        control.append("Version: ").append(version).append('-').append(release).append('\n');
+        control.append("Section: ").append(category).append('\n');
+        control.append("Maintainer: ").append(maintainer).append('\n');
+        control.append("Priority: optional\n");
+        control.append("Architecture: ").append(debArchitecture()).append('\n');
+        control.append("Provides: ").append(name).append('\n');
+        if (!dependencies.isEmpty()) {
+            control.append("Depends: ").append(String.join(", ", dependencies)).append('\n');
+        }
+        control.append("Installed-Size: ").append(installedSize).append('\n');
+        control.append("Description: ").append(summary()).append('\n');
+        for (String line : description.substring(summary().length()).trim().split("\n")) {
+            if (!line.trim().isEmpty()) {
+                control.append(' ').append(line.trim()).append('\n');
+            }
+        }
+
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (TarWriter tar = new TarWriter(new ParallelGzipOutputStream(archive, level, pool, parallelism), MTIME)) {
+            tar.directory(".");
+            tar.file("./control", TarWriter.FILE_MODE, control.toString().getBytes(UTF_8));
+        }
+        return archive.toByteArray();
+    }
+
+    private static void arMember(OutputStream out, String name, byte[] content) throws IOException {
+        out.write(arHeader(name, content.length));
+        out.write(content);
+        if (content.length % 2 != 0) {
+            out.write('\n');
+        }
+    }
+
+    private static byte[] arHeader(String name, long size) {
+        String header = pad(name, 16) + pad(Long.toString(MTIME), 12) + pad("0", 6) + pad("0", 6) + pad("100644", 8)
+                + pad(Long.toString(size), 10) + "`\n";
+        return header.getBytes(UTF_8);
+    }
+
+    private static String pad(String value, int length) {
+        StringBuilder padded = new StringBuilder(value);
+        while (padded.length() < length) {
+            padded.append(' ');
+        }
+        return padded.toString();
+    }
+
+    /**
+     * The SHA-256 digests of the files, which are read in parallel.
+     */
+    private static Map<Entry, String> fileDigests(List<Entry> entries, ExecutorService pool) throws IOException {
+        Map<Entry, Future<String>> futures = new LinkedHashMap<>();
+        for (Entry entry : entries) {
+            if (entry.isFile()) {
+                futures.put(entry, pool.submit(() -> {
+                    MessageDigest sha256 = messageDigest("SHA-256");
+                    byte[] buffer = new byte[64 * 1024];
+                    try (InputStream in = Files.newInputStream(entry.source)) {
+                        int read;
+                        while ((read = in.read(buffer)) != -1) {
+                            sha256.update(buffer, 0, read);
+                        }
+                    }
+                    return hex(sha256.digest());
+                }));
+            }
+        }
+        Map<Entry, String> digests = new LinkedHashMap<>();
+        try {
+            for (Map.Entry<Entry, Future<String>> future : futures.entrySet()) {
+                digests.put(future.getKey(), future.getValue().get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+        return digests;
+    }
+
+    private byte[] rpmLead() {
+        ByteBuffer lead = ByteBuffer.allocate(96);
+        lead.put(new byte[] {(byte) 0xED, (byte) 0xAB, (byte) 0xEE, (byte) 0xDB, 3, 0});
+        lead.putShort((short) 0); // binary package
+        lead.putShort((short) ("x86-64".equals(architecture) ? 1 : 0));
+        byte[] leadName = Arrays.copyOf((name + "-" + version + "-" + release).getBytes(UTF_8), 65);
+        lead.put(leadName).put((byte) 0);
+        lead.putShort((short) 1); // Linux
+        lead.putShort((short) 5); // signature in a header structure
+        return lead.array();
+    }
+
+    private static byte[] rpmSignature(int size, byte[] md5, String sha1, String sha256, int payloadSize) {
+        RpmHeader signature = new RpmHeader(62);
+        signature.string(269, sha1);
+        signature.string(273, sha256);
+        signature.int32(1000, size);
+        signature.binary(1004, md5);
+        signature.int32(1007, payloadSize);
+        byte[] bytes = signature.toBytes();
+        // the header that follows the signature starts at a multiple of 8
+        return Arrays.copyOf(bytes, (bytes.length + 7) / 8 * 8);
+    }
+
+    private byte[] rpmHeader(List<Entry> entries, Map<Entry, String> digests) {
+        long installedSize = entries.stream().mapToLong(e -> e.size).sum();
+        if (installedSize > MAX_SIZE) {
+            throw new RuntimeException("Packages of 4 GiB or more are not supported: " + appImageFolder);
+        }
+        int count = entries.size();
+        Map<String, Integer> dirIndexes = new LinkedHashMap<>();
+        String[] baseNames = new String[count];
+        int[] dirIndex = new int[count];
+        int[] sizes = new int[count];
+        short[] modes = new short[count];
+        short[] rdevs = new short[count];
+        int[] mtimes = new int[count];
+        String[] fileDigests = new String[count];
+        String[] linkTargets = new String[count];
+        int[] flags = new int[count];
+        String[] users = new String[count];
+        String[] groups = new String[count];
+        int[] verifyFlags = new int[count];
+        int[] devices = new int[count];
+        int[] inodes = new int[count];
+        String[] langs = new String[count];
+        for (int i = 0; i < count; i++) {
+            Entry entry = entries.get(i);
+            int slash = entry.path.lastIndexOf('/');
+            String dirName = entry.path.substring(0, slash + 1);
+            dirIndex[i] = dirIndexes.computeIfAbsent(dirName, d -> dirIndexes.size());
+            baseNames[i] = entry.path.substring(slash + 1);
+            sizes[i] = (int) entry.size;
+            modes[i] = (short) entry.mode;
+            mtimes[i] = (int) MTIME;
+            fileDigests[i] = digests.getOrDefault(entry, "");
+            linkTargets[i] = entry.linkTarget;
+            users[i] = "root";
+            groups[i] = "root";
+            verifyFlags[i] = -1;
+            devices[i] = 1;
+            inodes[i] = i + 1;
+            langs[i] = "";
+        }
+
+        List<String> requireNames = new ArrayList<>();
+        List<Integer> requireFlags = new ArrayList<>();
+        List<String> requireVersions = new ArrayList<>();
+        // the features of 'rpm' the package relies on: RPMSENSE_RPMLIB | RPMSENSE_LESS | RPMSENSE_EQUAL
+        requireNames.add("rpmlib(CompressedFileNames)");
+        requireFlags.add(0x1000000 | 0x02 | 0x08);
+        requireVersions.add("3.0.4-1");
+        requireNames.add("rpmlib(PayloadFilesHavePrefix)");
+        requireFlags.add(0x1000000 | 0x02 | 0x08);
+        requireVersions.add("4.0-1");
+        for (String dependency : dependencies) {
+            requireNames.add(dependency);
+            requireFlags.add(0);
+            requireVersions.add("");
+        }
+
+        RpmHeader header = new RpmHeader(63);
+        header.strings(100, "C");
+        header.string(1000, name);
+        header.string(1001, version);
+        header.string(1002, release);
+        header.i18nString(1004, summary());
+        header.i18nString(1005, description);
+        header.int32(1009, (int) installedSize);
+        header.string(1014, license);
+        header.i18nString(1016, category);
+        header.string(1021, "linux");
+        header.string(1022, rpmArchitecture());
+        header.int32(1028, sizes);
+        header.int16(1030, modes);
+        header.int16(1033, rdevs);
+        header.int32(1034, mtimes);
+        header.strings(1035, fileDigests);
+        header.strings(1036, linkTargets);
+        header.int32(1037, flags);
+        header.strings(1039, users);
+        header.strings(1040, groups);
+        header.string(1044, name + "-" + version + "-" + release + ".src.rpm");
+        header.int32(1045, verifyFlags);
+        header.strings(1047, name);
+        header.int32(1048, requireFlags.stream().mapToInt(Integer::intValue).toArray());
+        header.strings(1049, requireNames.toArray(new String[0]));
+        header.strings(1050, requireVersions.toArray(new String[0]));
+        header.int32(1095, devices);
+        header.int32(1096, inodes);
+        header.strings(1097, langs);
+        header.int32(1112, 0x08); // RPMSENSE_EQUAL
+        header.strings(1113, version + "-" + release);
+        header.int32(1116, dirIndex);
+        header.strings(1117, baseNames);
+        header.strings(1118, dirIndexes.keySet().toArray(new String[0]));
+        header.string(1124, "cpio");
+        header.string(1125, "gzip");
+        header.string(1126, "9");
+        header.int32(5011, 8); // SHA-256 file digests
+        header.string(5062, "utf-8");
+        return header.toBytes();
+    }
+
+    private static MessageDigest messageDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    private static final class Entry {
+        private final String path;
+        private final Path source;
+        private final int mode;
+        private final long size;
+        private final String linkTarget;
+
+        private Entry(String path, Path source, int mode, long size, String linkTarget) {
+            this.path = path;
+            this.source = source;
+            this.mode = mode;
+            this.size = linkTarget.isEmpty() ? size : linkTarget.getBytes(UTF_8).length;
+            this.linkTarget = linkTarget;
+        }
+
+        private boolean isDirectory() {
+            return (mode & 0170000) == 040000;
+        }
+
+        private boolean isSymbolicLink() {
+            return (mode & 0170000) == 0120000;
+        }
+
+        private boolean isFile() {
+            return (mode & 0170000) == 0100000;
+        }
+    }
+
+    /**
+     * A header structure of the 'rpm' format: an index of tags and a data store, enclosed in an immutable region.
+     * The entries are sorted by tag, and their data is aligned to the size of their type.
+     */
+    private static final class RpmHeader {
+        private static final int INT16 = 3;
+        private static final int INT32 = 4;
+        private static final int STRING = 6;
+        private static final int BIN = 7;
+        private static final int STRING_ARRAY = 8;
+        private static final int I18NSTRING = 9;
+
+        private final int regionTag;
+        private final Map<Integer, Object[]> entries = new TreeMap<>();
+
+        private RpmHeader(int regionTag) {
+            this.regionTag = regionTag;
+        }
+
+        void string(int tag, String value) {
+            entries.put(tag, new Object[] {STRING, 1, nullTerminated(value)});
+        }
+
+        void i18nString(int tag, String value) {
+            entries.put(tag, new Object[] {I18NSTRING, 1, nullTerminated(value)});
+        }
+
+        void strings(int tag, String... values) {
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            for (String value : values) {
+                byte[] bytes = nullTerminated(value);
+                data.write(bytes, 0, bytes.length);
+            }
+            entries.put(tag, new Object[] {STRING_ARRAY, values.length, data.toByteArray()});
+        }
+
+        void binary(int tag, byte[] value) {
+            entries.put(tag, new Object[] {BIN, value.length, value});
+        }
+
+        void int16(int tag, short[] values) {
+            ByteBuffer data = ByteBuffer.allocate(values.length * 2);
+            for (short value : values) {
+                data.putShort(value);
+            }
+            entries.put(tag, new Object[] {INT16, values.length, data.array()});
+        }
+
+        void int32(int tag, int... values) {
+            ByteBuffer data = ByteBuffer.allocate(values.length * 4);
+            for (int value : values) {
+                data.putInt(value);
+            }
+            entries.put(tag, new Object[] {INT32, values.length, data.array()});
+        }
+
+        byte[] toBytes() {
+            int indexLength = entries.size() + 1;
+            ByteArrayOutputStream store = new ByteArrayOutputStream();
+            ByteBuffer index = ByteBuffer.allocate(indexLength * 16);
+            index.position(16); // the region entry is written last, as it points to the end of the store
+            for (Map.Entry<Integer, Object[]> entry : entries.entrySet()) {
+                int type = (Integer) entry.getValue()[0];
+                int alignment = type == INT32 ? 4 : type == INT16 ? 2 : 1;
+                while (store.size() % alignment != 0) {
+                    store.write(0);
+                }
+                byte[] data = (byte[]) entry.getValue()[2];
+                index.putInt(entry.getKey()).putInt(type).putInt(store.size()).putInt((Integer)
+                        entry.getValue()[1]);
+                store.write(data, 0, data.length);
+            }
+            int regionOffset = store.size();
+            index.position(0);
+            index.putInt(regionTag).putInt(BIN).putInt(regionOffset).putInt(16);
+            ByteBuffer trailer = ByteBuffer.allocate(16);
+            trailer.putInt(regionTag).putInt(BIN).putInt(-indexLength * 16).putInt(16);
+            store.write(trailer.array(), 0, 16);
+
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(header)) {
+                out.write(new byte[] {(byte) 0x8E, (byte) 0xAD, (byte) 0xE8, 1, 0, 0, 0, 0});
+                out.writeInt(indexLength);
+                out.writeInt(store.size());
+                out.write(index.array());
+                out.write(store.toByteArray());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return header.toByteArray();
+        }
+
+        private static byte[] nullTerminated(String value) {
+            return (value + '\0').getBytes(UTF_8);
+        }
+    }
+
+    /**
+     * Writes 'cpio' archives in the 'newc' format with the './' prefix that 'rpm' expects.
+     */
+    private static final class CpioWriter implements AutoCloseable {
+        private final OutputStream out;
+        private long written;
+
+        private CpioWriter(OutputStream out) {
+            this.out = out;
+        }
+
+        void entry(Entry entry, int inode) throws IOException {
+            byte[] content = entry.isSymbolicLink() ? entry.linkTarget.getBytes(UTF_8) : new byte[0];
+            long size = entry.isFile() ? entry.size : content.length;
+            if (size > MAX_SIZE) {
+                throw new RuntimeException("Files of 4 GiB or more are not supported: " + entry.source);
+            }
+            header("." + entry.path, inode, entry.mode, entry.isDirectory() ? 2 : 1, size);
+            if (entry.isFile()) {
+                try (InputStream in = Files.newInputStream(entry.source)) {
+                    byte[] buffer = new byte[64 * 1024];
+                    long copied = 0;
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        write(buffer, read);
+                        copied += read;
+                    }
+                    if (copied != size) {
+                        throw new IOException("File changed while it was added to the archive: " + entry.source);
+                    }
+                }
+            } else {
+                write(content, content.length);
+            }
+            pad();
+        }
+
+        @Override
+        public void close() throws IOException {
+            header("TRAILER!!!", 0, 0, 1, 0);
+            out.close();
+        }
+
+        private void header(String name, int inode, int mode, int links, long size) throws IOException {
+            byte[] nameBytes = (name + '\0').getBytes(UTF_8);
+            StringBuilder header = new StringBuilder("070701");
+            long[] fields = {inode, mode, 0, 0, links, MTIME, size, 0, 0, 0, 0, nameBytes.length, 0};
+            for (long field : fields) {
+                String hex = Long.toHexString(field);
+                for (int i = hex.length(); i < 8; i++) {
+                    header.append('0');
+                }
+                header.append(hex);
+            }
+            byte[] headerBytes = header.toString().getBytes(UTF_8);
+            write(headerBytes, headerBytes.length);
+            write(nameBytes, nameBytes.length);
+            pad();
+        }
+
+        private void write(byte[] bytes, int length) throws IOException {
+            out.write(bytes, 0, length);
+            written += length;
+        }
+
+        private void pad() throws IOException {
+            while (written % 4 != 0) {
+                out.write(0);
+                written++;
+            }
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        private CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    /**
+     * Keeps the package file open when a member or the payload is completed.
+     */
+    private static final class NonClosingOutputStream extends FilterOutputStream {
+        private NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,296 @@
+// SPDX-License-Identifier: Apache-2.0
+package org.gradlex.javamodule.packaging.internal;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * The index of a fat Jar with nested module Jars. For each module, it contains the location of the nested Jar
+ * and everything that is needed to create the module descriptor: the 'module-info.class' and the packages, or,
+ * for automatic modules, the packages, service providers and main class. The launcher creates the module layer
+ * from the index without reading the nested Jars.
+ * <p>
+ * The index is written with {@link DataOutputStream}:
+ * <pre>
+ * int magic, short version, int moduleCount, and for each module:
+ *   UTF name, UTF entryName, long offset, long length,
+ *   int descriptorLength, byte[] descriptor (length 0 for automatic modules),
+ *   int packageCount, UTF[] packages,
+ *   int providesCount, (UTF service, int count, UTF[] providers)[], UTF mainClass (empty if there is none)
+ * </pre>
+ * Providers and main class are only set for automatic modules; the descriptor contains them otherwise.
+ */
+@NullMarked
+public final class ModuleGraphIndex {
+
+    public static final String ENTRY_NAME = "modulegraph.idx";
+
+    private static final int MAGIC = 0x4a4d4749;
+    private static final int VERSION = 1;
+
+    private static final String META_INF = "META-INF/";
+    private static final String SERVICES_PREFIX = "META-INF/services/";
+    private static final String MULTI_RELEASE_PREFIX = "META-INF/versions/";
+    private static final Set<String> KEYWORDS = new HashSet<>(Arrays.asList(
+            "abstract", "assert", "boolean", "break", "byte", "case", "catch", "char", "class", "const", "continue",
+            "default", "do", "double", "else", "enum", "extends", "final", "finally", "float", "for", "goto", "if",
+            "implements", "import", "instanceof", "int", "interface", "long", "native", "new", "package", "private",
+            "protected", "public", "return", "short", "static", "strictfp", "super", "switch", "synchronized", "this",
+            "throw", "throws", "transient", "try", "void", "volatile", "while", "true", "false", "null", "_"));
+
+    private ModuleGraphIndex() {}
+
+    public static final class Module {
+        private final String name;
+        private final String entryName;
+        private final long offset;
+        private final long length;
+        private final byte[] descriptor;
+        private final List<String> packages;
+        private final Map<String, List<String>> provides;
+        private final String mainClass;
+
+        private Module(
+                String name,
+                String entryName,
+                long offset,
+                long length,
+                byte[] descriptor,
+                List<String> packages,
+                Map<String, List<String>> provides,
+                String mainClass) {
+            this.name = name;
+            this.entryName = entryName;
+            this.offset = offset;
+            this.length = length;
+            this.descriptor = descriptor;
+            this.packages = packages;
+            this.provides = provides;
+            this.mainClass = mainClass;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getEntryName() {
+            return entryName;
+        }
+
+        /**
+         * Reads the module from the Jar, which is stored at the offset in the fat Jar.
+         */
+        public static Module read(File jar, String name, String entryName, long offset) throws IOException {
+            try (JarFile jarFile = new JarFile(jar)) {
+                Manifest manifest = jarFile.getManifest();
+                boolean multiRelease = manifest != null
+                        && "true".equalsIgnoreCase(manifest.getMainAttributes().getValue("Multi-Release"));
+
+                Set<String> packages = new TreeSet<>();
+                for (ZipEntry entry : Collections.list(jarFile.entries())) {
+                    if (entry.isDirectory()) {
+                        continue;
+                    }
+                    String entryPath = entry.getName();
+                    if (multiRelease && entryPath.startsWith(MULTI_RELEASE_PREFIX)) {
+                        int versionEnd = entryPath.indexOf('/', MULTI_RELEASE_PREFIX.length());
+                        entryPath = versionEnd == -1 ? "" : entryPath.substring(versionEnd + 1);
+                    }
+                    int index = entryPath.lastIndexOf('/');
+                    if (index != -1 && !entryPath.startsWith(META_INF)) {
+                        String packageName = entryPath.substring(0, index).replace('/', '.');
+                        if (isPackageName(packageName)) {
+                            packages.add(packageName);
+                        }
+                    }
+                }
+
+                ZipEntry moduleInfo = ModuleInfo.moduleInfoEntry(jarFile);
+                if (moduleInfo != null) {
+                    return new Module(
+                            name,
+                            entryName,
+                            offset,
+                            jar.length(),
+                            readAll(jarFile.getInputStream(moduleInfo)),
+                            new ArrayList<>(packages),
+                            Collections.emptyMap(),
+                            "");
+                }
+                return new Module(
+                        name,
+                        entryName,
+                        offset,
+                        jar.length(),
+                        new byte[0],
+                        new ArrayList<>(packages),
+                        providers(jarFile, packages),
+                        mainClass(manifest, packages));
+            }
+        }
+    }
+
+    public static byte[] write(List<Module> modules) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeInt(modules.size());
+            for (Module module : modules) {
+                out.writeUTF(module.name);
+                out.writeUTF(module.entryName);
+                out.writeLong(module.offset);
+                out.writeLong(module.length);
+                out.writeInt(module.descriptor.length);
+                out.write(module.descriptor);
+                writeStrings(out, module.packages);
+                out.writeInt(module.provides.size());
+                for (Map.Entry<String, List<String>> provides : module.provides.entrySet()) {
+                    out.writeUTF(provides.getKey());
+                    writeStrings(out, provides.getValue());
+                }
+                out.writeUTF(module.mainClass);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    public static List<Module> read(InputStream index) throws IOException {
+        DataInputStream in = new DataInputStream(index);
+        if (in.readInt() != MAGIC || in.readUnsignedShort() != VERSION) {
+            throw new IOException("Unsupported module graph index");
+        }
+        int count = in.readInt();
+        List<Module> modules = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String name = in.readUTF();
+            String entryName = in.readUTF();
+            long offset = in.readLong();
+            long length = in.readLong();
+            byte[] descriptor = new byte[in.readInt()];
+            in.readFully(descriptor);
+            List<String> packages = readStrings(in);
+            int providesCount = in.readInt();
+            Map<String, List<String>> provides = new LinkedHashMap<>();
+            for (int p = 0; p < providesCount; p++) {
+                provides.put(in.readUTF(), readStrings(in));
+            }
+            modules.add(new Module(name, entryName, offset, length, descriptor, packages, provides, in.readUTF()));
+        }
+        return modules;
+    }
+
+    /**
+     * The providers listed in 'META-INF/services' that are in the packages of the module, as 'ModuleFinder.of()'
+     * finds them for automatic modules.
+     */
+    private static Map<String, List<String>> providers(JarFile jar, Set<String> packages) throws IOException {
+        Map<String, List<String>> provides = new LinkedHashMap<>();
+        for (ZipEntry entry : Collections.list(jar.entries())) {
+            String entryName = entry.getName();
+            if (entryName.startsWith(SERVICES_PREFIX)
+                    && entryName.length() > SERVICES_PREFIX.length()
+                    && entryName.indexOf('/', SERVICES_PREFIX.length()) == -1) {
+                List<String> providers = new ArrayList<>();
+                try (BufferedReader reader =
+                        new BufferedReader(new InputStreamReader(jar.getInputStream(entry), UTF_8))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        int comment = line.indexOf('#');
+                        String provider = (comment == -1 ? line : line.substring(0, comment)).trim();
+                        if (!provider.isEmpty()
+                                && packages.contains(packageOf(provider))
+                                && !providers.contains(provider)) {
+                            providers.add(provider);
+                        }
+                    }
+                }
+                if (!providers.isEmpty()) {
+                    provides.put(entryName.substring(SERVICES_PREFIX.length()), providers);
+                }
+            }
+        }
+        return provides;
+    }
+
+    private static String mainClass(@Nullable Manifest manifest, Set<String> packages) {
+        if (manifest == null) {
+            return "";
+        }
+        String mainClass = manifest.getMainAttributes().getValue(Attributes.Name.MAIN_CLASS);
+        if (mainClass == null || !packages.contains(packageOf(mainClass.trim()))) {
+            return "";
+        }
+        return mainClass.trim();
+    }
+
+    private static String packageOf(String className) {
+        int index = className.lastIndexOf('.');
+        return index == -1 ? "" : className.substring(0, index);
+    }
+
+    static boolean isPackageName(String name) {
+        for (String part : name.split("\\.", -1)) {
+            if (part.isEmpty() || KEYWORDS.contains(part) || !Character.isJavaIdentifierStart(part.charAt(0))) {
+                return false;
+            }
+            for (int i = 1; i < part.length(); i++) {
+                if (!Character.isJavaIdentifierPart(part.charAt(i))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        try (InputStream input = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (String string : strings) {
+            out.writeUTF(string);
+        }
+    }
+
+    private static List<String> readStrings(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<String> strings = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            strings.add(in.readUTF());
+        }
+        return strings;
+    }
+}
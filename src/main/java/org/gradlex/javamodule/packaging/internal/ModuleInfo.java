@@ -0,0 +1,399 @@
+// SPDX-License-Identifier: Apache-2.0
+package org.gradlex.javamodule.packaging.internal;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * The parts of a module descriptor the plugin needs, read from the 'module-info.class' of a Jar or classes folder.
+ * Reading the class file directly (instead of using 'java.lang.module') keeps the plugin independent of the
+ * Java version Gradle runs on.
+ */
+@NullMarked
+public class ModuleInfo {
+
+    private static final String MODULE_INFO_CLASS = "module-info.class";
+    private static final String MULTI_RELEASE_PREFIX = "META-INF/versions/";
+    private static final String JMOD_CLASSES_PREFIX = "classes/";
+    private static final String SERVICES_FOLDER = "META-INF/services";
+
+    private static final int ACC_OPEN = 0x0020;
+    private static final int ACC_TRANSITIVE = 0x0020;
+    private static final int ACC_STATIC_PHASE = 0x0040;
+
+    public static class Requires {
+        private final String name;
+        private final boolean transitive;
+        private final boolean isStatic;
+
+        Requires(String name, boolean transitive, boolean isStatic) {
+            this.name = name;
+            this.transitive = transitive;
+            this.isStatic = isStatic;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isTransitive() {
+            return transitive;
+        }
+
+        public boolean isStatic() {
+            return isStatic;
+        }
+    }
+
+    private final String name;
+    private final boolean automatic;
+    private final List<Requires> requires = new ArrayList<>();
+    private final List<String> exports = new ArrayList<>();
+    private final List<String> opens = new ArrayList<>();
+    private final List<String> uses = new ArrayList<>();
+    private final Map<String, List<String>> provides = new LinkedHashMap<>();
+    private final List<String> packages = new ArrayList<>();
+    private boolean open;
+
+    @Nullable
+    private String mainClass;
+
+    private ModuleInfo(String name, boolean automatic) {
+        this.name = name;
+        this.automatic = automatic;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * An automatic module has no descriptor. It reads all other modules.
+     */
+    public boolean isAutomatic() {
+        return automatic;
+    }
+
+    /**
+     * An open module opens all its packages for deep reflection.
+     */
+    public boolean isOpen() {
+        return open;
+    }
+
+    public List<Requires> getRequires() {
+        return Collections.unmodifiableList(requires);
+    }
+
+    public List<String> getExports() {
+        return Collections.unmodifiableList(exports);
+    }
+
+    public List<String> getOpens() {
+        return Collections.unmodifiableList(opens);
+    }
+
+    public List<String> getUses() {
+        return Collections.unmodifiableList(uses);
+    }
+
+    /**
+     * The services the module provides. For automatic modules, as listed in 'META-INF/services'.
+     */
+    public Map<String, List<String>> getProvides() {
+        return Collections.unmodifiableMap(provides);
+    }
+
+    /**
+     * The packages of the module if the descriptor lists them (the 'ModulePackages' attribute written by
+     * 'jar' and 'jlink'). Empty otherwise.
+     */
+    public List<String> getPackages() {
+        return Collections.unmodifiableList(packages);
+    }
+
+    @Nullable
+    public String getMainClass() {
+        return mainClass;
+    }
+
+    /**
+     * Reads the module information of a Jar, a Jmod or a classes folder. Returns 'null' if the path does not exist.
+     */
+    @Nullable
+    public static ModuleInfo read(File jarOrFolder) {
+        if (!jarOrFolder.exists()) {
+            return null;
+        }
+        try {
+            if (jarOrFolder.isDirectory()) {
+                File moduleInfo = new File(jarOrFolder, MODULE_INFO_CLASS);
+                if (moduleInfo.exists()) {
+                    try (InputStream in = Files.newInputStream(moduleInfo.toPath())) {
+                        return parse(in);
+                    }
+                }
+                ModuleInfo automatic = new ModuleInfo(jarOrFolder.getName(), true);
+                File services = new File(jarOrFolder, SERVICES_FOLDER);
+                File[] serviceFiles = services.listFiles(File::isFile);
+                if (serviceFiles != null) {
+                    for (File serviceFile : serviceFiles) {
+                        try (InputStream in = Files.newInputStream(serviceFile.toPath())) {
+                            automatic.readProviders(serviceFile.getName(), in);
+                        }
+                    }
+                }
+                return automatic;
+            }
+            try (JarFile jar = new JarFile(jarOrFolder)) {
+                ZipEntry moduleInfo = moduleInfoEntry(jar);
+                if (moduleInfo != null) {
+                    try (InputStream in = jar.getInputStream(moduleInfo)) {
+                        return parse(in);
+                    }
+                }
+                ModuleInfo automatic = new ModuleInfo(automaticModuleName(jar, jarOrFolder), true);
+                for (ZipEntry entry : Collections.list(jar.entries())) {
+                    String entryName = entry.getName();
+                    if (entryName.startsWith(SERVICES_FOLDER + "/")
+                            && entryName.indexOf('/', SERVICES_FOLDER.length() + 1) == -1
+                            && !entry.isDirectory()) {
+                        try (InputStream in = jar.getInputStream(entry)) {
+                            automatic.readProviders(entryName.substring(SERVICES_FOLDER.length() + 1), in);
+                        }
+                    }
+                }
+                return automatic;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot read module information of " + jarOrFolder, e);
+        }
+    }
+
+    /**
+     * An automatic module provides the services listed in 'META-INF/services'.
+     */
+    private void readProviders(String service, InputStream servicesFile) throws IOException {
+        List<String> providers = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(servicesFile, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            int comment = line.indexOf('#');
+            String provider = (comment == -1 ? line : line.substring(0, comment)).trim();
+            if (!provider.isEmpty()) {
+                providers.add(provider);
+            }
+        }
+        if (!providers.isEmpty()) {
+            provides.put(service, providers);
+        }
+    }
+
+    @Nullable
+    static ZipEntry moduleInfoEntry(JarFile jar) {
+        if (jar.getName().endsWith(".jmod")) {
+            // a Jmod is a Zip with a header, which 'ZipFile' skips, and the classes in a subfolder
+            return jar.getEntry(JMOD_CLASSES_PREFIX + MODULE_INFO_CLASS);
+        }
+        ZipEntry root = jar.getEntry(MODULE_INFO_CLASS);
+        if (root != null) {
+            return root;
+        }
+        // Multi-Release Jar: use the descriptor for the highest version
+        ZipEntry versioned = null;
+        int highestVersion = 0;
+        for (ZipEntry entry : Collections.list(jar.entries())) {
+            String entryName = entry.getName();
+            if (entryName.startsWith(MULTI_RELEASE_PREFIX) && entryName.endsWith("/" + MODULE_INFO_CLASS)) {
+                String version = entryName.substring(
+                        MULTI_RELEASE_PREFIX.length(), entryName.length() - MODULE_INFO_CLASS.length() - 1);
+                try {
+                    int v = Integer.parseInt(version);
+                    if (v > highestVersion) {
+                        highestVersion = v;
+                        versioned = entry;
+                    }
+                } catch (NumberFormatException ignored) {
+                    // not a version folder
+                }
+            }
+        }
+        return versioned;
+    }
+
+    private static String automaticModuleName(JarFile jar, File file) throws IOException {
+        Manifest manifest = jar.getManifest();
+        if (manifest != null) {
+            String name = manifest.getMainAttributes().getValue(new Attributes.Name("Automatic-Module-Name"));
+            if (name != null) {
+                return name;
+            }
+        }
+        // simplified version of the algorithm in 'java.lang.module.ModuleFinder.of()'
+        String name = file.getName();
+        if (name.endsWith(".jar")) {
+            name = name.substring(0, name.length() - 4);
+        }
+        name = name.replaceFirst("-(\\d+(\\.|$)).*", "");
+        return name.replaceAll("[^A-Za-z0-9]", ".")
+                .replaceAll("(\\.)(\\1)+", ".")
+                .replaceAll("^\\.|\\.$", "");
+    }
+
+    private static ModuleInfo parse(InputStream classFile) throws IOException {
+        DataInputStream in = new DataInputStream(classFile);
+        if (in.readInt() != 0xCAFEBABE) {
+            throw new IOException("Not a class file");
+        }
+        in.readUnsignedShort(); // minor version
+        in.readUnsignedShort(); // major version
+
+        int poolSize = in.readUnsignedShort();
+        Object[] pool = new Object[poolSize];
+        int[] indexReference = new int[poolSize];
+        for (int i = 1; i < poolSize; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case 1: // Utf8
+                    pool[i] = in.readUTF();
+                    break;
+                case 7: // Class
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    indexReference[i] = in.readUnsignedShort();
+                    break;
+                case 15: // MethodHandle
+                    in.skipBytes(3);
+                    break;
+                case 3: // Integer
+                case 4: // Float
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    in.skipBytes(4);
+                    break;
+                case 5: // Long
+                case 6: // Double
+                    in.skipBytes(8);
+                    i++;
+                    break;
+                default:
+                    throw new IOException("Unknown constant pool tag " + tag);
+            }
+        }
+
+        in.readUnsignedShort(); // access flags
+        in.readUnsignedShort(); // this class
+        in.readUnsignedShort(); // super class
+        in.skipBytes(2 * in.readUnsignedShort()); // interfaces
+        skipMembers(in); // fields
+        skipMembers(in); // methods
+
+        ModuleInfo moduleInfo = null;
+        List<String> packages = new ArrayList<>();
+        String mainClass = null;
+
+        int attributesCount = in.readUnsignedShort();
+        for (int a = 0; a < attributesCount; a++) {
+            String attributeName = (String) pool[in.readUnsignedShort()];
+            int length = in.readInt();
+            if ("Module".equals(attributeName)) {
+                moduleInfo = new ModuleInfo(utf8(pool, indexReference, in.readUnsignedShort()), false);
+                moduleInfo.open = (in.readUnsignedShort() & ACC_OPEN) != 0;
+                in.readUnsignedShort(); // module version
+                int requiresCount = in.readUnsignedShort();
+                for (int i = 0; i < requiresCount; i++) {
+                    String requiresName = utf8(pool, indexReference, in.readUnsignedShort());
+                    int flags = in.readUnsignedShort();
+                    in.readUnsignedShort(); // version
+                    moduleInfo.requires.add(new Requires(
+                            requiresName, (flags & ACC_TRANSITIVE) != 0, (flags & ACC_STATIC_PHASE) != 0));
+                }
+                readPackageDirectives(in, pool, indexReference, moduleInfo.exports);
+                readPackageDirectives(in, pool, indexReference, moduleInfo.opens);
+                int usesCount = in.readUnsignedShort();
+                for (int i = 0; i < usesCount; i++) {
+                    moduleInfo.uses.add(className(pool, indexReference, in.readUnsignedShort()));
+                }
+                int providesCount = in.readUnsignedShort();
+                for (int i = 0; i < providesCount; i++) {
+                    String service = className(pool, indexReference, in.readUnsignedShort());
+                    List<String> implementations = new ArrayList<>();
+                    int withCount = in.readUnsignedShort();
+                    for (int w = 0; w < withCount; w++) {
+                        implementations.add(className(pool, indexReference, in.readUnsignedShort()));
+                    }
+                    moduleInfo.provides.put(service, implementations);
+                }
+            } else if ("ModulePackages".equals(attributeName)) {
+                int packageCount = in.readUnsignedShort();
+                for (int i = 0; i < packageCount; i++) {
+                    packages.add(className(pool, indexReference, in.readUnsignedShort()));
+                }
+            } else if ("ModuleMainClass".equals(attributeName)) {
+                mainClass = className(pool, indexReference, in.readUnsignedShort());
+            } else {
+                in.skipBytes(length);
+            }
+        }
+
+        if (moduleInfo == null) {
+            throw new IOException("No 'Module' attribute in module-info.class");
+        }
+        moduleInfo.packages.addAll(packages);
+        moduleInfo.mainClass = mainClass;
+        return moduleInfo;
+    }
+
+    private static void readPackageDirectives(
+            DataInputStream in, Object[] pool, int[] indexReference, List<String> packages) throws IOException {
+        int count = in.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            packages.add(className(pool, indexReference, in.readUnsignedShort()));
+            in.readUnsignedShort(); // flags
+            in.skipBytes(2 * in.readUnsignedShort()); // to modules
+        }
+    }
+
+    private static void skipMembers(DataInputStream in) throws IOException {
+        int count = in.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            in.skipBytes(6); // access flags, name, descriptor
+            int attributes = in.readUnsignedShort();
+            for (int a = 0; a < attributes; a++) {
+                in.skipBytes(2);
+                in.skipBytes(in.readInt());
+            }
+        }
+    }
+
+    private static String utf8(Object[] pool, int[] indexReference, int index) {
+        return (String) pool[indexReference[index]];
+    }
+
+    private static String className(Object[] pool, int[] indexReference, int index) {
+        return utf8(pool, indexReference, index).replace('/', '.');
+    }
+}
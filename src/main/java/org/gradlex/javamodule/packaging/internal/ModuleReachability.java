@@ -0,0 +1,72 @@
+// SPDX-License-Identifier: Apache-2.0
+package org.gradlex.javamodule.packaging.internal;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import org.jspecify.annotations.NullMarked;
+
+/**
+ * Computes which modules of a module path are resolved when an application is started with a main module. This
+ * follows what 'java.lang.module.Configuration.resolveAndBind()' does – which the plugin cannot use directly as it
+ * may run on Java 8:
+ * <ul>
+ *   <li>the modules a resolved module 'requires' are resolved, unless the requirement is 'static'</li>
+ *   <li>if an automatic module is resolved, all automatic modules are resolved</li>
+ *   <li>modules that provide a service which a resolved module, or a module of the JDK, uses are resolved</li>
+ * </ul>
+ */
+@NullMarked
+public final class ModuleReachability {
+
+    private ModuleReachability() {}
+
+    /**
+     * @param modules the modules on the module path by name
+     * @param usedByJdk whether a service is used by the modules of the JDK, which are resolved in the boot layer
+     */
+    public static Set<String> reachable(
+            String mainModule, Map<String, ModuleInfo> modules, Predicate<String> usedByJdk) {
+        Set<String> resolved = new LinkedHashSet<>();
+        Set<String> uses = new HashSet<>();
+        Deque<String> queue = new ArrayDeque<>();
+        queue.add(mainModule);
+        while (!queue.isEmpty()) {
+            while (!queue.isEmpty()) {
+                String name = queue.remove();
+                ModuleInfo module = modules.get(name);
+                if (module == null || !resolved.add(name)) {
+                    // a module of the JDK, or already resolved
+                    continue;
+                }
+                uses.addAll(module.getUses());
+                if (module.isAutomatic()) {
+                    for (ModuleInfo other : modules.values()) {
+                        if (other.isAutomatic()) {
+                            queue.add(other.getName());
+                        }
+                    }
+                } else {
+                    for (ModuleInfo.Requires requires : module.getRequires()) {
+                        if (!requires.isStatic()) {
+                            queue.add(requires.getName());
+                        }
+                    }
+                }
+            }
+            // service binding, which may resolve more modules and add more used services
+            for (ModuleInfo module : modules.values()) {
+                if (!resolved.contains(module.getName())
+                        && module.getProvides().keySet().stream()
+                                .anyMatch(service -> uses.contains(service) || usedByJdk.test(service))) {
+                    queue.add(module.getName());
+                }
+            }
+        }
+        return resolved;
+    }
+}
@@ -0,0 +1,52 @@
+// SPDX-License-Identifier: Apache-2.0
+package org.gradlex.javamodule.packaging.internal;
+
+import java.util.concurrent.Semaphore;
+import org.gradle.api.provider.Property;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+import org.jspecify.annotations.NullMarked;
+
+/**
+ * Limits how many packages are built at the same time by the 'Jpackage' tasks of a project. A package is only
+ * built while a permit is held – no matter if the package types are built by one task or by several tasks that
+ * run in parallel.
+ */
+@NullMarked
+public abstract class PackagingPermits implements BuildService<PackagingPermits.Parameters> {
+
+    public interface Parameters extends BuildServiceParameters {
+        Property<Integer> getMaxParallelPackageTypes();
+    }
+
+    private final Semaphore permits;
+
+    public PackagingPermits() {
+        int maxParallel = getParameters().getMaxParallelPackageTypes().get();
+        if (maxParallel < 1) {
+            throw new RuntimeException("The number of package types built in parallel must be at least 1, but is "
+                    + maxParallel);
+        }
+        this.permits = new Semaphore(maxParallel, true);
+    }
+
+    public int getMaxParallelPackageTypes() {
+        return getParameters().getMaxParallelPackageTypes().get();
+    }
+
+    /**
+     * Waits until a permit is available. Each permit that was acquired must be released again.
+     */
+    public void acquire() {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void release() {
+        permits.release();
+    }
+}
@@ -0,0 +1,159 @@
+// SPDX-License-Identifier: Apache-2.0
+package org.gradlex.javamodule.packaging.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import org.jspecify.annotations.NullMarked;
+
+/**
+ * Writes the gzip format, compressing blocks of the data in parallel – as 'pigz' does. Each block is compressed
+ * on its own with the end of the previous block as dictionary, and all blocks but the last end with a sync flush.
+ * Together, they are one deflate stream, which every gzip reader can read. The CRC is computed while the data is
+ * written. The output only depends on the data and the level, not on the number of threads.
+ */
+@NullMarked
+public final class ParallelGzipOutputStream extends OutputStream {
+
+    private static final int BLOCK_SIZE = 128 * 1024;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private final OutputStream out;
+    private final int level;
+    private final ExecutorService pool;
+    private final int parallelism;
+    private final CRC32 crc = new CRC32();
+    private final Deque<Future<byte[]>> window = new ArrayDeque<>();
+
+    private byte[] block = new byte[BLOCK_SIZE];
+    private int blockLength;
+    private byte[] dictionary = new byte[0];
+    private long size;
+    private boolean closed;
+
+    /**
+     * @param level the deflate level from 1 (fastest) to 9 (smallest)
+     * @param parallelism how many blocks are compressed at the same time on the pool
+     */
+    public ParallelGzipOutputStream(OutputStream out, int level, ExecutorService pool, int parallelism)
+            throws IOException {
+        this.out = out;
+        this.level = level;
+        this.pool = pool;
+        this.parallelism = Math.max(1, parallelism);
+        // header: magic, deflate, no flags, no modification time, extra flags of the level (as gzip), unknown OS
+        byte extraFlags = (byte) (level == 9 ? 2 : level == 1 ? 4 : 0);
+        out.write(new byte[] {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, extraFlags, (byte) 255});
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        crc.update(b, off, len);
+        size += len;
+        int written = 0;
+        while (written < len) {
+            if (blockLength == BLOCK_SIZE) {
+                submit(false);
+            }
+            int chunk = Math.min(len - written, BLOCK_SIZE - blockLength);
+            System.arraycopy(b, off + written, block, blockLength, chunk);
+            blockLength += chunk;
+            written += chunk;
+        }
+    }
+
+    /**
+     * Compresses the last block and writes the trailer. Closes the underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            submit(true);
+            while (!window.isEmpty()) {
+                writeNext();
+            }
+            byte[] trailer = new byte[8];
+            int checksum = (int) crc.getValue();
+            int length = (int) size;
+            for (int i = 0; i < 4; i++) {
+                trailer[i] = (byte) (checksum >>> (8 * i));
+                trailer[4 + i] = (byte) (length >>> (8 * i));
+            }
+            out.write(trailer);
+        } finally {
+            for (Future<byte[]> future : window) {
+                future.cancel(true);
+            }
+            out.close();
+        }
+    }
+
+    private void submit(boolean last) throws IOException {
+        byte[] data = block;
+        int length = blockLength;
+        byte[] blockDictionary = dictionary;
+        dictionary = Arrays.copyOfRange(data, Math.max(0, length - DICTIONARY_SIZE), length);
+        window.add(pool.submit(() -> deflate(data, length, blockDictionary, last)));
+        block = new byte[BLOCK_SIZE];
+        blockLength = 0;
+        while (window.size() > parallelism * 2) {
+            writeNext();
+        }
+    }
+
+    private void writeNext() throws IOException {
+        try {
+            out.write(window.remove().get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private byte[] deflate(byte[] data, int length, byte[] blockDictionary, boolean last) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (blockDictionary.length > 0) {
+                deflater.setDictionary(blockDictionary);
+            }
+            deflater.setInput(data, 0, length);
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 2 + 64);
+            byte[] buffer = new byte[64 * 1024];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    compressed.write(buffer, 0, deflater.deflate(buffer));
+                }
+            } else {
+                int count;
+                do {
+                    count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    compressed.write(buffer, 0, count);
+                } while (count == buffer.length);
+            }
+            return compressed.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+// SPDX-License-Identifier: Apache-2.0
+package org.gradlex.javamodule.packaging.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import org.gradle.internal.logging.progress.ProgressLogger;
+import org.gradle.internal.logging.progress.ProgressLoggerFactory;
+import org.jspecify.annotations.NullMarked;
+
+/**
+ * Records how long the phases of a task take and reports the current phase as progress while the task runs.
+ */
+@NullMarked
+public class PhaseTimings {
+
+    public interface Phase {
+        void run() throws Exception;
+    }
+
+    private static class Timing {
+        final String phase;
+        final long startNanos;
+        final long durationNanos;
+
+        Timing(String phase, long startNanos, long durationNanos) {
+            this.phase = phase;
+            this.startNanos = startNanos;
+            this.durationNanos = durationNanos;
+        }
+    }
+
+    private final String taskPath;
+    private final ProgressLogger progress;
+    private final long startNanos = System.nanoTime();
+    private final List<Timing> timings = new ArrayList<>();
+
+    public PhaseTimings(ProgressLoggerFactory progressLoggerFactory, String taskPath) {
+        this.taskPath = taskPath;
+        this.progress = progressLoggerFactory.newOperation(PhaseTimings.class);
+        this.progress.start(taskPath, null);
+    }
+
+    public long getStartNanos() {
+        return startNanos;
+    }
+
+    public void run(String phase, Phase action) throws Exception {
+        progress.progress(phase);
+        long phaseStart = System.nanoTime();
+        try {
+            action.run();
+        } finally {
+            record(phase, phaseStart, System.nanoTime() - phaseStart);
+        }
+    }
+
+    /**
+     * Records a phase that was measured elsewhere – for example, in a parallel work item.
+     */
+    public synchronized void record(String phase, long phaseStartNanos, long durationNanos) {
+        timings.add(new Timing(phase, phaseStartNanos, durationNanos));
+    }
+
+    public void completed() {
+        progress.completed();
+    }
+
+    public void writeJson(File file) {
+        StringBuilder json = new StringBuilder("{\n");
+        json.append("  \"task\": ").append(Json.string(taskPath)).append(",\n");
+        json.append("  \"unit\": \"ms\",\n");
+        json.append("  \"total\": ").append(millis(System.nanoTime() - startNanos)).append(",\n");
+        json.append("  \"phases\": [\n");
+        List<String> lines = new ArrayList<>();
+        for (Timing timing : timings) {
+            lines.add("    {\"phase\": " + Json.string(timing.phase) + ", \"start\": "
+                    + millis(timing.startNanos - startNanos) + ", \"duration\": " + millis(timing.durationNanos) + "}");
+        }
+        json.append(String.join(",\n", lines));
+        json.append("\n  ]\n}\n");
+        try {
+            Files.createDirectories(file.getParentFile().toPath());
+            Files.write(file.toPath(), json.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1_000_000.0);
+    }
+}
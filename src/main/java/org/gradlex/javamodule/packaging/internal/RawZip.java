@@ -0,0 +1,780 @@
+// SPDX-License-Identifier: Apache-2.0
+package org.gradlex.javamodule.packaging.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import org.jspecify.annotations.NullMarked;
+
+/**
+ * Reads the central directory of zip files and appends entries to an existing zip file. Entries of other zip files
+ * are transferred without decompressing and compressing them again: the compressed data and the CRC of an entry
+ * are copied as they are; only the headers are written anew. Files are compressed in parallel before they are
+ * appended.
+ */
+@NullMarked
+public final class RawZip {
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+    private static final int ZIP64_EXTRA = 0x0001;
+
+    private static final long MAX_32 = 0xFFFFFFFFL;
+    private static final int MAX_16 = 0xFFFF;
+
+    private static final int FLAG_ENCRYPTED = 1;
+    private static final int FLAG_DATA_DESCRIPTOR = 1 << 3;
+    private static final int FLAG_UTF8 = 1 << 11;
+
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    /**
+     * Files larger than this are compressed while they are written, instead of in parallel into memory.
+     */
+    private static final long STREAMED_FILE_SIZE = 8L * 1024 * 1024;
+
+    /**
+     * How many bytes of files are at most compressed into memory ahead of writing them.
+     */
+    private static final long MAX_WINDOW_BYTES = 64L * 1024 * 1024;
+
+    /**
+     * The DOS date of 1980-02-01 00:00, which Gradle uses for all entries of reproducible archives.
+     */
+    private static final int CONSTANT_DOS_DATE_TIME = ((2 << 5) | 1) << 16;
+
+    private RawZip() {}
+
+    public static final class Entry {
+        private final String name;
+        private final int versionMadeBy;
+        private final int flags;
+        private final int method;
+        private final int dosDateTime;
+        private final long crc;
+        private final long compressedSize;
+        private final long size;
+        private final long localHeaderOffset;
+        private final int internalAttributes;
+        private final long externalAttributes;
+
+        Entry(
+                String name,
+                int versionMadeBy,
+                int flags,
+                int method,
+                int dosDateTime,
+                long crc,
+                long compressedSize,
+                long size,
+                long localHeaderOffset,
+                int internalAttributes,
+                long externalAttributes) {
+            this.name = name;
+            this.versionMadeBy = versionMadeBy;
+            this.flags = flags;
+            this.method = method;
+            this.dosDateTime = dosDateTime;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+            this.internalAttributes = internalAttributes;
+            this.externalAttributes = externalAttributes;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Entries that are encrypted or use a compression method other than 'stored' or 'deflated'
+         * cannot be transferred.
+         */
+        public boolean canTransferRaw() {
+            return (flags & FLAG_ENCRYPTED) == 0 && (method == STORED || method == DEFLATED);
+        }
+
+        private Entry moved(String newName, int newDosDateTime, long newLocalHeaderOffset) {
+            return new Entry(
+                    newName,
+                    versionMadeBy,
+                    (flags & ~FLAG_DATA_DESCRIPTOR) | FLAG_UTF8,
+                    method,
+                    newDosDateTime,
+                    crc,
+                    compressedSize,
+                    size,
+                    newLocalHeaderOffset,
+                    internalAttributes,
+                    externalAttributes);
+        }
+    }
+
+    /**
+     * Reads the entries from the central directory of the zip file.
+     */
+    public static List<Entry> readEntries(Path zip) throws IOException {
+        try (FileChannel channel = FileChannel.open(zip, StandardOpenOption.READ)) {
+            return readEntries(channel, readEndOfCentralDirectory(channel));
+        }
+    }
+
+    /**
+     * Appends entries to an existing zip file. The central directory of the zip file is read when the appender is
+     * created and written again, including the new entries, when it is closed. Entries for parent folders are added
+     * for all new entries.
+     */
+    public static final class Appender implements Closeable {
+        private final FileChannel out;
+        private final boolean preserveTimestamps;
+        private final boolean sortEntries;
+        private final List<Entry> centralDirectory;
+        private final Set<String> names = new HashSet<>();
+        private long position;
+
+        /**
+         * @param preserveTimestamps keep the timestamps of transferred entries, or use the constant timestamp
+         *        Gradle uses for reproducible archives
+         * @param sortEntries transfer the entries of each zip file in alphabetical order
+         */
+        public Appender(Path target, boolean preserveTimestamps, boolean sortEntries) throws IOException {
+            this.out = FileChannel.open(target, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.preserveTimestamps = preserveTimestamps;
+            this.sortEntries = sortEntries;
+            long[] end = readEndOfCentralDirectory(out);
+            centralDirectory = new ArrayList<>(readEntries(out, end));
+            for (Entry entry : centralDirectory) {
+                names.add(entry.name);
+            }
+            // new entries overwrite the old central directory, which is written again at the end
+            position = end[1];
+            out.truncate(position);
+        }
+
+        /**
+         * Removes the entry with the given name and all entries that follow it in the zip file. New entries are
+         * then appended in their place. Returns 'false', and removes nothing, if there is no such entry.
+         */
+        public boolean removeFrom(String name) throws IOException {
+            long offset = -1;
+            for (Entry entry : centralDirectory) {
+                if (entry.name.equals(name)) {
+                    offset = entry.localHeaderOffset;
+                    break;
+                }
+            }
+            if (offset == -1) {
+                return false;
+            }
+            for (Iterator<Entry> entries = centralDirectory.iterator(); entries.hasNext(); ) {
+                Entry entry = entries.next();
+                if (entry.localHeaderOffset >= offset) {
+                    entries.remove();
+                    names.remove(entry.name);
+                }
+            }
+            position = offset;
+            out.truncate(position);
+            return true;
+        }
+
+        /**
+         * Transfers all entries of the zip file into the folder (ending with '/') without decompressing them.
+         */
+        public void transferEntries(Path zip, String folder) throws IOException {
+            transferEntries(zip, folder, name -> true);
+        }
+
+        /**
+         * Transfers the entries of the zip file that are included into the folder (ending with '/' or empty)
+         * without decompressing them.
+         */
+        public void transferEntries(Path zip, String folder, Predicate<String> include) throws IOException {
+            try (FileChannel channel = FileChannel.open(zip, StandardOpenOption.READ)) {
+                List<Entry> entries = new ArrayList<>(readEntries(channel, readEndOfCentralDirectory(channel)));
+                if (sortEntries) {
+                    entries.sort((a, b) -> a.name.compareTo(b.name));
+                }
+                directories(folder);
+                for (Entry entry : entries) {
+                    if (!include.test(entry.name)) {
+                        continue;
+                    }
+                    String name = folder + entry.name;
+                    directories(name);
+                    transfer(channel, entry, name, preserveTimestamps ? entry.dosDateTime : CONSTANT_DOS_DATE_TIME);
+                }
+            }
+        }
+
+        /**
+         * Adds all files in the folder 'root' to the folder (ending with '/' or empty) compressed with 'deflate'.
+         * The files are compressed in parallel on the given pool and written in alphabetical order of their paths,
+         * so that the zip file does not depend on the size of the pool. Only a bounded number and size of
+         * compressed files is kept in memory until it is written. Large files are compressed while they are
+         * written.
+         */
+        public void deflateFiles(Path root, String folder, ExecutorService pool, int parallelism) throws IOException {
+            List<Path> files;
+            try (Stream<Path> walk = Files.walk(root)) {
+                files = walk.filter(Files::isRegularFile)
+                        .sorted((a, b) -> relativeName(root, a).compareTo(relativeName(root, b)))
+                        .collect(Collectors.toList());
+            }
+            directories(folder);
+            Deque<Future<Deflated>> window = new ArrayDeque<>();
+            Deque<Long> windowSizes = new ArrayDeque<>();
+            long windowBytes = 0;
+            int submitted = 0;
+            try {
+                while (submitted < files.size() || !window.isEmpty()) {
+                    // scatter: keep the pool busy with a few more files than it has threads, up to a number of bytes
+                    while (submitted < files.size() && window.size() < parallelism * 4) {
+                        Path file = files.get(submitted);
+                        long size = Files.size(file);
+                        boolean streamed = size > STREAMED_FILE_SIZE;
+                        long inMemory = streamed ? 0 : size;
+                        if (!window.isEmpty() && windowBytes + inMemory > MAX_WINDOW_BYTES) {
+                            break;
+                        }
+                        window.add(
+                                streamed
+                                        ? CompletableFuture.completedFuture(Deflated.streamed(file))
+                                        : pool.submit(() -> Deflated.of(file, preserveTimestamps)));
+                        windowSizes.add(inMemory);
+                        windowBytes += inMemory;
+                        submitted++;
+                    }
+                    // gather: write the compressed files in order
+                    Deflated deflated = window.remove().get();
+                    windowBytes -= windowSizes.remove();
+                    String name = folder + relativeName(root, deflated.file);
+                    directories(name);
+                    if (!names.add(name)) {
+                        continue;
+                    }
+                    if (deflated.streamed) {
+                        deflateWhileWriting(deflated.file, name);
+                    } else {
+                        Entry entry = new Entry(
+                                name, 20, FLAG_UTF8, DEFLATED, deflated.dosDateTime, deflated.crc,
+                                deflated.data.length, deflated.size, position, 0, 0);
+                        writeLocalHeader(entry, nameBytes(name));
+                        write(ByteBuffer.wrap(deflated.data), false);
+                        centralDirectory.add(entry);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException
+                        ? (IOException) e.getCause()
+                        : new IOException(e.getCause());
+            } finally {
+                for (Future<Deflated> future : window) {
+                    future.cancel(true);
+                }
+            }
+        }
+
+        /**
+         * Compresses the file directly into the zip file. The CRC and the compressed size are only known
+         * afterward, when the local header is written again.
+         */
+        private void deflateWhileWriting(Path file, String name) throws IOException {
+            long size = Files.size(file);
+            // the header keeps its length, hence it has the zip64 fields if the compressed data might need them
+            long maxCompressedSize = size + (size >> 12) + (size >> 14) + (size >> 25) + 13;
+            boolean zip64 = size >= MAX_32 || maxCompressedSize >= MAX_32;
+            byte[] nameBytes = nameBytes(name);
+            int dosDateTime = dosDateTime(file, preserveTimestamps);
+            long headerOffset = position;
+            writeLocalHeader(
+                    new Entry(name, 20, FLAG_UTF8, DEFLATED, dosDateTime, 0, 0, 0, headerOffset, 0, 0),
+                    nameBytes,
+                    zip64);
+
+            long dataOffset = position;
+            CRC32 crc = new CRC32();
+            long read = 0;
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            OutputStream toZip = new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[] {(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    Appender.this.write(ByteBuffer.wrap(b, off, len), false);
+                }
+            };
+            try (InputStream in = Files.newInputStream(file);
+                    DeflaterOutputStream deflating = new DeflaterOutputStream(toZip, deflater, 64 * 1024)) {
+                byte[] buffer = new byte[64 * 1024];
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    crc.update(buffer, 0, count);
+                    deflating.write(buffer, 0, count);
+                    read += count;
+                }
+            } finally {
+                deflater.end();
+            }
+
+            Entry entry = new Entry(
+                    name, 20, FLAG_UTF8, DEFLATED, dosDateTime, crc.getValue(), position - dataOffset, read,
+                    headerOffset, 0, 0);
+            long end = position;
+            position = headerOffset;
+            writeLocalHeader(entry, nameBytes, zip64);
+            position = end;
+            centralDirectory.add(entry);
+        }
+
+        /**
+         * Adds the file as an uncompressed entry and returns the offset of its data in the zip file.
+         */
+        public long store(Path file, String name) throws IOException {
+            CRC32 crc = new CRC32();
+            byte[] buffer = new byte[64 * 1024];
+            try (InputStream in = Files.newInputStream(file)) {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    crc.update(buffer, 0, read);
+                }
+            }
+            long size = Files.size(file);
+            int dosDateTime = dosDateTime(file, preserveTimestamps);
+            directories(name);
+            Entry entry =
+                    new Entry(name, 20, FLAG_UTF8, STORED, dosDateTime, crc.getValue(), size, size, position, 0, 0);
+            writeLocalHeader(entry, nameBytes(name));
+            long dataOffset = position;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                transferData(channel, 0, size, name);
+            }
+            centralDirectory.add(entry);
+            names.add(name);
+            return dataOffset;
+        }
+
+        /**
+         * Adds the content as an uncompressed entry.
+         */
+        public void store(byte[] content, String name) throws IOException {
+            CRC32 crc = new CRC32();
+            crc.update(content, 0, content.length);
+            int dosDateTime = preserveTimestamps ? dosDateTime(LocalDateTime.now()) : CONSTANT_DOS_DATE_TIME;
+            directories(name);
+            Entry entry = new Entry(
+                    name, 20, FLAG_UTF8, STORED, dosDateTime, crc.getValue(), content.length, content.length, position,
+                    0, 0);
+            writeLocalHeader(entry, nameBytes(name));
+            write(ByteBuffer.wrap(content), false);
+            centralDirectory.add(entry);
+            names.add(name);
+        }
+
+        /**
+         * Adds entries for all parent folders of the given name that do not exist yet.
+         */
+        private void directories(String name) throws IOException {
+            int end = name.indexOf('/');
+            while (end != -1) {
+                String directory = name.substring(0, end + 1);
+                if (!names.contains(directory)) {
+                    int dosDateTime = preserveTimestamps ? dosDateTime(LocalDateTime.now()) : CONSTANT_DOS_DATE_TIME;
+                    Entry entry = new Entry(directory, 20, FLAG_UTF8, STORED, dosDateTime, 0, 0, 0, position, 0, 0x10);
+                    writeLocalHeader(entry, nameBytes(directory));
+                    centralDirectory.add(entry);
+                    names.add(directory);
+                }
+                end = name.indexOf('/', end + 1);
+            }
+        }
+
+        private void transfer(FileChannel source, Entry entry, String name, int dosDateTime) throws IOException {
+            if (!names.add(name)) {
+                // already added as parent folder, or duplicated in the source – as with 'zipTree()', the first wins
+                return;
+            }
+            ByteBuffer localHeader = read(source, entry.localHeaderOffset, 30);
+            if (localHeader.getInt(0) != LOCAL_HEADER) {
+                throw new IOException("Invalid local header for '" + entry.name + "'");
+            }
+            long dataOffset = entry.localHeaderOffset + 30 + u16(localHeader, 26) + u16(localHeader, 28);
+
+            Entry moved = entry.moved(name, dosDateTime, position);
+            writeLocalHeader(moved, nameBytes(name));
+            transferData(source, dataOffset, entry.compressedSize, entry.name);
+            centralDirectory.add(moved);
+        }
+
+        private void transferData(FileChannel source, long offset, long length, String name) throws IOException {
+            long transferred = 0;
+            while (transferred < length) {
+                long count = source.transferTo(offset + transferred, length - transferred, out.position(position));
+                if (count <= 0) {
+                    throw new IOException("Unexpected end of data for '" + name + "'");
+                }
+                transferred += count;
+                position += count;
+            }
+        }
+
+        private void writeLocalHeader(Entry entry, byte[] name) throws IOException {
+            writeLocalHeader(entry, name, entry.size >= MAX_32 || entry.compressedSize >= MAX_32);
+        }
+
+        private void writeLocalHeader(Entry entry, byte[] name, boolean zip64) throws IOException {
+            ByteBuffer header = buffer(30 + name.length + (zip64 ? 20 : 0));
+            header.putInt(LOCAL_HEADER);
+            header.putShort((short) (zip64 ? 45 : 20));
+            header.putShort((short) entry.flags);
+            header.putShort((short) entry.method);
+            header.putInt(entry.dosDateTime);
+            header.putInt((int) entry.crc);
+            header.putInt((int) (zip64 ? MAX_32 : entry.compressedSize));
+            header.putInt((int) (zip64 ? MAX_32 : entry.size));
+            header.putShort((short) name.length);
+            header.putShort((short) (zip64 ? 20 : 0));
+            header.put(name);
+            if (zip64) {
+                header.putShort((short) ZIP64_EXTRA);
+                header.putShort((short) 16);
+                header.putLong(entry.size);
+                header.putLong(entry.compressedSize);
+            }
+            write(header);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                long centralDirectoryOffset = position;
+                for (Entry entry : centralDirectory) {
+                    writeCentralHeader(entry);
+                }
+                long centralDirectorySize = position - centralDirectoryOffset;
+                int count = centralDirectory.size();
+                if (count >= MAX_16 || centralDirectoryOffset >= MAX_32 || centralDirectorySize >= MAX_32) {
+                    long zip64EndOffset = position;
+                    ByteBuffer zip64End = buffer(56 + 20);
+                    zip64End.putInt(ZIP64_END_OF_CENTRAL_DIRECTORY);
+                    zip64End.putLong(44);
+                    zip64End.putShort((short) 45);
+                    zip64End.putShort((short) 45);
+                    zip64End.putInt(0);
+                    zip64End.putInt(0);
+                    zip64End.putLong(count);
+                    zip64End.putLong(count);
+                    zip64End.putLong(centralDirectorySize);
+                    zip64End.putLong(centralDirectoryOffset);
+                    zip64End.putInt(ZIP64_LOCATOR);
+                    zip64End.putInt(0);
+                    zip64End.putLong(zip64EndOffset);
+                    zip64End.putInt(1);
+                    write(zip64End);
+                }
+                ByteBuffer end = buffer(22);
+                end.putInt(END_OF_CENTRAL_DIRECTORY);
+                end.putShort((short) 0);
+                end.putShort((short) 0);
+                end.putShort((short) Math.min(count, MAX_16));
+                end.putShort((short) Math.min(count, MAX_16));
+                end.putInt((int) Math.min(centralDirectorySize, MAX_32));
+                end.putInt((int) Math.min(centralDirectoryOffset, MAX_32));
+                end.putShort((short) 0);
+                write(end);
+            } finally {
+                out.close();
+            }
+        }
+
+        private void writeCentralHeader(Entry entry) throws IOException {
+            byte[] name = nameBytes(entry.name);
+            List<Long> zip64Values = new ArrayList<>(3);
+            if (entry.size >= MAX_32) {
+                zip64Values.add(entry.size);
+            }
+            if (entry.compressedSize >= MAX_32) {
+                zip64Values.add(entry.compressedSize);
+            }
+            if (entry.localHeaderOffset >= MAX_32) {
+                zip64Values.add(entry.localHeaderOffset);
+            }
+            int extraLength = zip64Values.isEmpty() ? 0 : 4 + 8 * zip64Values.size();
+            ByteBuffer header = buffer(46 + name.length + extraLength);
+            header.putInt(CENTRAL_HEADER);
+            header.putShort((short) entry.versionMadeBy);
+            header.putShort((short) (zip64Values.isEmpty() ? 20 : 45));
+            header.putShort((short) entry.flags);
+            header.putShort((short) entry.method);
+            header.putInt(entry.dosDateTime);
+            header.putInt((int) entry.crc);
+            header.putInt((int) Math.min(entry.compressedSize, MAX_32));
+            header.putInt((int) Math.min(entry.size, MAX_32));
+            header.putShort((short) name.length);
+            header.putShort((short) extraLength);
+            header.putShort((short) 0);
+            header.putShort((short) 0);
+            header.putShort((short) entry.internalAttributes);
+            header.putInt((int) entry.externalAttributes);
+            header.putInt((int) Math.min(entry.localHeaderOffset, MAX_32));
+            header.put(name);
+            if (!zip64Values.isEmpty()) {
+                header.putShort((short) ZIP64_EXTRA);
+                header.putShort((short) (8 * zip64Values.size()));
+                for (long value : zip64Values) {
+                    header.putLong(value);
+                }
+            }
+            write(header);
+        }
+
+        private void write(ByteBuffer buffer) throws IOException {
+            write(buffer, true);
+        }
+
+        private void write(ByteBuffer buffer, boolean flip) throws IOException {
+            if (flip) {
+                buffer.flip();
+            }
+            while (buffer.hasRemaining()) {
+                position += out.write(buffer, position);
+            }
+        }
+    }
+
+    /**
+     * Writes a zip file without entries, to which entries can then be appended.
+     */
+    public static void writeEmpty(Path zip) throws IOException {
+        ByteBuffer end = buffer(22);
+        end.putInt(END_OF_CENTRAL_DIRECTORY);
+        Files.write(zip, end.array());
+    }
+
+    /**
+     * A file compressed with 'deflate', without zlib header and trailer as required for zip entries.
+     */
+    private static final class Deflated {
+        final Path file;
+        final boolean streamed;
+        final byte[] data;
+        final long crc;
+        final long size;
+        final int dosDateTime;
+
+        private Deflated(Path file, boolean streamed, byte[] data, long crc, long size, int dosDateTime) {
+            this.file = file;
+            this.streamed = streamed;
+            this.data = data;
+            this.crc = crc;
+            this.size = size;
+            this.dosDateTime = dosDateTime;
+        }
+
+        /**
+         * A file that is not compressed ahead, but while it is written.
+         */
+        static Deflated streamed(Path file) {
+            return new Deflated(file, true, new byte[0], 0, 0, 0);
+        }
+
+        static Deflated of(Path file, boolean preserveTimestamps) throws IOException {
+            CRC32 crc = new CRC32();
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            long size = 0;
+            try (InputStream in = Files.newInputStream(file);
+                    DeflaterOutputStream out = new DeflaterOutputStream(compressed, deflater, 64 * 1024)) {
+                byte[] buffer = new byte[64 * 1024];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    crc.update(buffer, 0, read);
+                    out.write(buffer, 0, read);
+                    size += read;
+                }
+            } finally {
+                deflater.end();
+            }
+            return new Deflated(
+                    file, false, compressed.toByteArray(), crc.getValue(), size, dosDateTime(file, preserveTimestamps));
+        }
+    }
+
+    private static int dosDateTime(Path file, boolean preserveTimestamps) throws IOException {
+        return preserveTimestamps
+                ? dosDateTime(LocalDateTime.ofInstant(
+                        Files.getLastModifiedTime(file).toInstant(), ZoneId.systemDefault()))
+                : CONSTANT_DOS_DATE_TIME;
+    }
+
+    private static String relativeName(Path root, Path file) {
+        return root.relativize(file).toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Returns the number of entries and the offset and size of the central directory.
+     */
+    private static long[] readEndOfCentralDirectory(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        // the end record is 22 bytes followed by a comment of up to 64 KiB
+        int tailLength = (int) Math.min(fileSize, 22 + MAX_16);
+        ByteBuffer tail = read(channel, fileSize - tailLength, tailLength);
+        for (int i = tailLength - 22; i >= 0; i--) {
+            if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY) {
+                long count = u16(tail, i + 10);
+                long size = u32(tail, i + 12);
+                long offset = u32(tail, i + 16);
+                if (i >= 20 && tail.getInt(i - 20) == ZIP64_LOCATOR) {
+                    ByteBuffer zip64End = read(channel, tail.getLong(i - 20 + 8), 56);
+                    if (zip64End.getInt(0) != ZIP64_END_OF_CENTRAL_DIRECTORY) {
+                        throw new IOException("Invalid zip64 end of central directory");
+                    }
+                    count = zip64End.getLong(32);
+                    size = zip64End.getLong(40);
+                    offset = zip64End.getLong(48);
+                }
+                return new long[] {count, offset, size};
+            }
+        }
+        throw new IOException("Not a zip file");
+    }
+
+    private static List<Entry> readEntries(FileChannel channel, long[] endOfCentralDirectory) throws IOException {
+        long count = endOfCentralDirectory[0];
+        if (endOfCentralDirectory[2] > Integer.MAX_VALUE) {
+            throw new IOException("Central directory too large");
+        }
+        ByteBuffer cd = read(channel, endOfCentralDirectory[1], (int) endOfCentralDirectory[2]);
+        List<Entry> entries = new ArrayList<>();
+        int p = 0;
+        for (long i = 0; i < count; i++) {
+            if (cd.getInt(p) != CENTRAL_HEADER) {
+                throw new IOException("Invalid central directory");
+            }
+            int nameLength = u16(cd, p + 28);
+            int extraLength = u16(cd, p + 30);
+            int commentLength = u16(cd, p + 32);
+            long compressedSize = u32(cd, p + 20);
+            long size = u32(cd, p + 24);
+            long localHeaderOffset = u32(cd, p + 42);
+
+            // values that do not fit into 32 bit are found in the zip64 extra field
+            int extra = p + 46 + nameLength;
+            int extraEnd = extra + extraLength;
+            while (extra + 4 <= extraEnd) {
+                int id = u16(cd, extra);
+                int length = u16(cd, extra + 2);
+                if (id == ZIP64_EXTRA) {
+                    int value = extra + 4;
+                    if (size == MAX_32) {
+                        size = cd.getLong(value);
+                        value += 8;
+                    }
+                    if (compressedSize == MAX_32) {
+                        compressedSize = cd.getLong(value);
+                        value += 8;
+                    }
+                    if (localHeaderOffset == MAX_32) {
+                        localHeaderOffset = cd.getLong(value);
+                    }
+                }
+                extra += 4 + length;
+            }
+
+            byte[] name = new byte[nameLength];
+            cd.position(p + 46);
+            cd.get(name);
+            entries.add(new Entry(
+                    new String(name, StandardCharsets.UTF_8),
+                    u16(cd, p + 4),
+                    u16(cd, p + 8),
+                    u16(cd, p + 10),
+                    cd.getInt(p + 12),
+                    u32(cd, p + 16),
+                    compressedSize,
+                    size,
+                    localHeaderOffset,
+                    u16(cd, p + 36),
+                    u32(cd, p + 38)));
+            p += 46 + nameLength + extraLength + commentLength;
+        }
+        return Collections.unmodifiableList(entries);
+    }
+
+    private static ByteBuffer read(FileChannel channel, long offset, int length) throws IOException {
+        ByteBuffer buffer = buffer(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of zip file");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static ByteBuffer buffer(int length) {
+        return ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static byte[] nameBytes(String name) {
+        return name.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int u16(ByteBuffer buffer, int index) {
+        return buffer.getShort(index) & 0xFFFF;
+    }
+
+    private static long u32(ByteBuffer buffer, int index) {
+        return buffer.getInt(index) & MAX_32;
+    }
+
+    private static int dosDateTime(LocalDateTime time) {
+        return ((time.getYear() - 1980) << 25)
+                | (time.getMonthValue() << 21)
+                | (time.getDayOfMonth() << 16)
+                | (time.getHour() << 11)
+                | (time.getMinute() << 5)
+                | (time.getSecond() >> 1);
+    }
+}
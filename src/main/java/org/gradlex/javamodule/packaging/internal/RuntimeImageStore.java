@@ -0,0 +1,180 @@
+// SPDX-License-Identifier: Apache-2.0
+package org.gradlex.javamodule.packaging.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+import org.jspecify.annotations.NullMarked;
+
+/**
+ * A store for runtime images that only contain JDK modules. Such images are independent of the application.
+ * Each image is linked once per machine and then shared by all builds and projects that need the same image.
+ * The store is located in the Gradle user home.
+ * <p>
+ * Each image has a lock file, which is locked while the image is created, provided, or deleted – also against
+ * other Gradle processes. Its modification time records when the image was used last. Images that were not used
+ * for {@link #RETENTION_DAYS} days are deleted when a build finishes, which is checked once a day.
+ */
+@NullMarked
+public abstract class RuntimeImageStore implements BuildService<RuntimeImageStore.Parameters>, AutoCloseable {
+
+    public static final int RETENTION_DAYS = 7;
+
+    private static final long RETENTION_MILLIS = TimeUnit.DAYS.toMillis(RETENTION_DAYS);
+    private static final long CLEANUP_INTERVAL_MILLIS = TimeUnit.DAYS.toMillis(1);
+    private static final String LOCK_SUFFIX = ".lock";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final String LAST_CLEANUP = "last-cleanup";
+
+    // file locks are held by the process, hence threads of the same process are synchronized on the lock file
+    private static final ConcurrentHashMap<String, Object> LOCKS = new ConcurrentHashMap<>();
+
+    public interface Parameters extends BuildServiceParameters {
+        DirectoryProperty getStoreDirectory();
+    }
+
+    /**
+     * Provides the image identified by the given key parts in the destination folder. If the image is not yet
+     * in the store, the 'linker' is called to create it. The files are hard-linked into the destination
+     * if possible and copied otherwise. 'jpackage' copies the image into the app-image, where the 'Jpackage'
+     * task replaces the copied files by links again.
+     */
+    public void provide(List<String> keyParts, File destination, Consumer<File> linker) {
+        String key = hash(keyParts);
+        File storeDir = getParameters().getStoreDirectory().get().getAsFile();
+        File image = new File(storeDir, key);
+        Path lockFile = new File(storeDir, key + LOCK_SUFFIX).toPath();
+
+        synchronized (LOCKS.computeIfAbsent(lockFile.toAbsolutePath().toString(), k -> new Object())) {
+            try {
+                Files.createDirectories(storeDir.toPath());
+                try (FileChannel channel =
+                        FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                    // the lock is released when the channel is closed
+                    channel.lock();
+                    if (!image.exists()) {
+                        // link into a temporary location first, so that an interrupted link leaves no image behind
+                        File tmp = new File(storeDir, key + "-" + UUID.randomUUID() + TMP_SUFFIX);
+                        linker.accept(tmp);
+                        try {
+                            Files.move(tmp.toPath(), image.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                        } catch (IOException e) {
+                            deleteRecursively(tmp.toPath());
+                            throw e;
+                        }
+                    }
+                    FileLinks.linkOrCopyTree(image.toPath(), destination.toPath());
+                    Files.setLastModifiedTime(lockFile, FileTime.fromMillis(System.currentTimeMillis()));
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Deletes the images that were not used for {@link #RETENTION_DAYS} days and the leftovers of interrupted
+     * links, if the last cleanup of the store was more than a day ago. Images that are locked are skipped.
+     */
+    @Override
+    public void close() {
+        File storeDir = getParameters().getStoreDirectory().get().getAsFile();
+        File lastCleanup = new File(storeDir, LAST_CLEANUP);
+        long now = System.currentTimeMillis();
+        if (!storeDir.isDirectory() || now - lastCleanup.lastModified() < CLEANUP_INTERVAL_MILLIS) {
+            return;
+        }
+        try {
+            Files.write(lastCleanup.toPath(), new byte[0]);
+            File[] entries = storeDir.listFiles(File::isDirectory);
+            for (File entry : entries == null ? new File[0] : entries) {
+                if (entry.getName().endsWith(TMP_SUFFIX)) {
+                    if (now - entry.lastModified() > RETENTION_MILLIS) {
+                        deleteRecursively(entry.toPath());
+                    }
+                } else {
+                    deleteIfUnused(entry, new File(storeDir, entry.getName() + LOCK_SUFFIX).toPath(), now);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void deleteIfUnused(File image, Path lockFile, long now) throws IOException {
+        synchronized (LOCKS.computeIfAbsent(lockFile.toAbsolutePath().toString(), k -> new Object())) {
+            try (FileChannel channel =
+                            FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                    FileLock lock = channel.tryLock()) {
+                if (lock == null || now - Files.getLastModifiedTime(lockFile).toMillis() <= RETENTION_MILLIS) {
+                    return; // in use by another process or used recently
+                }
+                deleteRecursively(image.toPath());
+                Files.delete(lockFile);
+            } catch (OverlappingFileLockException e) {
+                // in use by another build of this process
+            }
+        }
+    }
+
+    private static void deleteRecursively(Path path) {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try {
+            Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    Files.delete(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                    Files.delete(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String hash(List<String> keyParts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String part : keyParts) {
+                digest.update(part.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
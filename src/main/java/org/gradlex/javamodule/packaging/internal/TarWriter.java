@@ -0,0 +1,201 @@
+// SPDX-License-Identifier: Apache-2.0
+package org.gradlex.javamodule.packaging.internal;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+import org.jspecify.annotations.NullMarked;
+
+/**
+ * Writes reproducible tar archives in the POSIX 'ustar' format: all entries have the same timestamp and belong to
+ * the 'root' user and group (0). Names that do not fit into the 'ustar' header, and sizes of 8 GiB or more, are
+ * written as PAX extended headers. Parent folders are added automatically before the first entry in them.
+ */
+@NullMarked
+public final class TarWriter implements Closeable {
+
+    public static final int FILE_MODE = 0644;
+    public static final int EXECUTABLE_MODE = 0755;
+    public static final int DIRECTORY_MODE = 0755;
+
+    private static final int BLOCK = 512;
+    private static final long MAX_OCTAL_SIZE = 077777777777L;
+
+    private final OutputStream out;
+    private final long mtime;
+    private final Set<String> directories = new HashSet<>();
+
+    /**
+     * @param mtime the modification time of all entries in seconds since the epoch
+     */
+    public TarWriter(OutputStream out, long mtime) {
+        this.out = out;
+        this.mtime = mtime;
+    }
+
+    /**
+     * Adds a folder. The name does not end with '/'.
+     */
+    public void directory(String name) throws IOException {
+        parents(name);
+        if (directories.add(name)) {
+            header(name + "/", '5', DIRECTORY_MODE, 0, "");
+        }
+    }
+
+    public void file(String name, int mode, Path file) throws IOException {
+        parents(name);
+        long size = Files.size(file);
+        header(name, '0', mode, size, "");
+        long written = Files.copy(file, out);
+        if (written != size) {
+            throw new IOException("File changed while it was added to the archive: " + file);
+        }
+        pad(size);
+    }
+
+    public void file(String name, int mode, byte[] content) throws IOException {
+        parents(name);
+        header(name, '0', mode, content.length, "");
+        out.write(content);
+        pad(content.length);
+    }
+
+    public void symbolicLink(String name, String target) throws IOException {
+        parents(name);
+        header(name, '2', 0777, 0, target);
+    }
+
+    /**
+     * Writes the end of the archive – two empty blocks – and closes the stream.
+     */
+    @Override
+    public void close() throws IOException {
+        out.write(new byte[2 * BLOCK]);
+        out.close();
+    }
+
+    private void parents(String name) throws IOException {
+        int end = name.lastIndexOf('/');
+        if (end > 0) {
+            directory(name.substring(0, end));
+        }
+    }
+
+    private void header(String name, char type, int mode, long size, String linkName) throws IOException {
+        byte[] nameBytes = name.getBytes(UTF_8);
+        byte[] linkBytes = linkName.getBytes(UTF_8);
+        String prefix = "";
+        String shortName = name;
+        if (nameBytes.length > 100) {
+            int split = name.lastIndexOf('/', name.length() - 2);
+            while (split > 0 && (name.substring(0, split).getBytes(UTF_8).length > 155)) {
+                split = name.lastIndexOf('/', split - 1);
+            }
+            if (split > 0 && name.substring(split + 1).getBytes(UTF_8).length <= 100) {
+                prefix = name.substring(0, split);
+                shortName = name.substring(split + 1);
+            } else {
+                shortName = "";
+            }
+        }
+        if (shortName.isEmpty() || linkBytes.length > 100 || size > MAX_OCTAL_SIZE) {
+            StringBuilder records = new StringBuilder();
+            if (shortName.isEmpty()) {
+                records.append(paxRecord("path", name));
+                prefix = "";
+                shortName = "PaxHeaders/" + name.substring(name.lastIndexOf('/', name.length() - 2) + 1);
+            }
+            if (linkBytes.length > 100) {
+                records.append(paxRecord("linkpath", linkName));
+            }
+            if (size > MAX_OCTAL_SIZE) {
+                records.append(paxRecord("size", Long.toString(size)));
+            }
+            byte[] pax = records.toString().getBytes(UTF_8);
+            out.write(block(truncate(shortName, 100), 'x', FILE_MODE, pax.length, "", ""));
+            out.write(pax);
+            pad(pax.length);
+        }
+        out.write(block(
+                truncate(shortName, 100),
+                type,
+                mode,
+                size > MAX_OCTAL_SIZE ? 0 : size,
+                truncate(linkName, 100),
+                prefix));
+    }
+
+    private byte[] block(String name, char type, int mode, long size, String linkName, String prefix) {
+        byte[] header = new byte[BLOCK];
+        put(header, 0, 100, name.getBytes(UTF_8));
+        octal(header, 100, 8, mode);
+        octal(header, 108, 8, 0); // uid
+        octal(header, 116, 8, 0); // gid
+        octal(header, 124, 12, size);
+        octal(header, 136, 12, mtime);
+        for (int i = 148; i < 156; i++) {
+            header[i] = ' '; // checksum is computed with spaces
+        }
+        header[156] = (byte) type;
+        put(header, 157, 100, linkName.getBytes(UTF_8));
+        put(header, 257, 6, "ustar\0".getBytes(UTF_8));
+        put(header, 263, 2, "00".getBytes(UTF_8));
+        put(header, 265, 32, "root".getBytes(UTF_8));
+        put(header, 297, 32, "root".getBytes(UTF_8));
+        put(header, 345, 155, prefix.getBytes(UTF_8));
+        long checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xFF;
+        }
+        octal(header, 148, 7, checksum);
+        return header;
+    }
+
+    private void pad(long size) throws IOException {
+        int remainder = (int) (size % BLOCK);
+        if (remainder != 0) {
+            out.write(new byte[BLOCK - remainder]);
+        }
+    }
+
+    /**
+     * A PAX record: '<length> <key>=<value>\n', where the length includes itself.
+     */
+    private static String paxRecord(String key, String value) {
+        int length = key.getBytes(UTF_8).length + value.getBytes(UTF_8).length + 3;
+        int total = length + Integer.toString(length).length();
+        if (Integer.toString(total).length() != Integer.toString(length).length()) {
+            total++;
+        }
+        return total + " " + key + "=" + value + "\n";
+    }
+
+    private static String truncate(String value, int maxBytes) {
+        String result = value;
+        while (result.getBytes(UTF_8).length > maxBytes) {
+            result = result.substring(0, result.length() - 1);
+        }
+        return result;
+    }
+
+    private static void put(byte[] header, int offset, int length, byte[] value) {
+        System.arraycopy(value, 0, header, offset, Math.min(length, value.length));
+    }
+
+    private static void octal(byte[] header, int offset, int length, long value) {
+        String octal = Long.toOctalString(value);
+        int digits = length - 1;
+        for (int i = 0; i < digits; i++) {
+            int index = octal.length() - digits + i;
+            header[offset + i] = (byte) (index < 0 ? '0' : octal.charAt(index));
+        }
+        header[offset + digits] = 0;
+    }
+}
@@ -0,0 +1,58 @@
+// SPDX-License-Identifier: Apache-2.0
+package org.gradlex.javamodule.packaging.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import org.gradle.api.logging.Logger;
+import org.jspecify.annotations.NullMarked;
+
+/**
+ * Logs the output of a process line by line, prefixed with the time since the start of the task and a label.
+ */
+@NullMarked
+public class TimestampedOutputStream extends OutputStream {
+
+    private final Logger logger;
+    private final long startNanos;
+    private final String label;
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+    public TimestampedOutputStream(Logger logger, long startNanos, String label) {
+        this.logger = logger;
+        this.startNanos = startNanos;
+        this.label = label;
+    }
+
+    @Override
+    public synchronized void write(int b) {
+        if (b == '\n') {
+            logLine();
+        } else if (b != '\r') {
+            line.write(b);
+        }
+    }
+
+    @Override
+    public synchronized void flush() {
+        // lines are logged once complete
+    }
+
+    @Override
+    public synchronized void close() {
+        if (line.size() > 0) {
+            logLine();
+        }
+    }
+
+    private void logLine() {
+        logger.lifecycle(String.format(
+                Locale.ROOT,
+                "[+%.3fs] [%s] %s",
+                (System.nanoTime() - startNanos) / 1_000_000_000.0,
+                label,
+                new String(line.toByteArray(), Charset.defaultCharset())));
+        line.reset();
+    }
+}
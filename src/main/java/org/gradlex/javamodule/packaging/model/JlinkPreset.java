@@ -0,0 +1,104 @@
+// SPDX-License-Identifier: Apache-2.0
+package org.gradlex.javamodule.packaging.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.jspecify.annotations.NullMarked;
+
+/**
+ * Named sets of 'jlink' options that make the trade-off between the size and the startup time of the runtime
+ * image an explicit choice. The options of a preset are added to the configured 'jlinkOptions' – an option that
+ * is configured explicitly is not added again, so that it can be used to adjust a preset.
+ */
+@NullMarked
+public enum JlinkPreset {
+
+    /**
+     * The smallest image: no debug information, man pages, or header files, and the modules are compressed with
+     * the highest level.
+     */
+    MINIMAL_SIZE("minimal-size"),
+
+    /**
+     * The fastest startup: the modules are not compressed, the image contains a CDS archive of the JDK classes,
+     * and identical legal notices are stored once. The native commands are kept, as 'jlink' runs 'java' from
+     * the image to create the archive. Requires Java 18 or higher.
+     */
+    FAST_STARTUP("fast-startup"),
+
+    /**
+     * No debug information, man pages, or header files, identical legal notices are stored once, and the
+     * modules are compressed with a medium level (Java 21 or higher) or only share their strings (before).
+     */
+    BALANCED("balanced");
+
+    private static final String COMPRESS = "--compress";
+    private static final String GENERATE_CDS_ARCHIVE = "--generate-cds-archive";
+    private static final String STRIP_NATIVE_COMMANDS = "--strip-native-commands";
+
+    private final String label;
+
+    JlinkPreset(String label) {
+        this.label = label;
+    }
+
+    /**
+     * The options of this preset for 'jlink' of the given Java version. Before Java 21, 'jlink' only knows the
+     * compression levels '0' (none), '1' (shared strings), and '2' (zip).
+     */
+    public List<String> options(int javaVersion) {
+        boolean zipLevels = javaVersion >= 21;
+        switch (this) {
+            case MINIMAL_SIZE:
+                return Arrays.asList(
+                        "--strip-debug",
+                        "--no-man-pages",
+                        "--no-header-files",
+                        COMPRESS + "=" + (zipLevels ? "zip-9" : "2"));
+            case FAST_STARTUP:
+                if (javaVersion < 18) {
+                    throw new RuntimeException("The jlink preset '" + label + "' requires Java 18 or higher for '"
+                            + GENERATE_CDS_ARCHIVE + "', but the toolchain is Java " + javaVersion);
+                }
+                return Arrays.asList(
+                        "--no-man-pages",
+                        "--no-header-files",
+                        "--dedup-legal-notices=error-if-not-same-content",
+                        COMPRESS + "=" + (zipLevels ? "zip-0" : "0"),
+                        GENERATE_CDS_ARCHIVE);
+            default:
+                return Arrays.asList(
+                        "--strip-debug",
+                        "--no-man-pages",
+                        "--no-header-files",
+                        "--dedup-legal-notices=error-if-not-same-content",
+                        COMPRESS + "=" + (zipLevels ? "zip-6" : "1"));
+        }
+    }
+
+    /**
+     * The given options followed by the options of this preset that are not among them.
+     */
+    public List<String> addTo(List<String> options, int javaVersion) {
+        List<String> configured = new ArrayList<>();
+        for (String option : options) {
+            configured.add(optionName(option));
+        }
+        List<String> combined = new ArrayList<>(options);
+        if (this == FAST_STARTUP) {
+            combined.remove(STRIP_NATIVE_COMMANDS);
+        }
+        for (String option : options(javaVersion)) {
+            if (!configured.contains(optionName(option))) {
+                combined.add(option);
+            }
+        }
+        return combined;
+    }
+
+    private static String optionName(String option) {
+        String name = option.contains("=") ? option.substring(0, option.indexOf('=')) : option;
+        return "-c".equals(name) ? COMPRESS : name;
+    }
+}
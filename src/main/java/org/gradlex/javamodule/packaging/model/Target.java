@@ -1,6 +1,7 @@
 // SPDX-License-Identifier: Apache-2.0
 package org.gradlex.javamodule.packaging.model;
 
+import java.util.Collections;
 import javax.inject.Inject;
 import org.gradle.api.file.ConfigurableFileCollection;
 import org.gradle.api.provider.ListProperty;
@@ -26,10 +27,27 @@ public abstract class Target {
 
     public abstract Property<Boolean> getSingleStepPackaging();
 
+    public abstract Property<Boolean> getAppCdsArchive();
+
+    public abstract Property<Boolean> getAotCache();
+
+    public abstract ListProperty<String> getTrainingArguments();
+
+    public abstract Property<String> getPackagingBackend();
+
+    public abstract Property<String> getPackagingProfile();
+
+    public abstract Property<JlinkPreset> getJlinkPreset();
+
     @Inject
     public Target(String name) {
         this.name = name;
         getSingleStepPackaging().convention(false);
+        getAppCdsArchive().convention(false);
+        getAotCache().convention(false);
+        getTrainingArguments().convention(Collections.emptyList());
+        getPackagingBackend().convention("jpackage");
+        getPackagingProfile().convention("release");
     }
 
     public String getName() {
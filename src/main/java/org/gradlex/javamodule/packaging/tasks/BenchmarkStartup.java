@@ -0,0 +1,294 @@
+// SPDX-License-Identifier: Apache-2.0
+package org.gradlex.javamodule.packaging.tasks;
+
+import static java.util.Objects.requireNonNull;
+import static org.gradle.nativeplatform.OperatingSystemFamily.WINDOWS;
+import static org.gradlex.javamodule.packaging.internal.HostIdentification.validateHostSystem;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputDirectory;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Nested;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.UntrackedTask;
+import org.gradle.jvm.toolchain.JavaInstallationMetadata;
+import org.gradlex.javamodule.packaging.internal.Json;
+import org.jspecify.annotations.NullMarked;
+
+/**
+ * Measures the startup time of an app-image created by {@link Jpackage} and, optionally, of a {@link FatModuleJar}.
+ * Each is started a number of times after some warm-up runs. A run ends when the application prints the
+ * {@link #getReadinessMarker()} to the standard output, or when it terminates if no marker is defined.
+ * The results are written to a JSON report.
+ */
+@NullMarked
+@UntrackedTask(because = "Measurements differ from run to run")
+public abstract class BenchmarkStartup extends DefaultTask {
+
+    @Nested
+    public abstract Property<JavaInstallationMetadata> getJavaInstallation();
+
+    @Input
+    public abstract Property<String> getOperatingSystem();
+
+    @Input
+    public abstract Property<String> getArchitecture();
+
+    @Input
+    public abstract Property<String> getApplicationName();
+
+    /**
+     * The destination of the {@link Jpackage} task that created the app-image.
+     */
+    @InputDirectory
+    @PathSensitive(PathSensitivity.RELATIVE)
+    @Optional
+    public abstract DirectoryProperty getAppImage();
+
+    /**
+     * A fat Jar to measure in addition to the app-image. It is started with the 'java' of the installation.
+     */
+    @InputFile
+    @PathSensitive(PathSensitivity.NONE)
+    @Optional
+    public abstract RegularFileProperty getFatModuleJar();
+
+    /**
+     * Java options used when starting the {@link #getFatModuleJar()}.
+     */
+    @Input
+    public abstract ListProperty<String> getFatModuleJarJavaOptions();
+
+    @Input
+    public abstract ListProperty<String> getArguments();
+
+    /**
+     * A text the application prints to the standard output once it is ready. If set, the time to the first line
+     * containing the marker is measured and the application is stopped afterward. Otherwise, the time until
+     * the application terminates is measured.
+     */
+    @Input
+    @Optional
+    public abstract Property<String> getReadinessMarker();
+
+    @Input
+    public abstract Property<Integer> getWarmupRuns();
+
+    @Input
+    public abstract Property<Integer> getRuns();
+
+    /**
+     * How long a single run may take. If the application is not ready, or has not terminated, by then, it is
+     * stopped and the task fails. Defaults to 60 seconds.
+     */
+    @Internal
+    public abstract Property<Duration> getRunTimeout();
+
+    @OutputFile
+    public abstract RegularFileProperty getReport();
+
+    public BenchmarkStartup() {
+        getWarmupRuns().convention(2);
+        getRuns().convention(10);
+        getRunTimeout().convention(Duration.ofSeconds(60));
+    }
+
+    @TaskAction
+    public void benchmark() throws IOException, InterruptedException {
+        String os = getOperatingSystem().get();
+        validateHostSystem(getArchitecture().get(), os);
+
+        List<String> results = new ArrayList<>();
+        if (getAppImage().isPresent()) {
+            List<String> commandLine = new ArrayList<>();
+            commandLine.add(launcher(os).getAbsolutePath());
+            commandLine.addAll(getArguments().get());
+            results.add(benchmark("app-image", commandLine));
+        }
+        if (getFatModuleJar().isPresent()) {
+            String executableName = WINDOWS.equals(os) ? "java.exe" : "java";
+            List<String> commandLine = new ArrayList<>();
+            commandLine.add(getJavaInstallation()
+                    .get()
+                    .getInstallationPath()
+                    .file("bin/" + executableName)
+                    .getAsFile()
+                    .getAbsolutePath());
+            commandLine.addAll(getFatModuleJarJavaOptions().get());
+            commandLine.add("-jar");
+            commandLine.add(getFatModuleJar().get().getAsFile().getAbsolutePath());
+            commandLine.addAll(getArguments().get());
+            results.add(benchmark("fat-module-jar", commandLine));
+        }
+
+        File report = getReport().get().getAsFile();
+        Files.createDirectories(report.getParentFile().toPath());
+        Files.write(
+                report.toPath(),
+                ("{\n  \"benchmarks\": [\n" + String.join(",\n", results) + "\n  ]\n}\n")
+                        .getBytes(StandardCharsets.UTF_8));
+        getLogger().lifecycle("Startup benchmark report: " + report.toURI());
+    }
+
+    private File launcher(String os) {
+        File imageFolder = Arrays.stream(
+                        requireNonNull(getAppImage().get().getAsFile().listFiles()))
+                .filter(File::isDirectory)
+                .findFirst()
+                .orElseThrow(() -> new RuntimeException("No app-image in " + getAppImage().get()));
+        String name = getApplicationName().get();
+        if (os.contains("macos")) {
+            return new File(imageFolder, "Contents/MacOS/" + name);
+        }
+        if (os.contains("windows")) {
+            return new File(imageFolder, name + ".exe");
+        }
+        return new File(imageFolder, "bin/" + name);
+    }
+
+    private String benchmark(String name, List<String> commandLine) throws IOException, InterruptedException {
+        for (int i = 0; i < getWarmupRuns().get(); i++) {
+            run(commandLine);
+        }
+        List<Double> samples = new ArrayList<>();
+        for (int i = 0; i < getRuns().get(); i++) {
+            samples.add(run(commandLine));
+        }
+        List<Double> sorted = new ArrayList<>(samples);
+        Collections.sort(sorted);
+
+        getLogger()
+                .lifecycle(String.format(
+                        Locale.ROOT,
+                        "%s: p50 %.1f ms, p90 %.1f ms, p99 %.1f ms",
+                        name,
+                        percentile(sorted, 50),
+                        percentile(sorted, 90),
+                        percentile(sorted, 99)));
+
+        return String.format(
+                Locale.ROOT,
+                "    {\n"
+                        + "      \"name\": %s,\n"
+                        + "      \"commandLine\": [%s],\n"
+                        + "      \"readinessMarker\": %s,\n"
+                        + "      \"warmupRuns\": %d,\n"
+                        + "      \"runs\": %d,\n"
+                        + "      \"unit\": \"ms\",\n"
+                        + "      \"p50\": %.3f,\n"
+                        + "      \"p90\": %.3f,\n"
+                        + "      \"p99\": %.3f,\n"
+                        + "      \"samples\": [%s]\n"
+                        + "    }",
+                Json.string(name),
+                commandLine.stream().map(Json::string).collect(Collectors.joining(", ")),
+                Json.string(getReadinessMarker().getOrNull()),
+                getWarmupRuns().get(),
+                samples.size(),
+                percentile(sorted, 50),
+                percentile(sorted, 90),
+                percentile(sorted, 99),
+                samples.stream()
+                        .map(s -> String.format(Locale.ROOT, "%.3f", s))
+                        .collect(Collectors.joining(", ")));
+    }
+
+    /**
+     * Runs the application once and returns the time in milliseconds until it was ready.
+     */
+    private double run(List<String> commandLine) throws IOException, InterruptedException {
+        String marker = getReadinessMarker().getOrNull();
+        ProcessBuilder processBuilder =
+                new ProcessBuilder(commandLine).directory(getTemporaryDir()).redirectErrorStream(true);
+        Duration timeout = getRunTimeout().get();
+        long start = System.nanoTime();
+        Process process = processBuilder.start();
+        AtomicBoolean timedOut = new AtomicBoolean();
+        Thread watchdog = new Thread(
+                () -> {
+                    try {
+                        if (!process.waitFor(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                            timedOut.set(true);
+                            process.destroyForcibly();
+                        }
+                    } catch (InterruptedException e) {
+                        // the run is over
+                    }
+                },
+                "benchmark startup timeout");
+        watchdog.setDaemon(true);
+        watchdog.start();
+        long end = -1;
+        try (BufferedReader output =
+                new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = output.readLine()) != null) {
+                if (marker != null && line.contains(marker)) {
+                    end = System.nanoTime();
+                    break;
+                }
+            }
+            if (end != -1) {
+                process.destroy();
+                process.waitFor();
+            } else {
+                int exitCode = process.waitFor();
+                end = System.nanoTime();
+                if (timedOut.get()) {
+                    throw new RuntimeException("Application did not "
+                            + (marker != null ? "print '" + marker + "'" : "terminate") + " within "
+                            + timeout.toMillis() + " ms and was stopped ('runTimeout'): "
+                            + String.join(" ", commandLine));
+                }
+                if (marker != null) {
+                    throw new RuntimeException("Application terminated without printing '" + marker + "': "
+                            + String.join(" ", commandLine));
+                }
+                if (exitCode != 0) {
+                    throw new RuntimeException(
+                            "Application terminated with exit code " + exitCode + ": " + String.join(" ", commandLine));
+                }
+            }
+        } finally {
+            watchdog.interrupt();
+            process.destroyForcibly();
+        }
+        return (end - start) / 1_000_000.0;
+    }
+
+    /**
+     * Nearest-rank percentile of the sorted samples.
+     */
+    private static double percentile(List<Double> sorted, int percentile) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.size());
+        return sorted.get(Math.max(rank, 1) - 1);
+    }
+}
@@ -0,0 +1,121 @@
+// SPDX-License-Identifier: Apache-2.0
+package org.gradlex.javamodule.packaging.tasks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Classpath;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+import org.gradlex.javamodule.packaging.internal.ModuleInfo;
+import org.jspecify.annotations.NullMarked;
+
+/**
+ * Computes the JDK modules of a runtime image that only contains JDK modules from the module descriptors on the
+ * module path. The result is a file with one module name per line, which is the input of {@link Jlink} instead of
+ * the module path itself. The file only changes if the set of JDK modules changes, so that the runtime image is
+ * not linked again if only the application changes.
+ */
+@NullMarked
+@CacheableTask
+public abstract class ComputeJdkModules extends DefaultTask {
+
+    @Classpath
+    public abstract ConfigurableFileCollection getModulePath();
+
+    @Input
+    public abstract ListProperty<String> getAddModules();
+
+    /**
+     * A file listing JDK modules, one per line, that are added in addition to {@link #getAddModules()}.
+     * Typically, the result of {@link ComputeRuntimeModules}.
+     */
+    @InputFile
+    @PathSensitive(PathSensitivity.NONE)
+    @Optional
+    public abstract RegularFileProperty getRuntimeModules();
+
+    @OutputFile
+    public abstract RegularFileProperty getJdkModules();
+
+    @TaskAction
+    public void compute() throws IOException {
+        Set<String> jdkModules = requiredJdkModules(getModulePath(), getAddModules().get(), getRuntimeModules());
+
+        File output = getJdkModules().get().getAsFile();
+        Files.createDirectories(output.getParentFile().toPath());
+        Files.write(output.toPath(), jdkModules, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The JDK modules required by the modules on the module path and the additional modules – that is,
+     * all modules that are not on the module path themselves. 'jlink' adds the JDK modules these require.
+     */
+    static Set<String> requiredJdkModules(
+            Iterable<File> modulePath, List<String> addModules, RegularFileProperty runtimeModules) {
+        Map<String, ModuleInfo> modulesOnPath = new HashMap<>();
+        for (File entry : modulePath) {
+            ModuleInfo moduleInfo = ModuleInfo.read(entry);
+            if (moduleInfo != null) {
+                modulesOnPath.put(moduleInfo.getName(), moduleInfo);
+            }
+        }
+        Set<String> jdkModules = new TreeSet<>();
+        jdkModules.addAll(readModules(runtimeModules));
+        for (ModuleInfo moduleInfo : modulesOnPath.values()) {
+            if (moduleInfo.isAutomatic() && !runtimeModules.isPresent()) {
+                // an automatic module may use any module of the JDK, unless the modules it uses were computed
+                jdkModules.add("java.se");
+            }
+            for (ModuleInfo.Requires requires : moduleInfo.getRequires()) {
+                if (!requires.isStatic() && !modulesOnPath.containsKey(requires.getName())) {
+                    jdkModules.add(requires.getName());
+                }
+            }
+        }
+        for (String module : addModules) {
+            if (!modulesOnPath.containsKey(module)) {
+                jdkModules.add(module);
+            }
+        }
+        if (jdkModules.isEmpty()) {
+            jdkModules.add("java.base");
+        }
+        return jdkModules;
+    }
+
+    /**
+     * The module names in a file with one module per line, or none if the file is not set.
+     */
+    static List<String> readModules(RegularFileProperty modules) {
+        if (!modules.isPresent()) {
+            return Collections.emptyList();
+        }
+        try {
+            return Files.readAllLines(modules.get().getAsFile().toPath(), StandardCharsets.UTF_8).stream()
+                    .map(String::trim)
+                    .filter(m -> !m.isEmpty())
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+// SPDX-License-Identifier: Apache-2.0
+package org.gradlex.javamodule.packaging.tasks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import javax.inject.Inject;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.Directory;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Classpath;
+import org.gradle.api.tasks.Nested;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.jvm.toolchain.JavaInstallationMetadata;
+import org.gradle.process.ExecOperations;
+import org.gradlex.javamodule.packaging.internal.ModuleInfo;
+import org.jspecify.annotations.NullMarked;
+
+/**
+ * Computes the JDK modules an application needs at runtime. The classes of all entries on the module path are
+ * analysed with 'jdeps'. In addition, JDK modules are added that provide implementations of services the modules
+ * on the module path use. The result is a file with one module name per line, which is used by {@link Jlink}.
+ */
+@NullMarked
+@CacheableTask
+public abstract class ComputeRuntimeModules extends DefaultTask {
+
+    @Nested
+    public abstract Property<JavaInstallationMetadata> getJavaInstallation();
+
+    @Classpath
+    public abstract ConfigurableFileCollection getModulePath();
+
+    @OutputFile
+    public abstract RegularFileProperty getRuntimeModules();
+
+    @Inject
+    protected abstract ExecOperations getExec();
+
+    @TaskAction
+    public void compute() throws IOException {
+        Directory javaHome = getJavaInstallation().get().getInstallationPath();
+        List<File> modulePath =
+                getModulePath().getFiles().stream().filter(File::exists).collect(Collectors.toList());
+
+        Set<String> modules = new TreeSet<>();
+        if (!modulePath.isEmpty()) {
+            modules.addAll(jdeps(javaHome, modulePath));
+        }
+        modules.addAll(serviceProviders(javaHome, modulePath));
+
+        File output = getRuntimeModules().get().getAsFile();
+        Files.createDirectories(output.getParentFile().toPath());
+        Files.write(output.toPath(), modules, StandardCharsets.UTF_8);
+    }
+
+    private List<String> jdeps(Directory javaHome, List<File> modulePath) {
+        File jdeps = javaHome.file("bin/jdeps.exe").getAsFile();
+        if (!jdeps.exists()) {
+            jdeps = javaHome.file("bin/jdeps").getAsFile();
+        }
+        List<String> commandLine = new ArrayList<>();
+        Collections.addAll(
+                commandLine,
+                jdeps.getAbsolutePath(),
+                "--print-module-deps",
+                "--ignore-missing-deps",
+                "--multi-release",
+                String.valueOf(getJavaInstallation().get().getLanguageVersion().asInt()),
+                "--module-path",
+                modulePath.stream().map(File::getPath).collect(Collectors.joining(File.pathSeparator)));
+        for (File entry : modulePath) {
+            commandLine.add(entry.getPath());
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        getExec().exec(e -> {
+            e.commandLine(commandLine);
+            e.setStandardOutput(out);
+        });
+        // the last line of the output is the comma separated list of modules
+        String[] lines = new String(out.toByteArray(), StandardCharsets.UTF_8).trim().split("\\R");
+        return Arrays.stream(lines[lines.length - 1].split(","))
+                .map(String::trim)
+                .filter(m -> !m.isEmpty())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * JDK modules that provide services used by the modules on the module path.
+     * Only available if the JDK contains a 'jmods' folder to read the module descriptors from.
+     */
+    private Set<String> serviceProviders(Directory javaHome, List<File> modulePath) {
+        File[] jmods = javaHome.dir("jmods").getAsFile().listFiles((dir, name) -> name.endsWith(".jmod"));
+        if (jmods == null) {
+            return Collections.emptySet();
+        }
+        List<ModuleInfo> jdkModules = new ArrayList<>();
+        for (File jmod : jmods) {
+            ModuleInfo moduleInfo = ModuleInfo.read(jmod);
+            if (moduleInfo != null) {
+                jdkModules.add(moduleInfo);
+            }
+        }
+
+        Set<String> usedServices = new HashSet<>();
+        for (File entry : modulePath) {
+            ModuleInfo moduleInfo = ModuleInfo.read(entry);
+            if (moduleInfo != null) {
+                usedServices.addAll(moduleInfo.getUses());
+            }
+        }
+
+        // Unlike 'jlink --bind-services', services used by the providers themselves are not followed,
+        // as that quickly adds most of the JDK
+        Set<String> providers = new TreeSet<>();
+        for (ModuleInfo jdkModule : jdkModules) {
+            if (jdkModule.getProvides().keySet().stream().anyMatch(usedServices::contains)) {
+                providers.add(jdkModule.getName());
+            }
+        }
+        return providers;
+    }
+}
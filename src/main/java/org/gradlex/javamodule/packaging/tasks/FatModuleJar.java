@@ -3,27 +3,69 @@ package org.gradlex.javamodule.packaging.tasks;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Collections.singletonMap;
+import static java.util.Objects.requireNonNull;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
 import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import javax.inject.Inject;
+import org.gradle.api.NamedDomainObjectProvider;
+import org.gradle.api.artifacts.Configuration;
 import org.gradle.api.file.ArchiveOperations;
 import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.FileTree;
 import org.gradle.api.internal.file.FileOperations;
 import org.gradle.api.internal.file.copy.CopySpecInternal;
+import org.gradle.api.provider.ListProperty;
 import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.CacheableTask;
 import org.gradle.api.tasks.Classpath;
 import org.gradle.api.tasks.Input;
-import org.gradle.api.tasks.WorkResult;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Nested;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.TaskAction;
 import org.gradle.api.tasks.bundling.Jar;
-import org.gradle.work.DisableCachingByDefault;
+import org.gradle.jvm.toolchain.JavaLauncher;
+import org.gradle.work.ChangeType;
+import org.gradle.work.FileChange;
+import org.gradle.work.Incremental;
+import org.gradle.work.InputChanges;
+import org.gradlex.javamodule.packaging.internal.ClassShrinker;
+import org.gradlex.javamodule.packaging.internal.ModuleGraphIndex;
+import org.gradlex.javamodule.packaging.internal.ModuleInfo;
+import org.gradlex.javamodule.packaging.internal.ModuleReachability;
+import org.gradlex.javamodule.packaging.internal.RawZip;
 
-@DisableCachingByDefault(because = "Not worth caching")
+@CacheableTask
 public abstract class FatModuleJar extends Jar {
 
+    private static final String NESTED_JAR_LAUNCHER_PACKAGE = "org/gradlex/javamodule/packaging/launcher";
+    private static final List<String> JDK_PACKAGE_PREFIXES =
+            Arrays.asList("java.", "javax.", "jdk.", "sun.", "com.sun.");
+    private static final String NESTED_JAR_LAUNCHER = "org.gradlex.javamodule.packaging.launcher.NestedJarLauncher";
+
     @Classpath
+    @Incremental
     public abstract ConfigurableFileCollection getModulePath();
 
     @Input
@@ -38,6 +80,56 @@ public abstract class FatModuleJar extends Jar {
     @Input
     public abstract Property<String> getLauncherMainClass();
 
+    /**
+     * The 'java' of the JDK the application runs on. The services used by the modules of this JDK are kept by
+     * {@link #getPruneModules()} and {@link #getShrinkClasses()}.
+     */
+    @Nested
+    @Optional
+    public abstract Property<JavaLauncher> getJavaLauncher();
+
+    /**
+     * Store each module as a Jar in the 'modulepath' folder, instead of extracting the modules into folders.
+     * The Jars are stored uncompressed, so that the launcher of the plugin, which is then used by default, can
+     * memory-map them and load the modules without extracting anything. Defaults to 'false'.
+     */
+    @Input
+    public abstract Property<Boolean> getNestedModuleJars();
+
+    /**
+     * How many threads compress the files of modules that are folders. The files are compressed in parallel and
+     * written in a fixed order, so that the Jar does not depend on the number of threads. Defaults to the number
+     * of available processors.
+     */
+    @Internal
+    public abstract Property<Integer> getCompressionThreads();
+
+    /**
+     * Only add the modules that are reachable from the main module: the modules it requires (transitively) and
+     * the modules that provide services used by these modules or by the JDK. The modules that are left out are
+     * reported. Defaults to 'false'.
+     */
+    @Input
+    public abstract Property<Boolean> getPruneModules();
+
+    /**
+     * Drop the classes that are not reachable from the main class from the modules, together with the resources
+     * in their packages. Classes in packages that a module opens, providers of used services and the classes of
+     * {@link #getKeepClasses()} are kept. The module descriptors are not changed, except that the packages of a
+     * module are listed in the descriptor if they are not yet. How many classes are kept is reported. Defaults
+     * to 'false'.
+     */
+    @Input
+    public abstract Property<Boolean> getShrinkClasses();
+
+    /**
+     * Classes to keep when shrinking, although no reachable class references them – e.g. because they are only
+     * loaded via reflection. In the class names, '*' matches any part of a name without '.' and '**' matches any
+     * part of a name (e.g. 'org.example.app.model.**'). Resources in matching packages are also kept.
+     */
+    @Input
+    public abstract ListProperty<String> getKeepClasses();
+
     @Inject
     protected abstract ArchiveOperations getArchives();
 
@@ -46,15 +138,177 @@ public abstract class FatModuleJar extends Jar {
     protected abstract FileOperations getFiles();
 
     public FatModuleJar() {
-        getLauncherPath().from(getProject().getConfigurations().named("fatModuleJarLauncherPath"));
-        getLauncherMainClass().convention("build.jenesis.launcher.Launcher");
+        NamedDomainObjectProvider<Configuration> launcherPath =
+                getProject().getConfigurations().named("fatModuleJarLauncherPath");
+        getNestedModuleJars().convention(false);
+        getPruneModules().convention(false);
+        getShrinkClasses().convention(false);
+        // the nested Jar launcher is part of the plugin
+        getLauncherPath()
+                .from(getNestedModuleJars().map(nested -> nested ? Collections.emptyList() : launcherPath.get()));
+        getLauncherMainClass()
+                .convention(getNestedModuleJars()
+                        .map(nested -> nested ? NESTED_JAR_LAUNCHER : "build.jenesis.launcher.Launcher"));
+        getCompressionThreads().convention(Runtime.getRuntime().availableProcessors());
         setZip64(true);
+        setPreserveFileTimestamps(false);
+        setReproducibleFileOrder(true);
     }
 
     @Override
     protected void copy() {
-        getManifest()
-                .attributes(singletonMap("Main-Class", getLauncherMainClass().get()));
+        // the Jar is created by 'createJar()', which can patch an existing Jar
+    }
+
+    @TaskAction
+    public void createJar(InputChanges inputChanges) {
+        boolean nested = getNestedModuleJars().get();
+
+        File archive = getArchiveFile().get().getAsFile();
+        ExecutorService compression = Executors.newFixedThreadPool(getCompressionThreads().get());
+        try {
+            List<File> modulePath = modulePath();
+            if (getShrinkClasses().get()) {
+                modulePath = shrinkModules(modulePath, compression);
+            }
+
+            // Modules are added after the Jar was written: the entries of Jars are transferred without decompressing
+            // and compressing them again, or Jars are stored as they are. The files of folders are compressed in
+            // parallel. Only Jars with entries that cannot be transferred are copied through the copy spec.
+            List<File> appendedModules = new ArrayList<>();
+            List<File> copiedModules = new ArrayList<>();
+            for (File jarOrFolder : modulePath) {
+                if (nested || jarOrFolder.isDirectory() || canTransferRaw(jarOrFolder)) {
+                    appendedModules.add(jarOrFolder);
+                } else {
+                    copiedModules.add(jarOrFolder);
+                }
+            }
+            // The application's own modules, which change most often, are at the start of the module path. They
+            // are appended last, so that a patch only rewrites the end of the Jar.
+            Collections.reverse(appendedModules);
+
+            if (!(inputChanges.isIncremental()
+                    && patchJar(archive, inputChanges, appendedModules, nested, compression))) {
+                writeJar(copiedModules, nested);
+                try (RawZip.Appender appender =
+                        new RawZip.Appender(archive.toPath(), isPreserveFileTimestamps(), isReproducibleFileOrder())) {
+                    appendModules(appender, appendedModules, 0, nested, new HashMap<>(), compression);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            compression.shutdownNow();
+        }
+        setDidWork(true);
+    }
+
+    /**
+     * The existing entries of the module path, without the modules that are not reachable from the main module
+     * if {@link #getPruneModules()} is enabled.
+     */
+    private List<File> modulePath() {
+        List<File> modulePath = getModulePath().getFiles().stream()
+                .filter(File::exists)
+                .collect(Collectors.toList());
+        if (!getPruneModules().get()) {
+            return modulePath;
+        }
+        Map<String, ModuleInfo> modules = new LinkedHashMap<>();
+        Map<File, String> moduleNames = new HashMap<>();
+        for (File jarOrFolder : modulePath) {
+            ModuleInfo moduleInfo = requireNonNull(ModuleInfo.read(jarOrFolder));
+            modules.putIfAbsent(moduleInfo.getName(), moduleInfo);
+            moduleNames.put(jarOrFolder, moduleInfo.getName());
+        }
+        Set<String> reachable = ModuleReachability.reachable(getMainModule().get(), modules, usedByJdk());
+        List<File> pruned = modulePath.stream()
+                .filter(jarOrFolder -> !reachable.contains(moduleNames.get(jarOrFolder)))
+                .collect(Collectors.toList());
+        if (!pruned.isEmpty()) {
+            getLogger()
+                    .lifecycle(
+                            "Modules not reachable from '{}' are not added to {}:\n{}",
+                            getMainModule().get(),
+                            getArchiveFileName().get(),
+                            pruned.stream()
+                                    .map(m -> "  " + moduleNames.get(m) + " (" + m.getName() + ")")
+                                    .collect(Collectors.joining("\n")));
+        }
+        modulePath.removeAll(pruned);
+        return modulePath;
+    }
+
+    /**
+     * Writes copies of the modules without the classes and resources that are not reachable from the main class.
+     * Jars with entries that cannot be transferred are analyzed, but not shrunk.
+     */
+    private List<File> shrinkModules(List<File> modulePath, ExecutorService compression) throws IOException {
+        File shrunkFolder = new File(getTemporaryDir(), "shrunk");
+        getFiles().delete(shrunkFolder);
+        Files.createDirectories(shrunkFolder.toPath());
+        List<File> moduleJars = new ArrayList<>();
+        for (File jarOrFolder : modulePath) {
+            moduleJars.add(jarOrFolder.isDirectory() ? jarFolder(jarOrFolder, compression) : jarOrFolder);
+        }
+        List<File> shrunk = new ArrayList<>();
+        try (ClassShrinker shrinker = new ClassShrinker(getKeepClasses().get())) {
+            shrinker.analyze(moduleJars, getMainClass().get());
+            int droppedEntries = 0;
+            for (File jar : moduleJars) {
+                if (!canTransferRaw(jar)) {
+                    shrunk.add(jar);
+                    continue;
+                }
+                File shrunkJar = new File(shrunkFolder, jar.getName());
+                RawZip.writeEmpty(shrunkJar.toPath());
+                try (RawZip.Appender appender = new RawZip.Appender(
+                        shrunkJar.toPath(), isPreserveFileTimestamps(), isReproducibleFileOrder())) {
+                    droppedEntries += shrinker.write(jar, appender);
+                }
+                shrunk.add(shrunkJar);
+            }
+            getLogger()
+                    .lifecycle(
+                            "Shrinking keeps {} of {} classes of the modules in {} ({} entries dropped)",
+                            shrinker.getReachableClassCount(),
+                            shrinker.getClassCount(),
+                            getArchiveFileName().get(),
+                            droppedEntries);
+        }
+        return shrunk;
+    }
+
+    /**
+     * The services used by the modules of the JDK, read from the 'jmods' folder of the JDK of the
+     * {@link #getJavaLauncher()}. Without 'jmods', all services defined in JDK packages are treated as used.
+     */
+    private Predicate<String> usedByJdk() {
+        File[] jmods = getJavaLauncher().isPresent()
+                ? getJavaLauncher()
+                        .get()
+                        .getMetadata()
+                        .getInstallationPath()
+                        .dir("jmods")
+                        .getAsFile()
+                        .listFiles((dir, name) -> name.endsWith(".jmod"))
+                : null;
+        if (jmods == null) {
+            return service -> JDK_PACKAGE_PREFIXES.stream().anyMatch(service::startsWith);
+        }
+        Set<String> uses = new HashSet<>();
+        for (File jmod : jmods) {
+            ModuleInfo moduleInfo = ModuleInfo.read(jmod);
+            if (moduleInfo != null) {
+                uses.addAll(moduleInfo.getUses());
+            }
+        }
+        return uses::contains;
+    }
+
+    private void writeJar(List<File> copiedModules, boolean nested) {
+        getManifest().attributes(singletonMap("Main-Class", getLauncherMainClass().get()));
 
         CopySpecInternal extendedSpec = (CopySpecInternal) getFiles().copySpec();
         extendedSpec.with(getRootSpec());
@@ -65,24 +319,177 @@ public abstract class FatModuleJar extends Jar {
         extendedSpec.from(getLauncherPath().getFiles().stream()
                 .map(jar -> getArchives().zipTree(jar).matching(f -> f.exclude("META-INF/MANIFEST.MF")))
                 .collect(Collectors.toList()));
+        if (nested) {
+            extendedSpec.from(nestedJarLauncherClasses(), c -> c.include(NESTED_JAR_LAUNCHER_PACKAGE + "/**"));
+            extendedSpec.from(writeUrlHandlerService(), c -> c.into("META-INF/services"));
+        }
 
         extendedSpec.into("modulepath", pathFolder -> {
-            for (File jarOrFolder : getModulePath()) {
-                if (jarOrFolder.exists()) {
-                    if (jarOrFolder.isDirectory()) {
-                        pathFolder.into(jarOrFolder.getName(), moduleFolder -> moduleFolder.from(jarOrFolder));
-                    } else {
-                        pathFolder.into(
-                                nameWithoutExtension(jarOrFolder),
-                                moduleFolder -> moduleFolder.from(getArchives().zipTree(jarOrFolder)));
-                    }
-                }
+            for (File jar : copiedModules) {
+                pathFolder.into(
+                        nameWithoutExtension(jar), moduleFolder -> moduleFolder.from(getArchives().zipTree(jar)));
             }
         });
 
         // based on 'super()'
-        WorkResult didWork = createCopyActionExecuter().execute(extendedSpec, createCopyAction());
-        setDidWork(didWork.getDidWork());
+        createCopyActionExecuter().execute(extendedSpec, createCopyAction());
+    }
+
+    /**
+     * If only appended module Jars changed, the existing Jar is patched: the entries from the first changed module
+     * on are removed and appended again. The result is the same as if the Jar was written from scratch. Returns
+     * 'false' if the Jar cannot be patched.
+     */
+    private boolean patchJar(
+            File archive,
+            InputChanges inputChanges,
+            List<File> appendedModules,
+            boolean nested,
+            ExecutorService compression)
+            throws IOException {
+        if (getPruneModules().get() || getShrinkClasses().get() || !archive.exists()) {
+            // If modules are pruned or shrunk, a changed module may make other modules or classes reachable.
+            return false;
+        }
+        int firstChanged = appendedModules.size();
+        for (FileChange change : inputChanges.getFileChanges(getModulePath())) {
+            int index = appendedModules.indexOf(change.getFile());
+            if (change.getChangeType() != ChangeType.MODIFIED || index == -1) {
+                return false;
+            }
+            firstChanged = Math.min(firstChanged, index);
+        }
+        Map<String, ModuleGraphIndex.Module> index = nested ? readModuleGraphIndex(archive) : new HashMap<>();
+        try (RawZip.Appender appender =
+                new RawZip.Appender(archive.toPath(), isPreserveFileTimestamps(), isReproducibleFileOrder())) {
+            String removeFrom = firstChanged < appendedModules.size()
+                    ? appendedEntryName(appendedModules.get(firstChanged), nested)
+                    : ModuleGraphIndex.ENTRY_NAME;
+            if (!appender.removeFrom(removeFrom)) {
+                return false;
+            }
+            getLogger().info("Patching " + archive + " from " + removeFrom);
+            appendModules(appender, appendedModules, firstChanged, nested, index, compression);
+        }
+        return true;
+    }
+
+    private void appendModules(
+            RawZip.Appender appender,
+            List<File> modules,
+            int from,
+            boolean nested,
+            Map<String, ModuleGraphIndex.Module> index,
+            ExecutorService compression)
+            throws IOException {
+        for (File jarOrFolder : modules.subList(from, modules.size())) {
+            String entryName = appendedEntryName(jarOrFolder, nested);
+            if (nested) {
+                index.put(entryName, storeNestedJar(appender, jarOrFolder, entryName, compression));
+            } else if (jarOrFolder.isDirectory()) {
+                appender.deflateFiles(
+                        jarOrFolder.toPath(), entryName, compression, getCompressionThreads().get());
+            } else {
+                appender.transferEntries(jarOrFolder.toPath(), entryName);
+            }
+        }
+        if (nested) {
+            // the index lists the modules in module path order
+            List<ModuleGraphIndex.Module> indexModules = new ArrayList<>();
+            for (int i = modules.size() - 1; i >= 0; i--) {
+                indexModules.add(requireNonNull(index.get(appendedEntryName(modules.get(i), true))));
+            }
+            appender.store(ModuleGraphIndex.write(indexModules), ModuleGraphIndex.ENTRY_NAME);
+        }
+    }
+
+    private String appendedEntryName(File jarOrFolder, boolean nested) {
+        if (nested) {
+            return "modulepath/" + (jarOrFolder.isDirectory() ? jarOrFolder.getName() + ".jar" : jarOrFolder.getName());
+        }
+        return "modulepath/" + (jarOrFolder.isDirectory() ? jarOrFolder.getName() : nameWithoutExtension(jarOrFolder))
+                + "/";
+    }
+
+    /**
+     * Stores the module as uncompressed Jar and returns its entry for the index, from which the launcher creates
+     * the module layer without reading the nested Jars.
+     */
+    private ModuleGraphIndex.Module storeNestedJar(
+            RawZip.Appender appender, File jarOrFolder, String entryName, ExecutorService compression)
+            throws IOException {
+        ModuleInfo moduleInfo = requireNonNull(ModuleInfo.read(jarOrFolder));
+        File jar = jarOrFolder.isDirectory() ? jarFolder(jarOrFolder, compression) : jarOrFolder;
+        long offset = appender.store(jar.toPath(), entryName);
+        return ModuleGraphIndex.Module.read(jar, moduleInfo.getName(), entryName, offset);
+    }
+
+    private Map<String, ModuleGraphIndex.Module> readModuleGraphIndex(File archive) throws IOException {
+        Map<String, ModuleGraphIndex.Module> index = new HashMap<>();
+        try (ZipFile zip = new ZipFile(archive)) {
+            ZipEntry entry = zip.getEntry(ModuleGraphIndex.ENTRY_NAME);
+            if (entry != null) {
+                try (InputStream in = zip.getInputStream(entry)) {
+                    for (ModuleGraphIndex.Module module : ModuleGraphIndex.read(in)) {
+                        index.put(module.getEntryName(), module);
+                    }
+                }
+            }
+        }
+        return index;
+    }
+
+    private File jarFolder(File folder, ExecutorService compression) throws IOException {
+        File jar = new File(getTemporaryDir(), folder.getName() + ".jar");
+        RawZip.writeEmpty(jar.toPath());
+        try (RawZip.Appender appender =
+                new RawZip.Appender(jar.toPath(), isPreserveFileTimestamps(), isReproducibleFileOrder())) {
+            appender.deflateFiles(folder.toPath(), "", compression, getCompressionThreads().get());
+        }
+        return jar;
+    }
+
+    private FileTree nestedJarLauncherClasses() {
+        String launcherClass = NESTED_JAR_LAUNCHER.replace('.', '/') + ".class";
+        URL url = requireNonNull(
+                FatModuleJar.class.getClassLoader().getResource(launcherClass),
+                "The plugin does not contain the nested Jar launcher");
+        try {
+            if ("jar".equals(url.getProtocol())) {
+                return getArchives()
+                        .zipTree(new File(((JarURLConnection) url.openConnection())
+                                .getJarFileURL()
+                                .toURI()));
+            }
+            File classFile = new File(url.toURI());
+            String path = classFile.getPath();
+            return getFiles()
+                    .fileTree(new File(path.substring(0, path.length() - launcherClass.length())));
+        } catch (IOException | URISyntaxException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private File writeUrlHandlerService() {
+        File service = new File(getTemporaryDir(), "services/java.net.spi.URLStreamHandlerProvider");
+        try {
+            Files.createDirectories(service.toPath().getParent());
+            Files.write(
+                    service.toPath(),
+                    (NESTED_JAR_LAUNCHER_PACKAGE.replace('/', '.') + ".NestedJarUrlHandlers\n").getBytes(UTF_8));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return service;
+    }
+
+    private boolean canTransferRaw(File jar) {
+        try {
+            return RawZip.readEntries(jar.toPath()).stream().allMatch(RawZip.Entry::canTransferRaw);
+        } catch (IOException e) {
+            getLogger().info("Cannot transfer entries of " + jar + ": " + e.getMessage());
+            return false;
+        }
     }
 
     private File writeApplicationProperties() {
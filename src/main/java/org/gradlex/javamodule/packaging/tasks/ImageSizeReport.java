@@ -0,0 +1,388 @@
+// SPDX-License-Identifier: Apache-2.0
+package org.gradlex.javamodule.packaging.tasks;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.inject.Inject;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.Directory;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.InputDirectory;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Nested;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.jvm.toolchain.JavaInstallationMetadata;
+import org.gradle.process.ExecOperations;
+import org.gradlex.javamodule.packaging.internal.Json;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Reports the size of an app-image created by {@link Jpackage}, broken down by JDK module in the runtime image,
+ * by application module (in the runtime image or as Jar), by resource, and by native library. Each file is
+ * reported in exactly one entry – a Jar or native library that is a resource is reported as resource. All other
+ * files are summarized as 'other'.
+ * The report is written as 'report.json' and 'index.html'. If a {@link #getBaseline()} is defined, the report
+ * shows the difference to it for each entry.
+ */
+@NullMarked
+@CacheableTask
+public abstract class ImageSizeReport extends DefaultTask {
+
+    private static final String RUNTIME_MODULE = "runtime-module";
+    private static final String APPLICATION_MODULE = "application-module";
+    private static final String RESOURCE = "resource";
+    private static final String TARGET_RESOURCE = "target-resource";
+    private static final String NATIVE_LIBRARY = "native-library";
+    private static final String OTHER = "other";
+
+    private static final Pattern ENTRY_LINE =
+            Pattern.compile("\\{\"category\": \"(.*?)\", \"name\": \"(.*?)\", \"size\": (\\d+)");
+
+    private static class Entry {
+        final String category;
+        final String name;
+        final long size;
+
+        Entry(String category, String name, long size) {
+            this.category = category;
+            this.name = name;
+            this.size = size;
+        }
+
+        String key() {
+            return category + "/" + name;
+        }
+    }
+
+    /**
+     * The 'jimage' of this installation is used to analyse the 'modules' file of the runtime image.
+     */
+    @Nested
+    public abstract Property<JavaInstallationMetadata> getJavaInstallation();
+
+    /**
+     * The destination of the {@link Jpackage} task that created the app-image.
+     */
+    @InputDirectory
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public abstract DirectoryProperty getAppImage();
+
+    /**
+     * The resources that were added to the image. Each file or folder is reported as one entry.
+     */
+    @InputFiles
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public abstract ConfigurableFileCollection getResources();
+
+    /**
+     * The target specific resources that were added to the image. Each file or folder is reported as one entry.
+     */
+    @InputFiles
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public abstract ConfigurableFileCollection getTargetResources();
+
+    /**
+     * A 'report.json' of an earlier run to compare with.
+     */
+    @InputFile
+    @PathSensitive(PathSensitivity.NONE)
+    @Optional
+    public abstract RegularFileProperty getBaseline();
+
+    @OutputDirectory
+    public abstract DirectoryProperty getReportDirectory();
+
+    @Inject
+    protected abstract ExecOperations getExec();
+
+    @TaskAction
+    public void report() throws IOException {
+        File image = Arrays.stream(requireNonNull(getAppImage().get().getAsFile().listFiles()))
+                .filter(File::isDirectory)
+                .findFirst()
+                .orElseThrow(() -> new RuntimeException("No app-image in " + getAppImage().get()));
+
+        List<File> allFiles;
+        try (Stream<Path> files = Files.walk(image.toPath())) {
+            allFiles = files.map(Path::toFile).filter(File::isFile).collect(Collectors.toList());
+        }
+
+        // Resources are copied into the 'app' folder, which contains the launcher configuration, and target
+        // specific resources into its parent. The files of the image that stem from a resource are mapped to it.
+        Map<Path, String> resourceFiles = new HashMap<>();
+        Map<String, Long> resourceSizes = new LinkedHashMap<>();
+        @Nullable File appFolder = allFiles.stream()
+                .filter(f -> f.getName().endsWith(".cfg") && f.getParentFile().getName().equals("app"))
+                .map(File::getParentFile)
+                .findFirst()
+                .orElse(null);
+        if (appFolder != null) {
+            for (File resource : getTargetResources()) {
+                mapResourceFiles(TARGET_RESOURCE, resource, appFolder.getParentFile(), resourceFiles, resourceSizes);
+            }
+            for (File resource : getResources()) {
+                mapResourceFiles(RESOURCE, resource, appFolder, resourceFiles, resourceSizes);
+            }
+        }
+
+        List<Entry> entries = new ArrayList<>();
+        long other = 0;
+        for (File file : allFiles) {
+            String name = file.getName();
+            String path = image.toPath().relativize(file.toPath()).toString().replace('\\', '/');
+            String resource = resourceFiles.get(file.toPath());
+            if (resource != null) {
+                resourceSizes.merge(resource, file.length(), Long::sum);
+            } else if (name.equals("modules") && file.getParentFile().getName().equals("lib")) {
+                entries.addAll(runtimeModules(file));
+            } else if (name.endsWith(".jar") && ("/" + path).contains("/app/")) {
+                entries.add(new Entry(APPLICATION_MODULE, name, file.length()));
+            } else if (name.endsWith(".so") || name.endsWith(".dylib") || name.endsWith(".dll")) {
+                entries.add(new Entry(NATIVE_LIBRARY, path, file.length()));
+            } else {
+                other += file.length();
+            }
+        }
+        for (Map.Entry<String, Long> resource : resourceSizes.entrySet()) {
+            int separator = resource.getKey().indexOf('/');
+            entries.add(new Entry(
+                    resource.getKey().substring(0, separator),
+                    resource.getKey().substring(separator + 1),
+                    resource.getValue()));
+        }
+        entries.add(new Entry(OTHER, "other", other));
+        entries.sort(Comparator.comparing((Entry e) -> e.category)
+                .thenComparing(Comparator.comparingLong((Entry e) -> e.size).reversed()));
+
+        @Nullable Map<String, Long> baseline = getBaseline().isPresent() ? readBaseline() : null;
+        File reportDirectory = getReportDirectory().get().getAsFile();
+        Files.createDirectories(reportDirectory.toPath());
+        Files.write(
+                new File(reportDirectory, "report.json").toPath(),
+                json(entries, baseline).getBytes(StandardCharsets.UTF_8));
+        File html = new File(reportDirectory, "index.html");
+        Files.write(html.toPath(), html(image.getName(), entries, baseline).getBytes(StandardCharsets.UTF_8));
+        getLogger().lifecycle("Image size report: " + html.toURI());
+    }
+
+    private List<Entry> runtimeModules(File modulesFile) {
+        Directory javaHome = getJavaInstallation().get().getInstallationPath();
+        File jimage = javaHome.file("bin/jimage.exe").getAsFile();
+        if (!jimage.exists()) {
+            jimage = javaHome.file("bin/jimage").getAsFile();
+        }
+        String jimagePath = jimage.getAbsolutePath();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        getExec().exec(e -> {
+            e.commandLine(jimagePath, "list", "--verbose", modulesFile.getAbsolutePath());
+            e.setStandardOutput(out);
+        });
+
+        // The output lists the entries for each module in the columns: Offset Size Compressed Entry
+        Map<String, Long> moduleSizes = new LinkedHashMap<>();
+        String module = null;
+        for (String line : new String(out.toByteArray(), StandardCharsets.UTF_8).split("\\R")) {
+            String trimmed = line.trim();
+            if (trimmed.startsWith("Module: ")) {
+                module = trimmed.substring("Module: ".length());
+            } else if (module != null && !trimmed.isEmpty() && Character.isDigit(trimmed.charAt(0))) {
+                String[] columns = trimmed.split("\\s+", 4);
+                long size = Long.parseLong(columns[1]);
+                long compressed = Long.parseLong(columns[2]);
+                moduleSizes.merge(module, compressed > 0 ? compressed : size, Long::sum);
+            }
+        }
+        // Application modules are linked into the runtime image, unless the image only contains JDK modules
+        return moduleSizes.entrySet().stream()
+                .map(m -> new Entry(
+                        isJdkModule(m.getKey()) ? RUNTIME_MODULE : APPLICATION_MODULE, m.getKey(), m.getValue()))
+                .collect(Collectors.toList());
+    }
+
+    private static boolean isJdkModule(String name) {
+        return name.startsWith("java.") || name.startsWith("jdk.");
+    }
+
+    /**
+     * Maps the files of a resource – a single file or the contents of a folder – to their location in the image.
+     */
+    private static void mapResourceFiles(
+            String category, File resource, File into, Map<Path, String> resourceFiles, Map<String, Long> sizes)
+            throws IOException {
+        String key = category + "/" + resource.getName();
+        sizes.putIfAbsent(key, 0L);
+        if (!resource.exists()) {
+            return;
+        }
+        Path root = resource.toPath();
+        try (Stream<Path> files = Files.walk(root)) {
+            for (Path file : files.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                Path relative = resource.isDirectory() ? root.relativize(file) : file.getFileName();
+                resourceFiles.put(into.toPath().resolve(relative.toString()), key);
+            }
+        }
+    }
+
+    private Map<String, Long> readBaseline() throws IOException {
+        Map<String, Long> baseline = new LinkedHashMap<>();
+        for (String line : Files.readAllLines(getBaseline().get().getAsFile().toPath(), StandardCharsets.UTF_8)) {
+            Matcher matcher = ENTRY_LINE.matcher(line);
+            if (matcher.find()) {
+                String category = Json.unescape(matcher.group(1));
+                String name = Json.unescape(matcher.group(2));
+                baseline.put(category + "/" + name, Long.parseLong(matcher.group(3)));
+            }
+        }
+        return baseline;
+    }
+
+    private static String json(List<Entry> entries, @Nullable Map<String, Long> baseline) {
+        StringBuilder json = new StringBuilder("{\n");
+        json.append("  \"total\": ").append(total(entries)).append(",\n");
+        if (baseline != null) {
+            json.append("  \"totalDelta\": ")
+                    .append(total(entries) - baseline.values().stream().mapToLong(Long::longValue).sum())
+                    .append(",\n");
+        }
+        json.append("  \"entries\": [\n");
+        List<String> lines = new ArrayList<>();
+        for (Entry entry : entries) {
+            String line = "    {\"category\": " + Json.string(entry.category) + ", \"name\": " + Json.string(entry.name)
+                    + ", \"size\": " + entry.size;
+            if (baseline != null) {
+                line += ", \"delta\": " + (entry.size - baseline.getOrDefault(entry.key(), 0L));
+            }
+            lines.add(line + "}");
+        }
+        for (Map.Entry<String, Long> removed : removedEntries(entries, baseline).entrySet()) {
+            int separator = removed.getKey().indexOf('/');
+            lines.add("    {\"category\": " + Json.string(removed.getKey().substring(0, separator)) + ", \"name\": "
+                    + Json.string(removed.getKey().substring(separator + 1)) + ", \"size\": 0, \"delta\": "
+                    + -removed.getValue() + "}");
+        }
+        json.append(String.join(",\n", lines));
+        json.append("\n  ]\n}\n");
+        return json.toString();
+    }
+
+    private static String html(String imageName, List<Entry> entries, @Nullable Map<String, Long> baseline) {
+        long total = total(entries);
+        StringBuilder html = new StringBuilder();
+        html.append("<!DOCTYPE html>\n<html>\n<head>\n<meta charset=\"utf-8\">\n")
+                .append("<title>Image size - ")
+                .append(escapeHtml(imageName))
+                .append("</title>\n")
+                .append("<style>body{font-family:sans-serif}table{border-collapse:collapse}")
+                .append("td,th{padding:2px 8px;text-align:left}td.n{text-align:right}")
+                .append(".bar{background:#4a90d9;height:10px}</style>\n</head>\n<body>\n")
+                .append("<h1>Image size - ")
+                .append(escapeHtml(imageName))
+                .append("</h1>\n<p>Total: ")
+                .append(formatSize(total));
+        if (baseline != null) {
+            html.append(" (")
+                    .append(formatDelta(
+                            total - baseline.values().stream().mapToLong(Long::longValue).sum()))
+                    .append(")");
+        }
+        html.append("</p>\n<table>\n<tr><th>Category</th><th>Name</th><th>Size</th>");
+        if (baseline != null) {
+            html.append("<th>Delta</th>");
+        }
+        html.append("<th></th></tr>\n");
+        for (Entry entry : entries) {
+            html.append("<tr><td>")
+                    .append(entry.category)
+                    .append("</td><td>")
+                    .append(escapeHtml(entry.name))
+                    .append("</td><td class=\"n\">")
+                    .append(formatSize(entry.size))
+                    .append("</td>");
+            if (baseline != null) {
+                html.append("<td class=\"n\">")
+                        .append(formatDelta(entry.size - baseline.getOrDefault(entry.key(), 0L)))
+                        .append("</td>");
+            }
+            html.append("<td><div class=\"bar\" style=\"width:")
+                    .append(total == 0 ? 0 : Math.max(1, entry.size * 400 / total))
+                    .append("px\"></div></td></tr>\n");
+        }
+        for (Map.Entry<String, Long> removed : removedEntries(entries, baseline).entrySet()) {
+            int separator = removed.getKey().indexOf('/');
+            html.append("<tr><td>")
+                    .append(escapeHtml(removed.getKey().substring(0, separator)))
+                    .append("</td><td>")
+                    .append(escapeHtml(removed.getKey().substring(separator + 1)))
+                    .append(" (removed)</td><td class=\"n\">0 B</td><td class=\"n\">")
+                    .append(formatDelta(-removed.getValue()))
+                    .append("</td><td></td></tr>\n");
+        }
+        html.append("</table>\n</body>\n</html>\n");
+        return html.toString();
+    }
+
+    private static Map<String, Long> removedEntries(List<Entry> entries, @Nullable Map<String, Long> baseline) {
+        Map<String, Long> removed = new LinkedHashMap<>();
+        if (baseline != null) {
+            Set<String> keys = entries.stream().map(Entry::key).collect(Collectors.toCollection(HashSet::new));
+            baseline.forEach((key, size) -> {
+                if (!keys.contains(key)) {
+                    removed.put(key, size);
+                }
+            });
+        }
+        return removed;
+    }
+
+    private static long total(List<Entry> entries) {
+        return entries.stream().mapToLong(e -> e.size).sum();
+    }
+
+    private static String formatSize(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        if (bytes < 1024 * 1024) {
+            return String.format(Locale.ROOT, "%.1f KiB", bytes / 1024.0);
+        }
+        return String.format(Locale.ROOT, "%.1f MiB", bytes / (1024.0 * 1024.0));
+    }
+
+    private static String formatDelta(long bytes) {
+        return (bytes > 0 ? "+" : bytes < 0 ? "-" : "") + formatSize(Math.abs(bytes));
+    }
+
+    private static String escapeHtml(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+}
@@ -0,0 +1,250 @@
+// SPDX-License-Identifier: Apache-2.0
+package org.gradlex.javamodule.packaging.tasks;
+
+import static org.gradle.nativeplatform.OperatingSystemFamily.WINDOWS;
+import static org.gradlex.javamodule.packaging.internal.HostIdentification.validateHostSystem;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import javax.inject.Inject;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.Directory;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.internal.file.FileOperations;
+import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Classpath;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Nested;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.jvm.toolchain.JavaInstallationMetadata;
+import org.gradle.process.ExecOperations;
+import org.gradlex.javamodule.packaging.internal.ModuleInfo;
+import org.gradlex.javamodule.packaging.internal.RuntimeImageStore;
+import org.gradlex.javamodule.packaging.model.JlinkPreset;
+import org.jspecify.annotations.NullMarked;
+
+/**
+ * Links the runtime image for a target with 'jlink'. The image only contains the JDK modules required by the
+ * modules on the module path and the additional modules. It is used by 'jpackage' via '--runtime-image', which
+ * places the modules of the module path next to it. Such an image does not change if only the application
+ * changes, and it can be shared through a {@link RuntimeImageStore}.
+ * <p>
+ * The JDK modules are taken from {@link #getJdkModules()} if set, so that the application Jars are not an input
+ * of the task. Otherwise, they are read from the module descriptors on the module path.
+ * <p>
+ * If {@link #getJdkModulesOnly()} is turned off, the image also contains the modules of the module path that are
+ * required by the main module. As 'jlink' cannot link automatic modules, only the JDK modules are linked if there
+ * are automatic modules on the module path.
+ */
+@NullMarked
+@CacheableTask
+public abstract class Jlink extends DefaultTask {
+
+    /**
+     * The options 'jpackage' uses if no '--jlink-options' are defined.
+     */
+    static final List<String> DEFAULT_JLINK_OPTIONS =
+            Arrays.asList("--strip-native-commands", "--strip-debug", "--no-man-pages", "--no-header-files");
+
+    @Nested
+    public abstract Property<JavaInstallationMetadata> getJavaInstallation();
+
+    @Input
+    public abstract Property<String> getOperatingSystem();
+
+    @Input
+    public abstract Property<String> getArchitecture();
+
+    @Input
+    public abstract Property<String> getMainModule();
+
+    /**
+     * The modules of the application. They are only an input if they are linked into the image or if the JDK
+     * modules are derived from them – see {@link #getLinkedModulePath()}.
+     */
+    @Internal
+    public abstract ConfigurableFileCollection getModulePath();
+
+    /**
+     * The part of {@link #getModulePath()} the image depends on: all of it if application modules are linked or
+     * if no {@link #getJdkModules()} are set, and nothing otherwise.
+     */
+    @Classpath
+    public FileCollection getLinkedModulePath() {
+        return getJdkModulesOnly().get() && getJdkModules().isPresent()
+                ? getObjects().fileCollection()
+                : getModulePath();
+    }
+
+    @Input
+    public abstract ListProperty<String> getJlinkOptions();
+
+    /**
+     * A named set of options that is added to the {@link #getJlinkOptions()}, or to the options 'jpackage' uses
+     * if none are defined. Options that are defined explicitly take precedence over the options of the preset.
+     */
+    @Input
+    @Optional
+    public abstract Property<JlinkPreset> getJlinkPreset();
+
+    @Input
+    public abstract ListProperty<String> getAddModules();
+
+    /**
+     * A file listing JDK modules, one per line, that are added to the image in addition to {@link #getAddModules()}.
+     * Typically, the result of {@link ComputeRuntimeModules}.
+     */
+    @InputFile
+    @PathSensitive(PathSensitivity.NONE)
+    @Optional
+    public abstract RegularFileProperty getRuntimeModules();
+
+    /**
+     * Only link the JDK modules that are required by the modules on the module path and the additional modules.
+     * The application modules are then not part of the image. Defaults to 'true'.
+     */
+    @Input
+    public abstract Property<Boolean> getJdkModulesOnly();
+
+    /**
+     * A file listing the JDK modules of an image that only contains JDK modules, one per line.
+     * Typically, the result of {@link ComputeJdkModules}.
+     */
+    @InputFile
+    @PathSensitive(PathSensitivity.NONE)
+    @Optional
+    public abstract RegularFileProperty getJdkModules();
+
+    /**
+     * If set, an image that only contains JDK modules is taken from the store or linked into the store once.
+     */
+    @Internal
+    public abstract Property<RuntimeImageStore> getRuntimeImageStore();
+
+    @OutputDirectory
+    public abstract DirectoryProperty getDestination();
+
+    @Inject
+    protected abstract FileOperations getFiles();
+
+    @Inject
+    protected abstract ExecOperations getExec();
+
+    @Inject
+    protected abstract ObjectFactory getObjects();
+
+    public Jlink() {
+        getJdkModulesOnly().convention(true);
+    }
+
+    @TaskAction
+    public void runJlink() {
+        // 'jlink' requires that the output folder does not exist
+        getFiles().delete(getDestination());
+
+        String os = getOperatingSystem().get();
+        String arch = getArchitecture().get();
+
+        validateHostSystem(arch, os);
+
+        Directory javaHome = getJavaInstallation().get().getInstallationPath();
+        String executableName = WINDOWS.equals(os) ? "jlink.exe" : "jlink";
+        String jlink = javaHome.file("bin/" + executableName).getAsFile().getAbsolutePath();
+
+        List<String> jdkModulePath = new ArrayList<>();
+        File jmods = javaHome.dir("jmods").getAsFile();
+        if (jmods.exists()) {
+            // JDKs without 'jmods' folder link from the run-time image of the JDK itself
+            jdkModulePath.add(jmods.getPath());
+        }
+        List<String> configuredOptions =
+                getJlinkOptions().get().isEmpty() ? DEFAULT_JLINK_OPTIONS : getJlinkOptions().get();
+        List<String> jlinkOptions = getJlinkPreset().isPresent()
+                ? getJlinkPreset()
+                        .get()
+                        .addTo(configuredOptions, getJavaInstallation().get().getLanguageVersion().asInt())
+                : configuredOptions;
+        File destination = getDestination().get().getAsFile();
+
+        if (!getJdkModulesOnly().get() && automaticModules().isEmpty()) {
+            List<String> modulePath = new ArrayList<>();
+            for (File entry : getModulePath()) {
+                modulePath.add(entry.getPath());
+            }
+            modulePath.addAll(jdkModulePath);
+
+            Set<String> modules = new LinkedHashSet<>(getAddModules().get());
+            modules.addAll(ComputeJdkModules.readModules(getRuntimeModules()));
+            modules.add(getMainModule().get());
+
+            link(jlink, modulePath, modules, jlinkOptions, destination);
+            return;
+        }
+
+        if (!getJdkModulesOnly().get()) {
+            getLogger()
+                    .warn(
+                            "The runtime image only contains JDK modules, as 'jlink' cannot link automatic modules: {}",
+                            String.join(", ", automaticModules()));
+        }
+        Set<String> jdkModules = getJdkModules().isPresent()
+                ? new TreeSet<>(ComputeJdkModules.readModules(getJdkModules()))
+                : ComputeJdkModules.requiredJdkModules(getModulePath(), getAddModules().get(), getRuntimeModules());
+        if (getRuntimeImageStore().isPresent()) {
+            JavaInstallationMetadata installation = getJavaInstallation().get();
+            List<String> key = new ArrayList<>();
+            key.add(javaHome.getAsFile().getAbsolutePath());
+            key.add(installation.getVendor());
+            key.add(installation.getJavaRuntimeVersion());
+            key.add(String.join(",", jdkModules));
+            key.addAll(jlinkOptions);
+            getRuntimeImageStore()
+                    .get()
+                    .provide(key, destination, output -> link(jlink, jdkModulePath, jdkModules, jlinkOptions, output));
+        } else {
+            link(jlink, jdkModulePath, jdkModules, jlinkOptions, destination);
+        }
+    }
+
+    private List<String> automaticModules() {
+        List<String> automaticModules = new ArrayList<>();
+        for (File entry : getModulePath()) {
+            ModuleInfo moduleInfo = ModuleInfo.read(entry);
+            if (moduleInfo != null && moduleInfo.isAutomatic()) {
+                automaticModules.add(moduleInfo.getName());
+            }
+        }
+        return automaticModules;
+    }
+
+    private void link(
+            String jlink, List<String> modulePath, Set<String> modules, List<String> jlinkOptions, File output) {
+        List<String> commandLine = new ArrayList<>();
+        Collections.addAll(commandLine, jlink, "--output", output.getPath());
+        if (!modulePath.isEmpty()) {
+            Collections.addAll(commandLine, "--module-path", String.join(File.pathSeparator, modulePath));
+        }
+        Collections.addAll(commandLine, "--add-modules", String.join(",", modules));
+        commandLine.addAll(jlinkOptions);
+
+        getExec().exec(e -> e.commandLine(commandLine));
+    }
+}
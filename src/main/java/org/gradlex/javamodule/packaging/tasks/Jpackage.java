@@ -5,27 +5,39 @@ import static java.util.Objects.requireNonNull;
 import static org.gradle.nativeplatform.OperatingSystemFamily.WINDOWS;
 import static org.gradlex.javamodule.packaging.internal.HostIdentification.validateHostSystem;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
 import javax.inject.Inject;
 import org.gradle.api.DefaultTask;
 import org.gradle.api.file.ConfigurableFileCollection;
 import org.gradle.api.file.Directory;
 import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.FileType;
+import org.gradle.api.file.RegularFileProperty;
 import org.gradle.api.internal.file.FileOperations;
 import org.gradle.api.provider.ListProperty;
 import org.gradle.api.provider.Property;
 import org.gradle.api.tasks.CacheableTask;
 import org.gradle.api.tasks.Classpath;
 import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputDirectory;
 import org.gradle.api.tasks.InputFiles;
 import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.Nested;
@@ -34,14 +46,40 @@ import org.gradle.api.tasks.OutputDirectory;
 import org.gradle.api.tasks.PathSensitive;
 import org.gradle.api.tasks.PathSensitivity;
 import org.gradle.api.tasks.TaskAction;
+import org.gradle.internal.logging.progress.ProgressLoggerFactory;
 import org.gradle.jvm.toolchain.JavaInstallationMetadata;
 import org.gradle.process.ExecOperations;
-import org.gradle.process.ExecSpec;
+import org.gradle.work.ChangeType;
+import org.gradle.work.FileChange;
+import org.gradle.work.Incremental;
+import org.gradle.work.InputChanges;
+import org.gradle.workers.WorkQueue;
+import org.gradle.workers.WorkerExecutor;
+import org.gradlex.javamodule.packaging.internal.ChecksumWorkAction;
+import org.gradlex.javamodule.packaging.internal.Checksums;
+import org.gradlex.javamodule.packaging.internal.ExecWorkAction;
+import org.gradlex.javamodule.packaging.internal.FileLinks;
+import org.gradlex.javamodule.packaging.internal.LauncherConfig;
+import org.gradlex.javamodule.packaging.internal.LinuxPackageWriter;
+import org.gradlex.javamodule.packaging.internal.PackagingPermits;
+import org.gradlex.javamodule.packaging.internal.ParallelGzipOutputStream;
+import org.gradlex.javamodule.packaging.internal.PhaseTimings;
+import org.gradlex.javamodule.packaging.internal.TarWriter;
+import org.gradlex.javamodule.packaging.internal.TimestampedOutputStream;
+import org.gradlex.javamodule.packaging.model.JlinkPreset;
 import org.jspecify.annotations.NullMarked;
 
 @NullMarked
 @CacheableTask
 public abstract class Jpackage extends DefaultTask {
+    private static final String JPACKAGE_BACKEND = "jpackage";
+    private static final String BUILTIN_BACKEND = "builtin";
+    private static final List<String> BUILTIN_PACKAGE_TYPES = Arrays.asList("deb", "rpm");
+
+    /**
+     * The package type of a compressed app-image that is created without 'jpackage'.
+     */
+    public static final String ARCHIVE = "archive";
 
     @Nested
     public abstract Property<JavaInstallationMetadata> getJavaInstallation();
@@ -55,10 +93,19 @@ public abstract class Jpackage extends DefaultTask {
     @Input
     public abstract Property<String> getMainModule();
 
+    /**
+     * The main class in the main module. Required if the main module is taken from a {@link #getRuntimeImage()},
+     * otherwise 'jpackage' finds it in the module descriptor.
+     */
+    @Input
+    @Optional
+    public abstract Property<String> getMainClass();
+
     @Input
     public abstract Property<String> getVersion();
 
     @Classpath
+    @Incremental
     public abstract ConfigurableFileCollection getModulePath();
 
     @Input
@@ -74,10 +121,12 @@ public abstract class Jpackage extends DefaultTask {
 
     @InputFiles
     @PathSensitive(PathSensitivity.RELATIVE)
+    @Incremental
     public abstract ConfigurableFileCollection getResources();
 
     @InputFiles
     @PathSensitive(PathSensitivity.RELATIVE)
+    @Incremental
     public abstract ConfigurableFileCollection getTargetResources();
 
     @Input
@@ -94,6 +143,14 @@ public abstract class Jpackage extends DefaultTask {
     @Input
     public abstract ListProperty<String> getJlinkOptions();
 
+    /**
+     * A named set of options that is added to the {@link #getJlinkOptions()} if 'jpackage' links the runtime image
+     * itself. Options that are defined explicitly take precedence over the options of the preset.
+     */
+    @Input
+    @Optional
+    public abstract Property<JlinkPreset> getJlinkPreset();
+
     @Input
     public abstract ListProperty<String> getAddModules();
 
@@ -109,12 +166,115 @@ public abstract class Jpackage extends DefaultTask {
     @Input
     public abstract Property<Boolean> getSingleStepPackaging();
 
+    /**
+     * A runtime image built by another task (see {@link Jlink}). If set, it is used via '--runtime-image'
+     * instead of letting 'jpackage' run 'jlink'. If the image contains the main module, the module path
+     * should be empty. Otherwise, the modules of the module path are added next to the runtime in the image.
+     */
+    @InputDirectory
+    @PathSensitive(PathSensitivity.RELATIVE)
+    @Optional
+    public abstract DirectoryProperty getRuntimeImage();
+
+    /**
+     * An 'app-image' built by another task. If set, packages are created from this image via '--app-image'
+     * instead of building the image as part of this task.
+     */
+    @InputDirectory
+    @PathSensitive(PathSensitivity.RELATIVE)
+    @Optional
+    public abstract DirectoryProperty getAppImage();
+
+    /**
+     * Create an AppCDS archive in a training run of the app-image. The archive is placed next to the
+     * application Jars and used by the launcher via '-XX:SharedArchiveFile'. Requires Java 13 or higher.
+     */
+    @Input
+    public abstract Property<Boolean> getAppCdsArchive();
+
+    /**
+     * Create an AOT cache (JEP 483) in a training run of the app-image. The cache is placed next to the
+     * application Jars and used by the launcher via '-XX:AOTCache'. Requires Java 24 or higher.
+     * The AOT cache replaces the {@link #getAppCdsArchive()}, both cannot be used together.
+     */
+    @Input
+    public abstract Property<Boolean> getAotCache();
+
+    /**
+     * The arguments passed to the application in a training run. The application is expected to terminate
+     * by itself when started with these arguments.
+     */
+    @Input
+    public abstract ListProperty<String> getTrainingArguments();
+
+    /**
+     * The algorithms used to compute checksums for the created packages: 'SHA-256', 'SHA-512', or 'BLAKE3'.
+     * For each package and algorithm, a file with the checksum is written next to the package
+     * (e.g. 'app.deb.sha256'). In addition, a manifest per algorithm lists the checksums of all packages
+     * (e.g. 'SHA256SUMS'). Defaults to 'SHA-256'.
+     */
+    @Input
+    public abstract ListProperty<String> getChecksumAlgorithms();
+
     @Input
     public abstract Property<Boolean> getVerbose();
 
+    /**
+     * Hard-link the {@link #getResources()} and {@link #getTargetResources()} into the image instead of copying
+     * them, if they are on the same file system as the image. Saves time and disk space for large resources.
+     * The resource files must then not be modified in place, as this would also modify the image.
+     * Defaults to 'false'.
+     */
+    @Internal
+    public abstract Property<Boolean> getLinkResources();
+
+    /**
+     * Limits how many packages are built at the same time, by this task and by the other tasks that use the same
+     * service. If the limit is greater than 1, the 'jpackage' calls for the package types of this task are
+     * submitted as parallel work items. If not set, the package types are built one after the other.
+     */
+    @Internal
+    public abstract Property<PackagingPermits> getPackagingPermits();
+
+    /**
+     * How 'deb' and 'rpm' packages are created: 'jpackage' lets 'jpackage' call 'dpkg-deb' or 'rpmbuild'.
+     * 'builtin' writes the packages directly from the app-image, which does not require these tools and
+     * compresses the payload in parallel. The builtin backend supports the '--install-dir',
+     * '--linux-package-name', '--linux-app-release', '--linux-deb-maintainer', '--linux-rpm-license-type',
+     * '--linux-app-category', and '--linux-package-deps' options and ignores other options. It does not add
+     * desktop integration or installation scripts. Other package types are always created by 'jpackage'.
+     * Defaults to 'jpackage'.
+     */
+    @Input
+    public abstract Property<String> getPackagingBackend();
+
+    /**
+     * The compression level of 'deb' and 'rpm' packages and of archives, from 1 (fastest) to 9 (smallest).
+     * If set, 'dpkg-deb' compresses with gzip at this level instead of using its default. 'rpm' packages built by
+     * 'jpackage' are compressed as configured for 'rpmbuild'.
+     * If not set, the packages and archives written by the plugin are compressed with level 9.
+     */
+    @Input
+    @Optional
+    public abstract Property<Integer> getCompressionLevel();
+
+    /**
+     * How many threads compress the payload of packages written by the 'builtin' {@link #getPackagingBackend()}.
+     * The packages do not depend on the number of threads. Defaults to the number of available processors.
+     */
+    @Internal
+    public abstract Property<Integer> getCompressionThreads();
+
     @OutputDirectory
     public abstract DirectoryProperty getDestination();
 
+    /**
+     * A JSON file to which the durations of the individual phases of the task are written when the task runs.
+     * It is not an output of the task, as it describes an execution and not the result.
+     */
+    @Internal
+    public abstract RegularFileProperty getTimingsReport();
+
     /**
      * To copy resources before adding them. This allows resource filtering via Gradle
      * FileCollection and FileTree APIs.
@@ -128,8 +288,108 @@ public abstract class Jpackage extends DefaultTask {
     @Inject
     protected abstract ExecOperations getExec();
 
+    @Inject
+    protected abstract WorkerExecutor getWorkers();
+
+    @Inject
+    protected abstract ProgressLoggerFactory getProgressLoggerFactory();
+
+    public Jpackage() {
+        getChecksumAlgorithms().convention(Collections.singletonList("SHA-256"));
+        getPackagingBackend().convention(JPACKAGE_BACKEND);
+        getCompressionThreads().convention(Runtime.getRuntime().availableProcessors());
+        getAppCdsArchive().convention(false);
+        getAotCache().convention(false);
+        getTrainingArguments().convention(Collections.emptyList());
+        // the archive and the cache depend on the timestamps of the Jars, which change when restored from the cache
+        getOutputs()
+                .doNotCacheIf(
+                        "An AppCDS archive or an AOT cache is created",
+                        t -> getAppCdsArchive().get() || getAotCache().get());
+    }
+
     @TaskAction
-    public void runJpackage() throws Exception {
+    public void runJpackage(InputChanges inputChanges) throws Exception {
+        PhaseTimings timings = new PhaseTimings(getProgressLoggerFactory(), getPath());
+        try {
+            if (inputChanges.isIncremental() && canPatchAppImage()) {
+                timings.run("patch app-image", () -> patchAppImage(inputChanges));
+            } else {
+                runPhases(timings);
+            }
+        } finally {
+            timings.completed();
+            if (getTimingsReport().isPresent()) {
+                timings.writeJson(getTimingsReport().get().getAsFile());
+            }
+        }
+    }
+
+    /**
+     * An existing app-image can be patched if only the application modules (which are not linked into the
+     * runtime image) or the resources changed. Training runs are repeated in a full rebuild, as their results
+     * depend on the application modules.
+     */
+    private boolean canPatchAppImage() {
+        return getRuntimeImage().isPresent()
+                && !getAppImage().isPresent()
+                && getPackageTypes().get().stream().allMatch("app-image"::equals)
+                && !getAppCdsArchive().get()
+                && !getAotCache().get()
+                && getDestination().get().getAsFile().exists()
+                && Arrays.stream(requireNonNull(getDestination().get().getAsFile().listFiles()))
+                        .anyMatch(File::isDirectory);
+    }
+
+    private void patchAppImage(InputChanges inputChanges) {
+        validateHostSystem(getArchitecture().get(), getOperatingSystem().get());
+
+        File appRootFolder = appRootFolder(appImageFolder(getDestination().get()), getOperatingSystem().get());
+        File appFolder = new File(appRootFolder, "app");
+        // 'jpackage' places the modules next to the runtime in the 'mods' folder
+        File modsFolder = new File(appFolder, "mods");
+        for (FileChange change : inputChanges.getFileChanges(getModulePath())) {
+            patch(change, new File(modsFolder, change.getFile().getName()));
+        }
+        for (FileChange change : inputChanges.getFileChanges(getResources())) {
+            patch(change, new File(appFolder, change.getNormalizedPath()));
+        }
+        for (FileChange change : inputChanges.getFileChanges(getTargetResources())) {
+            patch(change, new File(appRootFolder, change.getNormalizedPath()));
+        }
+    }
+
+    private void patch(FileChange change, File target) {
+        getLogger().info("Patching app-image: " + change.getChangeType() + " " + target);
+        try {
+            if (change.getChangeType() == ChangeType.REMOVED) {
+                getFiles().delete(target);
+            } else if (change.getFileType() == FileType.DIRECTORY) {
+                Files.createDirectories(target.toPath());
+            } else {
+                Files.createDirectories(target.getParentFile().toPath());
+                if (getLinkResources().getOrElse(false)) {
+                    FileLinks.linkOrCopyFile(change.getFile().toPath(), target.toPath());
+                } else {
+                    Files.copy(change.getFile().toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private File appRootFolder(File appImageFolder, String os) {
+        if (os.contains("macos")) {
+            return new File(appImageFolder, "Contents");
+        }
+        if (os.contains("windows")) {
+            return appImageFolder;
+        }
+        return new File(appImageFolder, "lib");
+    }
+
+    private void runPhases(PhaseTimings timings) throws Exception {
         getFiles().delete(getTempDirectory());
         getFiles().delete(getDestination());
 
@@ -137,16 +397,26 @@ public abstract class Jpackage extends DefaultTask {
         String arch = getArchitecture().get();
 
         validateHostSystem(arch, os);
+        Checksums.validate(getChecksumAlgorithms().get());
+        validatePackagingBackend();
+
+        // build 'app-image' target if required (either needed for the next step or explicitly requested)
+        // and not provided by another task
+        boolean buildAppImage = !getAppImage().isPresent()
+                && (!getSingleStepPackaging().get() || getPackageTypes().get().contains("app-image"));
+        if (buildAppImage && getAotCache().get()) {
+            validateAotCacheSupport();
+        }
 
         Directory resourcesDir = getTempDirectory().get().dir("jpackage-resources");
         //noinspection ResultOfMethodCallIgnored
         resourcesDir.getAsFile().mkdirs();
 
-        getFiles().copy(c -> {
+        timings.run("copy jpackage resources", () -> getFiles().copy(c -> {
             c.from(getJpackageResources());
             c.into(resourcesDir);
             c.rename(f -> f.replace("icon", getApplicationName().get()));
-        });
+        }));
 
         String executableName = WINDOWS.equals(os) ? "jpackage.exe" : "jpackage";
         String jpackage = getJavaInstallation()
@@ -158,63 +428,345 @@ public abstract class Jpackage extends DefaultTask {
 
         File appContentTmpFolder = getTempDirectory().get().dir("app-content").getAsFile();
 
-        // build 'app-image' target if required (either needed for the next step or explicitly requested)
-        if (!getSingleStepPackaging().get() || getPackageTypes().get().contains("app-image")) {
-            performAppImageStep(jpackage, resourcesDir);
-            File appImageFolder = appImageFolder();
-            File appRootFolder;
-            if (os.contains("macos")) {
-                appRootFolder = new File(appImageFolder, "Contents");
-            } else if (os.contains("windows")) {
-                appRootFolder = appImageFolder;
-            } else {
-                appRootFolder = new File(appImageFolder, "lib");
+        if (buildAppImage) {
+            timings.run("app-image", () -> performAppImageStep(timings, jpackage, resourcesDir));
+            File appImageFolder = appImageFolder(getDestination().get());
+            File appRootFolder = appRootFolder(appImageFolder, os);
+            if (getRuntimeImage().isPresent() && !os.contains("macos")) {
+                timings.run("link runtime into app-image", () -> linkRuntimeImage(appRootFolder));
+            }
+            timings.run("add resources to app-image", () -> copyAdditionalRessourcesToImageFolder(appRootFolder));
+            if (getAotCache().get()) {
+                timings.run("AOT cache training run", () -> createAotCache(timings, appImageFolder, appRootFolder, os));
+            } else if (getAppCdsArchive().get()) {
+                timings.run(
+                        "AppCDS training run",
+                        () -> createAppCdsArchive(timings, appImageFolder, appRootFolder, os));
             }
-            copyAdditionalRessourcesToImageFolder(appRootFolder);
         }
 
         if (getSingleStepPackaging().get()) {
             // an isolated folder which is later inserted via '--app-content' parameter
-            copyAdditionalRessourcesToImageFolder(appContentTmpFolder);
+            timings.run("prepare app-content", () -> copyAdditionalRessourcesToImageFolder(appContentTmpFolder));
         }
 
         // package with additional resources
-        getPackageTypes().get().stream().filter(t -> !"app-image".equals(t)).forEach(packageType -> getExec()
-                .exec(e -> {
-                    e.commandLine(
-                            jpackage,
-                            "--type",
-                            packageType,
-                            "--app-version",
-                            getVersion().get(),
-                            "--dest",
-                            getDestination().get().getAsFile().getPath());
-                    if (getSingleStepPackaging().get()) {
-                        configureJPackageArguments(e, resourcesDir);
-                        if (appContentTmpFolder.exists()) {
-                            for (File appContent : requireNonNull(appContentTmpFolder.listFiles())) {
-                                e.args("--app-content", appContent.getPath());
-                            }
-                        }
-                    } else {
-                        e.args("--app-image", appImageFolder().getPath());
-                    }
-                    for (String option : getOptions().get()) {
-                        e.args(option);
-                    }
-                }));
-
-        generateChecksums();
+        Map<String, List<String>> packageCommandLines = new LinkedHashMap<>();
+        for (String packageType : getPackageTypes().get()) {
+            if (ARCHIVE.equals(packageType)) {
+                timings.run("package " + packageType, () -> withPermit(this::writeArchive));
+            } else if (usesBuiltinBackend(packageType)) {
+                timings.run("package " + packageType, () -> withPermit(() -> writeLinuxPackage(packageType)));
+            } else if (!"app-image".equals(packageType)) {
+                packageCommandLines.put(
+                        packageType, packageCommandLine(jpackage, packageType, resourcesDir, appContentTmpFolder));
+            }
+        }
+        Map<String, String> environment =
+                packageCommandLines.isEmpty() ? Collections.emptyMap() : packageEnvironment();
+        boolean parallel = packageCommandLines.size() > 1
+                && getPackagingPermits().isPresent()
+                && getPackagingPermits().get().getMaxParallelPackageTypes() > 1;
+        if (!parallel) {
+            for (Map.Entry<String, List<String>> commandLine : packageCommandLines.entrySet()) {
+                String packageType = commandLine.getKey();
+                timings.run(
+                        "package " + packageType,
+                        () -> withPermit(() -> exec(
+                                timings,
+                                packageType,
+                                commandLine.getValue(),
+                                Collections.emptyList(),
+                                environment)));
+            }
+        } else {
+            // all package types are submitted at once, each work item waits for a permit before it starts
+            WorkQueue workQueue = getWorkers().noIsolation();
+            List<String> packageTypes = new ArrayList<>(packageCommandLines.keySet());
+            for (String packageType : packageTypes) {
+                workQueue.submit(ExecWorkAction.class, p -> {
+                    p.getCommandLine().set(packageCommandLines.get(packageType));
+                    p.getEnvironment().set(environment);
+                    p.getLabel().set(packageType);
+                    p.getTimestampedOutput().set(getVerbose().get());
+                    p.getStartNanos().set(timings.getStartNanos());
+                    p.getDurationFile().set(new File(getTemporaryDir(), packageType + ".duration"));
+                    p.getPermits().set(getPackagingPermits());
+                });
+            }
+            timings.run("package " + String.join(", ", packageTypes) + " (parallel)", workQueue::await);
+            for (String packageType : packageTypes) {
+                File durationFile = new File(getTemporaryDir(), packageType + ".duration");
+                String[] duration = new String(Files.readAllBytes(durationFile.toPath()), StandardCharsets.UTF_8)
+                        .trim()
+                        .split(" ");
+                timings.record(
+                        "package " + packageType,
+                        timings.getStartNanos() + Long.parseLong(duration[0]),
+                        Long.parseLong(duration[1]));
+            }
+        }
+
+        if (!getChecksumAlgorithms().get().isEmpty()) {
+            timings.run("checksums", this::generateChecksums);
+        }
+    }
+
+    private void withPermit(PhaseTimings.Phase action) throws Exception {
+        if (!getPackagingPermits().isPresent()) {
+            action.run();
+            return;
+        }
+        PackagingPermits permits = getPackagingPermits().get();
+        permits.acquire();
+        try {
+            action.run();
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void validatePackagingBackend() {
+        String backend = getPackagingBackend().get();
+        if (!JPACKAGE_BACKEND.equals(backend) && !BUILTIN_BACKEND.equals(backend)) {
+            throw new RuntimeException("Unsupported packaging backend '" + backend + "'. Supported: "
+                    + JPACKAGE_BACKEND + ", " + BUILTIN_BACKEND);
+        }
+        if (BUILTIN_BACKEND.equals(backend)
+                && getSingleStepPackaging().get()
+                && getPackageTypes().get().stream().anyMatch(BUILTIN_PACKAGE_TYPES::contains)) {
+            throw new RuntimeException("The '" + BUILTIN_BACKEND + "' packaging backend requires an app-image"
+                    + " and cannot be used with single step packaging");
+        }
+        if (getSingleStepPackaging().get() && getPackageTypes().get().contains(ARCHIVE)) {
+            throw new RuntimeException(
+                    "The '" + ARCHIVE + "' package type requires an app-image and cannot be used with single step"
+                            + " packaging");
+        }
+    }
+
+    private boolean usesBuiltinBackend(String packageType) {
+        return BUILTIN_BACKEND.equals(getPackagingBackend().get()) && BUILTIN_PACKAGE_TYPES.contains(packageType);
+    }
+
+    /**
+     * Writes a 'deb' or 'rpm' package from the app-image, with the defaults 'jpackage' uses for the package
+     * name, the installation folder, and the file name.
+     */
+    private void writeLinuxPackage(String packageType) throws IOException {
+        File appImageFolder = appImageFolder(getAppImage().orElse(getDestination()).get());
+        String defaultName = getApplicationName().get().toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9+.-]", "-");
+        String packageName = optionValue("--linux-package-name", defaultName);
+        String vendor = getVendor().getOrElse("Unknown");
+        String email = optionValue("--linux-deb-maintainer", "");
+        LinuxPackageWriter writer = new LinuxPackageWriter(
+                appImageFolder.toPath(),
+                optionValue("--install-dir", "/opt") + "/" + packageName,
+                packageName,
+                getVersion().get(),
+                optionValue("--linux-app-release", "1"),
+                getArchitecture().get(),
+                getApplicationDescription().getOrElse(getApplicationName().get()),
+                email.isEmpty() ? vendor : vendor + " <" + email + ">",
+                optionValue("--linux-rpm-license-type", "Unknown"),
+                optionValue("--linux-app-category", "deb".equals(packageType) ? "misc" : "Unspecified"),
+                Arrays.stream(optionValue("--linux-package-deps", "").split(","))
+                        .map(String::trim)
+                        .filter(d -> !d.isEmpty())
+                        .collect(Collectors.toList()));
+
+        File destination = new File(getDestination().get().getAsFile(), writer.fileName(packageType));
+        //noinspection ResultOfMethodCallIgnored
+        destination.getParentFile().mkdirs();
+        int threads = getCompressionThreads().get();
+        ExecutorService compression = Executors.newFixedThreadPool(threads);
+        try {
+            if ("deb".equals(packageType)) {
+                writer.writeDeb(destination, compressionLevel(), compression, threads);
+            } else {
+                writer.writeRpm(destination, compressionLevel(), compression, threads);
+            }
+        } finally {
+            compression.shutdownNow();
+        }
+        getLogger().info("Wrote {}", destination);
+    }
+
+    /**
+     * Writes the app-image as a gzip-compressed tar, named like the 'application-version.tar.gz'. The files are
+     * streamed from the image into the archive, which is compressed in parallel. The checksums are computed
+     * while the archive is written.
+     */
+    private void writeArchive() throws IOException {
+        File appImageFolder = appImageFolder(getAppImage().orElse(getDestination()).get());
+        File archive = new File(
+                getDestination().get().getAsFile(),
+                getApplicationName().get() + "-" + getVersion().get() + ".tar.gz");
+        //noinspection ResultOfMethodCallIgnored
+        archive.getParentFile().mkdirs();
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(appImageFolder.toPath())) {
+            files = walk.sorted().collect(Collectors.toList());
+        }
+        int threads = getCompressionThreads().get();
+        ExecutorService compression = Executors.newFixedThreadPool(threads);
+        try (TarWriter tar = new TarWriter(
+                new ParallelGzipOutputStream(
+                        Checksums.writing(
+                                archive,
+                                new BufferedOutputStream(Files.newOutputStream(archive.toPath()), 64 * 1024),
+                                getChecksumAlgorithms().get()),
+                        compressionLevel(),
+                        compression,
+                        threads),
+                0)) {
+            for (Path file : files) {
+                String name = appImageFolder.getName() + "/"
+                        + appImageFolder.toPath().relativize(file).toString().replace(File.separatorChar, '/');
+                if (Files.isSymbolicLink(file)) {
+                    tar.symbolicLink(name, Files.readSymbolicLink(file).toString());
+                } else if (Files.isDirectory(file)) {
+                    tar.directory(name.endsWith("/") ? name.substring(0, name.length() - 1) : name);
+                } else {
+                    int mode = Files.isExecutable(file) ? TarWriter.EXECUTABLE_MODE : TarWriter.FILE_MODE;
+                    tar.file(name, mode, file);
+                }
+            }
+        } finally {
+            compression.shutdownNow();
+        }
+        getLogger().info("Wrote {}", archive);
+    }
+
+    private int compressionLevel() {
+        int level = getCompressionLevel().getOrElse(Deflater.BEST_COMPRESSION);
+        if (level < 1 || level > 9) {
+            throw new RuntimeException("Unsupported compression level " + level + ". Supported: 1 to 9");
+        }
+        return level;
+    }
+
+    private String optionValue(String option, String defaultValue) {
+        List<String> options = getOptions().get();
+        for (int i = 0; i < options.size(); i++) {
+            if (options.get(i).equals(option) && i + 1 < options.size()) {
+                return options.get(i + 1);
+            }
+            if (options.get(i).startsWith(option + "=")) {
+                return options.get(i).substring(option.length() + 1);
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * The environment in which 'jpackage' builds packages. If a {@link #getCompressionLevel()} is set, it is passed
+     * to 'dpkg-deb' via its environment variables. 'rpmbuild' only reads the level from its macro files, which
+     * cannot be changed for a single build, so 'rpm' packages built by 'jpackage' keep their default compression.
+     */
+    private Map<String, String> packageEnvironment() {
+        if (!getCompressionLevel().isPresent() || !"linux".equals(getOperatingSystem().get())) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> environment = new LinkedHashMap<>();
+        environment.put("DPKG_DEB_COMPRESSOR_TYPE", "gzip");
+        environment.put("DPKG_DEB_COMPRESSOR_LEVEL", Integer.toString(getCompressionLevel().get()));
+        return environment;
+    }
+
+    private void exec(PhaseTimings timings, String label, List<String> commandLine) {
+        exec(timings, label, commandLine, Collections.emptyList());
     }
 
-    private File appImageFolder() {
-        return Arrays.stream(requireNonNull(getDestination().get().getAsFile().listFiles()))
+    private void exec(PhaseTimings timings, String label, List<String> commandLine, List<String> args) {
+        exec(timings, label, commandLine, args, Collections.emptyMap());
+    }
+
+    private void exec(
+            PhaseTimings timings,
+            String label,
+            List<String> commandLine,
+            List<String> args,
+            Map<String, String> environment) {
+        if (!getVerbose().get()) {
+            getExec().exec(e -> {
+                e.commandLine(commandLine);
+                e.args(args);
+                e.environment(environment);
+            });
+            return;
+        }
+        try (TimestampedOutputStream out =
+                        new TimestampedOutputStream(getLogger(), timings.getStartNanos(), label);
+                TimestampedOutputStream err =
+                        new TimestampedOutputStream(getLogger(), timings.getStartNanos(), label)) {
+            getExec().exec(e -> {
+                e.commandLine(commandLine);
+                e.args(args);
+                e.environment(environment);
+                e.setStandardOutput(out);
+                e.setErrorOutput(err);
+            });
+        }
+    }
+
+    private List<String> packageCommandLine(
+            String jpackage, String packageType, Directory resourcesDir, File appContentTmpFolder) {
+        List<String> commandLine = new ArrayList<>();
+        Collections.addAll(
+                commandLine,
+                jpackage,
+                "--type",
+                packageType,
+                "--app-version",
+                getVersion().get(),
+                "--dest",
+                getDestination().get().getAsFile().getPath());
+        if (getSingleStepPackaging().get()) {
+            configureJPackageArguments(commandLine, resourcesDir);
+            if (appContentTmpFolder.exists()) {
+                for (File appContent : requireNonNull(appContentTmpFolder.listFiles())) {
+                    Collections.addAll(commandLine, "--app-content", appContent.getPath());
+                }
+            }
+        } else {
+            Collections.addAll(
+                    commandLine,
+                    "--app-image",
+                    appImageFolder(getAppImage().orElse(getDestination()).get())
+                            .getPath());
+            if (getVerbose().get()) {
+                commandLine.add("--verbose");
+            }
+        }
+        commandLine.addAll(getOptions().get());
+        return commandLine;
+    }
+
+    private File appImageFolder(Directory imageDestination) {
+        return Arrays.stream(requireNonNull(imageDestination.getAsFile().listFiles()))
                 .filter(File::isDirectory)
                 .findFirst()
                 .get();
     }
 
+    /**
+     * Replaces the copy of the {@link #getRuntimeImage()} that 'jpackage' places in the app-image by links to its
+     * files. With 'shareRuntimeImages', the app-images of all projects then share the files of the stored image.
+     * On macOS, the runtime is kept as copied, as 'jpackage' signs it.
+     */
+    private void linkRuntimeImage(File appRootFolder) {
+        FileLinks.relinkTree(
+                getRuntimeImage().get().getAsFile().toPath(),
+                new File(appRootFolder, "runtime").toPath());
+    }
+
     private void copyAdditionalRessourcesToImageFolder(File appRootFolder) {
+        if (getLinkResources().getOrElse(false)) {
+            FileLinks.linkOrCopy(getTargetResources(), appRootFolder);
+            FileLinks.linkOrCopy(getResources(), new File(appRootFolder, "app"));
+            return;
+        }
         // copy additional resource into the app-image folder
         getFiles().copy(c -> {
             c.into(appRootFolder);
@@ -223,53 +775,162 @@ public abstract class Jpackage extends DefaultTask {
         });
     }
 
-    private void performAppImageStep(String jpackage, Directory resourcesDir) {
-        getExec().exec(e -> {
-            e.commandLine(
-                    jpackage,
-                    "--type",
-                    "app-image",
-                    "--dest",
-                    getDestination().get().getAsFile().getPath());
-            configureJPackageArguments(e, resourcesDir);
-            for (String option : getAppImageOptions().get()) {
-                e.args(option);
+    private void validateAotCacheSupport() {
+        int javaVersion = getJavaInstallation().get().getLanguageVersion().asInt();
+        if (javaVersion < 24) {
+            throw new RuntimeException(
+                    "An AOT cache requires Java 24 or higher, but the image is built with Java " + javaVersion);
+        }
+        if (getAppCdsArchive().get()) {
+            throw new RuntimeException("An AOT cache cannot be combined with an AppCDS archive");
+        }
+    }
+
+    private void createAotCache(PhaseTimings timings, File appImageFolder, File appRootFolder, String os) {
+        String name = getApplicationName().get();
+        File launcher = launcher(appImageFolder, os);
+        File appFolder = new File(appRootFolder, "app");
+        File cache = new File(appFolder, name + ".aot");
+        File aotConfiguration = new File(getTemporaryDir(), name + ".aotconf");
+        LauncherConfig config = new LauncherConfig(new File(appFolder, name + ".cfg"));
+
+        try {
+            // record what the application does in a training run
+            config.withJavaOptions(Arrays.asList(
+                    "-XX:AOTMode=record", "-XX:AOTConfiguration=" + aotConfiguration.getAbsolutePath()));
+            exec(timings,
+                    "training",
+                    Collections.singletonList(launcher.getPath()),
+                    getTrainingArguments().get());
+            // create the cache from the recording - this does not run the application
+            config.withJavaOptions(Arrays.asList(
+                    "-XX:AOTMode=create",
+                    "-XX:AOTConfiguration=" + aotConfiguration.getAbsolutePath(),
+                    "-XX:AOTCache=" + cache.getAbsolutePath()));
+            exec(timings, "training", Collections.singletonList(launcher.getPath()));
+        } finally {
+            config.restore();
+        }
+        config.withJavaOptions(Collections.singletonList("-XX:AOTCache=$APPDIR/" + cache.getName()));
+    }
+
+    private void createAppCdsArchive(PhaseTimings timings, File appImageFolder, File appRootFolder, String os) {
+        String name = getApplicationName().get();
+        File launcher = launcher(appImageFolder, os);
+        File appFolder = new File(appRootFolder, "app");
+        File archive = new File(appFolder, name + ".jsa");
+        LauncherConfig config = new LauncherConfig(new File(appFolder, name + ".cfg"));
+
+        try {
+            // The application archive builds on the base archive of the runtime that 'jlink' does not create
+            if (!containsBaseArchive(new File(appRootFolder, "runtime"))) {
+                config.withJavaOptions(Arrays.asList("-Xshare:dump", "-Xlog:cds=error"));
+                exec(timings, "training", Collections.singletonList(launcher.getPath()));
             }
-        });
+            config.withJavaOptions(
+                    Collections.singletonList("-XX:ArchiveClassesAtExit=" + archive.getAbsolutePath()));
+            exec(timings,
+                    "training",
+                    Collections.singletonList(launcher.getPath()),
+                    getTrainingArguments().get());
+        } finally {
+            config.restore();
+        }
+        config.withJavaOptions(Collections.singletonList("-XX:SharedArchiveFile=$APPDIR/" + archive.getName()));
+    }
+
+    private File launcher(File appImageFolder, String os) {
+        String name = getApplicationName().get();
+        if (os.contains("macos")) {
+            return new File(appImageFolder, "Contents/MacOS/" + name);
+        }
+        if (os.contains("windows")) {
+            return new File(appImageFolder, name + ".exe");
+        }
+        return new File(appImageFolder, "bin/" + name);
+    }
+
+    private boolean containsBaseArchive(File runtimeFolder) {
+        try (Stream<Path> files = Files.walk(runtimeFolder.toPath())) {
+            return files.anyMatch(f -> f.getFileName().toString().equals("classes.jsa"));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void performAppImageStep(PhaseTimings timings, String jpackage, Directory resourcesDir) {
+        List<String> commandLine = new ArrayList<>();
+        Collections.addAll(
+                commandLine,
+                jpackage,
+                "--type",
+                "app-image",
+                "--dest",
+                getDestination().get().getAsFile().getPath());
+        configureJPackageArguments(commandLine, resourcesDir);
+        commandLine.addAll(getAppImageOptions().get());
+        exec(timings, "app-image", commandLine);
     }
 
-    private void configureJPackageArguments(ExecSpec e, Directory resourcesDir) {
-        String argsFile = createArgsFile(getModulePath().getAsPath());
-        e.args(
+    private void configureJPackageArguments(List<String> args, Directory resourcesDir) {
+        Collections.addAll(
+                args,
                 "--module",
-                getMainModule().get(),
+                getMainClass().isPresent()
+                        ? getMainModule().get() + "/" + getMainClass().get()
+                        : getMainModule().get(),
                 "--resource-dir",
                 resourcesDir.getAsFile().getPath(),
                 "--app-version",
                 getVersion().get(),
-                argsFile,
                 "--name",
                 getApplicationName().get());
+        if (getRuntimeImage().isPresent()) {
+            Collections.addAll(
+                    args, "--runtime-image", getRuntimeImage().get().getAsFile().getPath());
+        }
+        if (!getRuntimeImage().isPresent()) {
+            args.add(createArgsFile(getModulePath().getAsPath()));
+        } else if (!getModulePath().isEmpty()) {
+            // Together with '--runtime-image', 'jpackage' copies the module path entries into the image.
+            // This only works for folders. Hence, collect all modules in one folder.
+            File modulesDir = getTempDirectory().get().dir("modules").getAsFile();
+            getFiles().copy(c -> {
+                c.from(getModulePath());
+                c.into(modulesDir);
+            });
+            args.add(createArgsFile(modulesDir.getPath()));
+        }
         if (getApplicationDescription().isPresent()) {
-            e.args("--description", getApplicationDescription().get());
+            Collections.addAll(args, "--description", getApplicationDescription().get());
         }
         if (getVendor().isPresent()) {
-            e.args("--vendor", getVendor().get());
+            Collections.addAll(args, "--vendor", getVendor().get());
         }
         if (getCopyright().isPresent()) {
-            e.args("--copyright", getCopyright().get());
+            Collections.addAll(args, "--copyright", getCopyright().get());
         }
         for (String javaOption : getJavaOptions().get()) {
-            e.args("--java-options", javaOption);
-        }
-        for (String javaOption : getJlinkOptions().get()) {
-            e.args("--jlink-options", javaOption);
+            Collections.addAll(args, "--java-options", javaOption);
         }
-        if (!getAddModules().get().isEmpty()) {
-            e.args("--add-modules", String.join(",", getAddModules().get()));
+        if (!getRuntimeImage().isPresent()) {
+            List<String> jlinkOptions = getJlinkOptions().get();
+            if (getJlinkPreset().isPresent()) {
+                jlinkOptions = getJlinkPreset()
+                        .get()
+                        .addTo(
+                                jlinkOptions.isEmpty() ? Jlink.DEFAULT_JLINK_OPTIONS : jlinkOptions,
+                                getJavaInstallation().get().getLanguageVersion().asInt());
+            }
+            for (String javaOption : jlinkOptions) {
+                Collections.addAll(args, "--jlink-options", javaOption);
+            }
+            if (!getAddModules().get().isEmpty()) {
+                Collections.addAll(args, "--add-modules", String.join(",", getAddModules().get()));
+            }
         }
         if (getVerbose().get()) {
-            e.args("--verbose");
+            args.add("--verbose");
         }
     }
 
@@ -285,29 +946,22 @@ public abstract class Jpackage extends DefaultTask {
         return "@" + argsFile;
     }
 
-    private void generateChecksums() throws NoSuchAlgorithmException, IOException {
+    private void generateChecksums() {
         File destination = getDestination().get().getAsFile();
+        // packages written by this task may already have their checksums, which were computed while writing them
         List<File> allFiles = Arrays.stream(requireNonNull(destination.listFiles()))
                 .filter(File::isFile)
+                .filter(f -> !Checksums.isWritten(f, getChecksumAlgorithms().get()))
                 .collect(Collectors.toList());
+        // each file is read once for all algorithms, and several files are read in parallel
+        WorkQueue workQueue = getWorkers().noIsolation();
         for (File result : allFiles) {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] encoded = digest.digest(Files.readAllBytes(result.toPath()));
-            Files.write(
-                    new File(destination, result.getName() + ".sha256").toPath(),
-                    bytesToHex(encoded).getBytes());
-        }
-    }
-
-    private String bytesToHex(byte[] hash) {
-        StringBuilder hexString = new StringBuilder(2 * hash.length);
-        for (byte b : hash) {
-            String hex = Integer.toHexString(0xff & b);
-            if (hex.length() == 1) {
-                hexString.append('0');
-            }
-            hexString.append(hex);
+            workQueue.submit(ChecksumWorkAction.class, p -> {
+                p.getFile().set(result);
+                p.getAlgorithms().set(getChecksumAlgorithms());
+            });
         }
-        return hexString.toString();
+        workQueue.await();
+        Checksums.writeManifests(destination);
     }
 }
@@ -0,0 +1,415 @@
+// SPDX-License-Identifier: Apache-2.0
+package org.gradlex.javamodule.packaging.tasks;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.requireNonNull;
+import static org.gradle.nativeplatform.MachineArchitecture.ARM64;
+import static org.gradle.nativeplatform.MachineArchitecture.X86_64;
+import static org.gradle.nativeplatform.OperatingSystemFamily.LINUX;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputDirectory;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+import org.gradlex.javamodule.packaging.internal.Json;
+import org.gradlex.javamodule.packaging.internal.TarWriter;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Writes a container image in the OCI image layout, as a tar archive, without a container engine. The image
+ * consists of three layers, on top of the layers of the {@link #getBaseImage()}:
+ * <ol>
+ *   <li>the runtime image that contains only JDK modules, in '/opt/[name]/runtime'</li>
+ *   <li>the third-party modules, in '/opt/[name]/modules/lib'</li>
+ *   <li>the application modules, in '/opt/[name]/modules/app', and the resources in '/opt/[name]/app' – as in an
+ *       app-image – and '/opt/[name]'</li>
+ * </ol>
+ * The layers are reproducible: entries are sorted and have a constant timestamp and owner. A layer that did not
+ * change therefore has the same digest as before, and registries and container engines do not transfer it again.
+ * <p>
+ * The image can be loaded with tools like 'podman load', 'skopeo copy oci-archive:...', or 'crane push'.
+ */
+@NullMarked
+@CacheableTask
+public abstract class OciImage extends DefaultTask {
+
+    private static final String LAYOUT_VERSION = "{\"imageLayoutVersion\":\"1.0.0\"}";
+    private static final String INDEX_MEDIA_TYPE = "application/vnd.oci.image.index.v1+json";
+    private static final String MANIFEST_MEDIA_TYPE = "application/vnd.oci.image.manifest.v1+json";
+    private static final String CONFIG_MEDIA_TYPE = "application/vnd.oci.image.config.v1+json";
+    private static final String LAYER_MEDIA_TYPE = "application/vnd.oci.image.layer.v1.tar+gzip";
+    private static final String DEFAULT_PATH = "PATH=/usr/local/sbin:/usr/local/bin:/usr/sbin:/usr/bin:/sbin:/bin";
+
+    @Input
+    public abstract Property<String> getOperatingSystem();
+
+    @Input
+    public abstract Property<String> getArchitecture();
+
+    @Input
+    public abstract Property<String> getApplicationName();
+
+    @Input
+    public abstract Property<String> getVersion();
+
+    @Input
+    public abstract Property<String> getMainModule();
+
+    @Input
+    @Optional
+    public abstract Property<String> getMainClass();
+
+    @Input
+    public abstract ListProperty<String> getJavaOptions();
+
+    /**
+     * A runtime image that only contains JDK modules (see {@link Jlink#getJdkModulesOnly()}). It is the bottom
+     * layer, which rarely changes.
+     */
+    @InputDirectory
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public abstract DirectoryProperty getRuntimeImage();
+
+    /**
+     * The third-party modules – by default, the modules from repositories on the runtime classpath.
+     */
+    @InputFiles
+    @PathSensitive(PathSensitivity.NAME_ONLY)
+    public abstract ConfigurableFileCollection getLibraryModules();
+
+    /**
+     * The modules of the application itself – by default, the Jar of the project and of other projects it depends on.
+     */
+    @InputFiles
+    @PathSensitive(PathSensitivity.NAME_ONLY)
+    public abstract ConfigurableFileCollection getApplicationModules();
+
+    @InputFiles
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public abstract ConfigurableFileCollection getResources();
+
+    @InputFiles
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public abstract ConfigurableFileCollection getTargetResources();
+
+    /**
+     * An image in the OCI image layout (a folder with 'index.json'), e.g. exported with
+     * 'skopeo copy docker://debian:stable-slim oci:base-image'. Its layers are reused as they are. Without a base
+     * image, the image only contains the layers of the application – the runtime then needs to be linked for a
+     * 'libc' that the image provides otherwise, as it has no operating system files.
+     */
+    @InputDirectory
+    @PathSensitive(PathSensitivity.RELATIVE)
+    @Optional
+    public abstract DirectoryProperty getBaseImage();
+
+    /**
+     * The tar archive with the image in the OCI image layout. The image is tagged with {@link #getVersion()}.
+     */
+    @OutputFile
+    public abstract RegularFileProperty getImage();
+
+    private static final class Blob {
+        final String mediaType;
+        final String digest;
+        final long size;
+        final Path file;
+
+        Blob(String mediaType, String digest, long size, Path file) {
+            this.mediaType = mediaType;
+            this.digest = digest;
+            this.size = size;
+            this.file = file;
+        }
+
+        String descriptor() {
+            return "{\"mediaType\":" + Json.string(mediaType) + ",\"digest\":" + Json.string(digest) + ",\"size\":"
+                    + size + "}";
+        }
+    }
+
+    @TaskAction
+    public void writeImage() {
+        if (!LINUX.equals(getOperatingSystem().get())) {
+            throw new RuntimeException("Container images can only be created for 'linux' targets, not for '"
+                    + getOperatingSystem().get() + "'");
+        }
+        String root = "opt/" + getApplicationName().get();
+        File tmp = getTemporaryDir();
+        try {
+            List<Blob> layers = new ArrayList<>();
+            List<String> diffIds = new ArrayList<>();
+            List<String> env = new ArrayList<>();
+            @Nullable BaseImage base = getBaseImage().isPresent() ? readBaseImage() : null;
+            if (base != null) {
+                layers.addAll(base.layers);
+                diffIds.addAll(base.diffIds);
+                env.addAll(base.env);
+            } else {
+                env.add(DEFAULT_PATH);
+            }
+            env.removeIf(variable -> variable.startsWith("JAVA_HOME="));
+            env.add("JAVA_HOME=/" + root + "/runtime");
+
+            Map<String, Path> runtime = new TreeMap<>();
+            addFiles(runtime, root + "/runtime", getRuntimeImage().get().getAsFile().toPath());
+            writeLayer(runtime, new File(tmp, "runtime.tar.gz"), layers, diffIds);
+
+            Map<String, Path> libraries = new TreeMap<>();
+            for (File module : getLibraryModules()) {
+                libraries.put(root + "/modules/lib/" + module.getName(), module.toPath());
+            }
+            writeLayer(libraries, new File(tmp, "libraries.tar.gz"), layers, diffIds);
+
+            Map<String, Path> application = new TreeMap<>();
+            for (File module : getApplicationModules()) {
+                application.put(root + "/modules/app/" + module.getName(), module.toPath());
+            }
+            for (File resource : getTargetResources()) {
+                addFiles(application, root, resource.toPath());
+            }
+            for (File resource : getResources()) {
+                // 'app' is the folder resources are placed in in an app-image
+                addFiles(application, root + "/app", resource.toPath());
+            }
+            writeLayer(application, new File(tmp, "application.tar.gz"), layers, diffIds);
+
+            Blob config = writeBlob(CONFIG_MEDIA_TYPE, new File(tmp, "config.json"), config(root, env, diffIds));
+            Blob manifest = writeBlob(MANIFEST_MEDIA_TYPE, new File(tmp, "manifest.json"), manifest(config, layers));
+
+            List<Blob> blobs = new ArrayList<>(layers);
+            blobs.add(config);
+            blobs.add(manifest);
+            writeLayout(manifest, blobs);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private String config(String root, List<String> env, List<String> diffIds) {
+        List<String> entrypoint = new ArrayList<>();
+        entrypoint.add("/" + root + "/runtime/bin/java");
+        entrypoint.addAll(getJavaOptions().get());
+        entrypoint.add("--module-path");
+        entrypoint.add("/" + root + "/modules/app:/" + root + "/modules/lib");
+        entrypoint.add("--module");
+        entrypoint.add(getMainModule().get() + (getMainClass().isPresent() ? "/" + getMainClass().get() : ""));
+        return "{\"architecture\":" + Json.string(architecture()) + ",\"os\":\"linux\",\"config\":{\"Env\":"
+                + array(env) + ",\"Entrypoint\":" + array(entrypoint) + ",\"WorkingDir\":" + Json.string("/" + root)
+                + ",\"Labels\":{\"org.opencontainers.image.title\":" + Json.string(getApplicationName().get())
+                + ",\"org.opencontainers.image.version\":" + Json.string(getVersion().get())
+                + "}},\"rootfs\":{\"type\":\"layers\",\"diff_ids\":" + array(diffIds) + "}}";
+    }
+
+    private String manifest(Blob config, List<Blob> layers) {
+        return "{\"schemaVersion\":2,\"mediaType\":" + Json.string(MANIFEST_MEDIA_TYPE) + ",\"config\":"
+                + config.descriptor() + ",\"layers\":["
+                + layers.stream().map(Blob::descriptor).collect(Collectors.joining(",")) + "]}";
+    }
+
+    private void writeLayout(Blob manifest, List<Blob> blobs) throws IOException {
+        String index = "{\"schemaVersion\":2,\"mediaType\":" + Json.string(INDEX_MEDIA_TYPE) + ",\"manifests\":[{"
+                + "\"mediaType\":" + Json.string(manifest.mediaType) + ",\"digest\":" + Json.string(manifest.digest)
+                + ",\"size\":" + manifest.size + ",\"platform\":{\"architecture\":" + Json.string(architecture())
+                + ",\"os\":\"linux\"},\"annotations\":{\"org.opencontainers.image.ref.name\":"
+                + Json.string(getVersion().get()) + "}}]}";
+        File image = getImage().get().getAsFile();
+        Files.createDirectories(image.toPath().getParent());
+        try (TarWriter tar = new TarWriter(Files.newOutputStream(image.toPath()), 0)) {
+            tar.file("oci-layout", TarWriter.FILE_MODE, LAYOUT_VERSION.getBytes(UTF_8));
+            tar.file("index.json", TarWriter.FILE_MODE, index.getBytes(UTF_8));
+            Map<String, Path> sorted = new TreeMap<>();
+            for (Blob blob : blobs) {
+                sorted.put(blobPath(blob.digest), blob.file);
+            }
+            for (Map.Entry<String, Path> blob : sorted.entrySet()) {
+                tar.file(blob.getKey(), TarWriter.FILE_MODE, blob.getValue());
+            }
+        }
+    }
+
+    /**
+     * Writes the files as a gzip-compressed tar and adds the layer and the digest of the uncompressed tar.
+     */
+    private void writeLayer(Map<String, Path> files, File layer, List<Blob> layers, List<String> diffIds)
+            throws IOException {
+        MessageDigest compressed = sha256();
+        MessageDigest uncompressed = sha256();
+        try (OutputStream file = Files.newOutputStream(layer.toPath());
+                DigestOutputStream compressedOut = new DigestOutputStream(file, compressed);
+                GZIPOutputStream gzip = new GZIPOutputStream(compressedOut, 64 * 1024);
+                TarWriter tar = new TarWriter(new DigestOutputStream(gzip, uncompressed), 0)) {
+            for (Map.Entry<String, Path> entry : files.entrySet()) {
+                Path path = entry.getValue();
+                if (Files.isDirectory(path)) {
+                    tar.directory(entry.getKey());
+                } else {
+                    int mode = Files.isExecutable(path) ? TarWriter.EXECUTABLE_MODE : TarWriter.FILE_MODE;
+                    tar.file(entry.getKey(), mode, path);
+                }
+            }
+        }
+        layers.add(new Blob(LAYER_MEDIA_TYPE, digest(compressed), layer.length(), layer.toPath()));
+        diffIds.add(digest(uncompressed));
+    }
+
+    private Blob writeBlob(String mediaType, File file, String json) throws IOException {
+        byte[] content = json.getBytes(UTF_8);
+        Files.write(file.toPath(), content);
+        return new Blob(mediaType, digest(sha256().digest(content)), content.length, file.toPath());
+    }
+
+    /**
+     * Adds the files of the folder, including empty folders, or the file itself to the entries in 'target'.
+     */
+    private static void addFiles(Map<String, Path> entries, String target, Path fileOrFolder) throws IOException {
+        if (!Files.isDirectory(fileOrFolder)) {
+            entries.put(target + "/" + fileOrFolder.getFileName(), fileOrFolder);
+            return;
+        }
+        try (Stream<Path> walk = Files.walk(fileOrFolder)) {
+            for (Path path : (Iterable<Path>) walk::iterator) {
+                String relative = fileOrFolder.relativize(path).toString().replace(File.separatorChar, '/');
+                if (!relative.isEmpty()) {
+                    entries.put(target + "/" + relative, path);
+                }
+            }
+        }
+    }
+
+    private static final class BaseImage {
+        final List<Blob> layers = new ArrayList<>();
+        final List<String> diffIds = new ArrayList<>();
+        final List<String> env = new ArrayList<>();
+    }
+
+    /**
+     * Reads the manifest for the platform of the target, and its config, from the base image.
+     */
+    @SuppressWarnings("unchecked")
+    private BaseImage readBaseImage() throws IOException {
+        Path layout = getBaseImage().get().getAsFile().toPath();
+        Map<String, Object> index = readJson(layout.resolve("index.json"));
+        @Nullable Map<String, Object> manifestDescriptor = null;
+        while (manifestDescriptor == null || INDEX_MEDIA_TYPE.equals(manifestDescriptor.get("mediaType"))) {
+            if (manifestDescriptor != null) {
+                index = readJson(layout.resolve(blobPath((String) manifestDescriptor.get("digest"))));
+            }
+            manifestDescriptor = null;
+            for (Object candidate : (List<Object>) requireNonNull(index.get("manifests"))) {
+                Map<String, Object> descriptor = (Map<String, Object>) candidate;
+                @Nullable Map<String, Object> platform = (Map<String, Object>) descriptor.get("platform");
+                if (platform == null
+                        || ("linux".equals(platform.get("os"))
+                                && architecture().equals(platform.get("architecture")))) {
+                    manifestDescriptor = descriptor;
+                    break;
+                }
+            }
+            if (manifestDescriptor == null) {
+                throw new RuntimeException(
+                        "The base image " + layout + " has no image for 'linux/" + architecture() + "'");
+            }
+        }
+        Map<String, Object> manifest = readJson(layout.resolve(blobPath((String) manifestDescriptor.get("digest"))));
+        Map<String, Object> configDescriptor = (Map<String, Object>) requireNonNull(manifest.get("config"));
+        Map<String, Object> config = readJson(layout.resolve(blobPath((String) configDescriptor.get("digest"))));
+
+        BaseImage base = new BaseImage();
+        for (Object layer : (List<Object>) requireNonNull(manifest.get("layers"))) {
+            Map<String, Object> descriptor = (Map<String, Object>) layer;
+            String digest = (String) requireNonNull(descriptor.get("digest"));
+            base.layers.add(new Blob(
+                    (String) requireNonNull(descriptor.get("mediaType")),
+                    digest,
+                    ((Number) requireNonNull(descriptor.get("size"))).longValue(),
+                    layout.resolve(blobPath(digest))));
+        }
+        Map<String, Object> rootfs = (Map<String, Object>) requireNonNull(config.get("rootfs"));
+        for (Object diffId : (List<Object>) requireNonNull(rootfs.get("diff_ids"))) {
+            base.diffIds.add((String) diffId);
+        }
+        @Nullable Map<String, Object> containerConfig = (Map<String, Object>) config.get("config");
+        @Nullable List<Object> env = containerConfig == null ? null : (List<Object>) containerConfig.get("Env");
+        if (env != null) {
+            for (Object variable : env) {
+                base.env.add((String) variable);
+            }
+        }
+        return base;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> readJson(Path file) throws IOException {
+        return (Map<String, Object>) requireNonNull(Json.parse(new String(Files.readAllBytes(file), UTF_8)));
+    }
+
+    /**
+     * The architecture as named in OCI images.
+     */
+    private String architecture() {
+        String architecture = getArchitecture().get();
+        if (X86_64.equals(architecture)) {
+            return "amd64";
+        }
+        if (ARM64.equals(architecture)) {
+            return "arm64";
+        }
+        return architecture;
+    }
+
+    private static String blobPath(String digest) {
+        return "blobs/" + digest.replace(':', '/');
+    }
+
+    private static String array(List<String> values) {
+        return values.stream().map(Json::string).collect(Collectors.joining(",", "[", "]"));
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String digest(MessageDigest digest) {
+        return digest(digest.digest());
+    }
+
+    private static String digest(byte[] hash) {
+        StringBuilder hex = new StringBuilder("sha256:");
+        for (byte b : hash) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
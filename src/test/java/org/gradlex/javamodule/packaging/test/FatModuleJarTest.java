@@ -7,6 +7,11 @@ import static org.gradlex.javamodule.packaging.test.fixture.GradleBuild.runsOnWi
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
 import org.gradlex.javamodule.packaging.test.fixture.GradleBuild;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -84,13 +89,12 @@ class FatModuleJarTest {
         build.build(":app:fatModuleJarUbuntu");
         assertThat(linuxJar).isRegularFile();
 
-        assertThat(macOsJar).hasSize(1082396);
         assertThat(macOsJar).hasSameBinaryContentAs(windowsJar);
         assertThat(macOsJar).hasSameBinaryContentAs(linuxJar);
     }
 
     @Test
-    void target_specific_fat_jars_differ_if_they_package_target_specific_modules() {
+    void target_specific_fat_jars_differ_if_they_package_target_specific_modules() throws IOException {
         var macOsJar =
                 build.projectDir.file("app/build/libs/app-1.0-all-macos.jar").getAsPath();
         var windowsJar =
@@ -142,15 +146,174 @@ class FatModuleJarTest {
         build.build(":app:fatModuleJarUbuntu");
         assertThat(linuxJar).isRegularFile();
 
-        assertThat(macOsJar).hasSize(1894824);
-        assertThat(windowsJar).hasSize(1883723);
-        assertThat(linuxJar).hasSize(1886498);
+        assertThat(Files.mismatch(macOsJar, windowsJar)).isNotEqualTo(-1);
+        assertThat(Files.mismatch(macOsJar, linuxJar)).isNotEqualTo(-1);
+        assertThat(Files.mismatch(windowsJar, linuxJar)).isNotEqualTo(-1);
+    }
+
+    @Test
+    void transfers_entries_of_module_jars_without_compressing_them_again() throws IOException {
+        build.build(":app:fatModuleJar");
+
+        var moduleJar = build.projectDir.file("app/build/libs/app-1.0.jar").getAsPath();
+        var fatJar = build.projectDir.file("app/build/libs/app-1.0-all.jar").getAsPath();
+        try (var module = new ZipFile(moduleJar.toFile());
+                var fat = new ZipFile(fatJar.toFile())) {
+            var entry = module.getEntry("module-info.class");
+            var transferred = fat.getEntry("modulepath/app-1.0/module-info.class");
+            assertThat(transferred.getCrc()).isEqualTo(entry.getCrc());
+            assertThat(transferred.getCompressedSize()).isEqualTo(entry.getCompressedSize());
+            assertThat(fat.getEntry("modulepath/app-1.0/")).isNotNull();
+        }
+    }
+
+    @Test
+    void fat_jar_does_not_depend_on_the_number_of_compression_threads() throws IOException {
+        // a module folder with many small files and one that is compressed while it is written
+        for (int i = 0; i < 300; i++) {
+            build.file("app/extra/data/" + i + ".txt").writeText(("line " + i + "\n").repeat(i));
+        }
+        build.file("app/extra/data/large.txt").writeText("0123456789abcdef\n".repeat(1_000_000));
+        build.appBuildFile.appendText("""
+            dependencies { implementation(files("extra")) }
+            tasks.withType<org.gradlex.javamodule.packaging.tasks.FatModuleJar>().configureEach {
+                compressionThreads.set(providers.gradleProperty("compressionThreads").map { it.toInt() })
+            }
+        """);
+        var fatJar = build.projectDir.file("app/build/libs/app-1.0-all.jar").getAsPath();
+
+        build.runner(":app:fatModuleJar", "-PcompressionThreads=1").build();
+        var serial = Files.readAllBytes(fatJar);
+        build.runner(":app:fatModuleJar", "-PcompressionThreads=8", "--rerun-tasks")
+                .build();
+
+        assertThat(Files.readAllBytes(fatJar)).isEqualTo(serial);
+        try (var fat = new ZipFile(fatJar.toFile())) {
+            assertThat(fat.getInputStream(fat.getEntry("modulepath/extra/data/large.txt"))
+                            .readAllBytes())
+                    .hasSize(17_000_000);
+        }
+    }
+
+    @Test
+    void patched_fat_jar_is_identical_to_a_fat_jar_written_from_scratch() throws IOException {
+        var fatJar = build.projectDir.file("app/build/libs/app-1.0-all.jar").getAsPath();
+
+        build.build(":app:fatModuleJar");
+        build.file("app/src/main/java/org/example/app/Main.java").appendText("class Changed {}");
+        var result = build.runner(":app:fatModuleJar", "--info").build();
+        assertThat(result.getOutput()).contains("Patching ");
+        var patched = Files.readAllBytes(fatJar);
+
+        build.runner(":app:fatModuleJar", "--rerun-tasks").build();
+        assertThat(Files.readAllBytes(fatJar)).isEqualTo(patched);
+    }
+
+    @Test
+    void only_packages_modules_reachable_from_the_main_module_if_modules_are_pruned() throws IOException {
+        build.appBuildFile.appendText("""
+            dependencies {
+                implementation("org.slf4j:slf4j-api:2.0.17")
+            }
+            tasks.withType<org.gradlex.javamodule.packaging.tasks.FatModuleJar>().configureEach {
+                pruneModules.set(true)
+            }
+        """);
+
+        var result = build.build(":app:fatModuleJar");
+
+        assertThat(result.getOutput()).contains("  org.slf4j (slf4j-api-2.0.17.jar)");
+        try (var fat = new ZipFile(
+                build.projectDir.file("app/build/libs/app-1.0-all.jar").getAsPath().toFile())) {
+            assertThat(fat.getEntry("modulepath/slf4j-api-2.0.17/")).isNull();
+            assertThat(fat.getEntry("modulepath/commons-csv-1.14.1/")).isNotNull();
+        }
     }
 
     @Test
     void fat_jar_runs() throws IOException, InterruptedException {
         build.build(":app:fatModuleJar");
 
+        assertThat(runFatJar()).isEqualTo("org.example.app / true");
+    }
+
+    @Test
+    void fat_jar_with_nested_module_jars_runs() throws IOException, InterruptedException {
+        build.appBuildFile.appendText("""
+            tasks.withType<org.gradlex.javamodule.packaging.tasks.FatModuleJar>().configureEach {
+                nestedModuleJars.set(true)
+            }
+        """);
+        build.build(":app:fatModuleJar");
+
+        try (var fat = new ZipFile(
+                build.projectDir.file("app/build/libs/app-1.0-all.jar").getAsPath().toFile())) {
+            var nested = fat.getEntry("modulepath/app-1.0.jar");
+            assertThat(nested.getMethod()).isEqualTo(ZipEntry.STORED);
+            assertThat(fat.getEntry("modulegraph.idx")).isNotNull();
+        }
+        assertThat(runFatJar()).isEqualTo("org.example.app / false");
+    }
+
+    @Test
+    void fat_jar_with_a_nested_zip64_module_jar_runs() throws IOException, InterruptedException {
+        // more than 65535 entries are only recorded in the zip64 end of central directory
+        for (int i = 0; i < 70_000; i++) {
+            build.file("app/src/main/resources/data/" + i + ".txt").writeText("entry " + i);
+        }
+        build.file("app/src/main/java/org/example/app/Main.java").writeText("""
+            package org.example.app;
+            public class Main {
+                public static void main(String... args) throws Exception {
+                    try (var in = Main.class.getResourceAsStream("/data/69999.txt")) {
+                        System.out.println(new String(in.readAllBytes()));
+                    }
+                }
+            }
+            """);
+        build.appBuildFile.appendText("""
+            tasks.jar { isZip64 = true }
+            tasks.withType<org.gradlex.javamodule.packaging.tasks.FatModuleJar>().configureEach {
+                nestedModuleJars.set(true)
+            }
+        """);
+        build.build(":app:fatModuleJar");
+
+        try (var appJar = new ZipFile(
+                build.projectDir.file("app/build/libs/app-1.0.jar").getAsPath().toFile())) {
+            assertThat(appJar.size()).isGreaterThan(0xFFFF);
+        }
+        assertThat(runFatJar()).isEqualTo("entry 69999");
+    }
+
+    @Test
+    void fat_jar_with_shrunk_modules_runs() throws IOException, InterruptedException {
+        build.appBuildFile.appendText("""
+            tasks.withType<org.gradlex.javamodule.packaging.tasks.FatModuleJar>().configureEach {
+                nestedModuleJars.set(true)
+                shrinkClasses.set(true)
+                keepClasses.add("org.apache.commons.csv.QuoteMode")
+            }
+        """);
+        var result = build.build(":app:fatModuleJar");
+
+        assertThat(result.getOutput()).contains("Shrinking keeps");
+        try (var fat = new ZipFile(
+                build.projectDir.file("app/build/libs/app-1.0-all.jar").getAsPath().toFile())) {
+            var csv = new HashSet<String>();
+            var csvJar = fat.getEntry("modulepath/commons-csv-1.14.1.jar");
+            try (var nested = new ZipInputStream(fat.getInputStream(csvJar))) {
+                for (var entry = nested.getNextEntry(); entry != null; entry = nested.getNextEntry()) {
+                    csv.add(entry.getName());
+                }
+            }
+            assertThat(csv).contains("org/apache/commons/csv/QuoteMode.class");
+            assertThat(csv).doesNotContain("org/apache/commons/csv/CSVFormat.class");
+        }
+        assertThat(runFatJar()).isEqualTo("org.example.app / false");
+    }
+
+    private String runFatJar() throws IOException, InterruptedException {
         String javaCmd = System.getenv("JAVA_25") + "/bin/java" + (runsOnWindows() ? ".exe" : "");
 
         var fatJar = build.projectDir
@@ -163,12 +326,14 @@ class FatModuleJarTest {
         String[] command = {javaCmd, "-jar", fatJar};
         Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
 
+        var output = new StringBuilder();
         var reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
         String line;
         while ((line = reader.readLine()) != null) {
             System.out.println(line);
-            assertThat(line).isEqualTo("org.example.app / true");
+            output.append(line);
         }
         assertThat(process.waitFor()).isEqualTo(0);
+        return output.toString();
     }
 }
@@ -1,8 +1,23 @@
 // SPDX-License-Identifier: Apache-2.0
 package org.gradlex.javamodule.packaging.test;
 
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.assertj.core.api.Assertions.assertThat;
-
+import static org.gradle.testkit.runner.TaskOutcome.SUCCESS;
+import static org.gradle.testkit.runner.TaskOutcome.UP_TO_DATE;
+import static org.gradlex.javamodule.packaging.test.fixture.GradleBuild.currentTarget;
+import static org.gradlex.javamodule.packaging.test.fixture.GradleBuild.runsOnLinux;
+import static org.gradlex.javamodule.packaging.test.fixture.GradleBuild.runsOnMacos;
+import static org.gradlex.javamodule.packaging.test.fixture.GradleBuild.runsOnWindows;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Locale;
 import org.gradlex.javamodule.packaging.test.fixture.GradleBuild;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -62,7 +77,37 @@ class JavaModulePackagingOptionsTest {
         var result = build.fail(":app:jpackage");
 
         // The error shows that all options before '--unsupported-option' are passed through to jlink
-        assertThat(result.getOutput()).contains("jlink failed with: Error: unknown option: --unsupported-option");
+        assertThat(result.getOutput()).contains("Error: unknown option: --unsupported-option");
+    }
+
+    @Test
+    void can_combine_a_jlink_preset_with_jlink_options() {
+        build.appBuildFile.appendText("""
+            javaModulePackaging {
+                jlinkPreset.set(org.gradlex.javamodule.packaging.model.JlinkPreset.MINIMAL_SIZE)
+                jlinkOptions.addAll("--compress=1", "--no-header-files")
+            }
+        """);
+
+        build.build(":app:jpackage");
+
+        var runtimeImage = build.projectDir.dir("app/build/jlink/" + currentTarget());
+        assertThat(runtimeImage.file("lib/modules").getAsPath()).exists();
+        assertThat(runtimeImage.file("man").getAsPath()).doesNotExist();
+    }
+
+    @Test
+    void validates_the_jlink_preset_against_the_java_version() {
+        build.appBuildFile.appendText("""
+            javaModulePackaging {
+                jlinkPreset.set(org.gradlex.javamodule.packaging.model.JlinkPreset.FAST_STARTUP)
+            }
+        """);
+
+        var result = build.fail(":app:jpackage");
+
+        assertThat(result.getOutput())
+                .contains("The jlink preset 'fast-startup' requires Java 18 or higher for '--generate-cds-archive'");
     }
 
     @Test
@@ -90,6 +135,8 @@ class JavaModulePackagingOptionsTest {
             java-options=-XX:+UseCompactObjectHeaders
             java-options=-Xmx1g
             java-options=-Dsome.prop=some.val
+            java-options=--module-path
+            java-options=$APPDIR/mods
             """);
     }
 
@@ -104,7 +151,7 @@ class JavaModulePackagingOptionsTest {
         var result = build.fail(":app:jpackage");
 
         // The error shows that the option is passed on to jlink
-        assertThat(result.getOutput()).contains("jlink failed with: Error: Module com.acme.boo not found");
+        assertThat(result.getOutput()).contains("Error: Module com.acme.boo not found");
     }
 
     @Test
@@ -120,6 +167,75 @@ class JavaModulePackagingOptionsTest {
         assertThat(result.getOutput()).contains("Creating app package: ");
     }
 
+    @Test
+    void records_the_duration_of_each_phase() {
+        build.build(":app:jpackage");
+
+        var appImageTask = "jpackageAppImage" + capitalize(currentTarget());
+        assertThat(build.projectDir
+                        .file("app/build/reports/jpackage/" + appImageTask + "-timings.json")
+                        .text())
+                .contains("\"task\": \":app:" + appImageTask + "\"")
+                .contains("{\"phase\": \"app-image\", \"start\": ")
+                .contains("{\"phase\": \"checksums\", \"start\": ");
+    }
+
+    @Test
+    void can_build_several_package_types_in_parallel() {
+        var packageTypes = runsOnMacos() ? "dmg\", \"pkg" : runsOnWindows() ? "exe\", \"msi" : "deb\", \"rpm";
+        var packageTask = "jpackage" + capitalize(packageType()) + capitalize(currentTarget());
+        build.appBuildFile.appendText("""
+            javaModulePackaging {
+                maxParallelPackageTypes.set(2)
+            }
+            tasks.named<org.gradlex.javamodule.packaging.tasks.Jpackage>("%s") {
+                packageTypes.set(listOf("%s"))
+            }
+        """.formatted(packageTask, packageTypes));
+
+        build.build(":app:jpackage");
+
+        assertThat(build.projectDir
+                        .file("app/build/reports/jpackage/" + packageTask + "-timings.json")
+                        .text())
+                .contains("{\"phase\": \"package " + packageTypes.replace("\", \"", ", ") + " (parallel)\", ");
+        assertThat(build.packagesFolder(packageType()).file("SHA256SUMS").text())
+                .hasLineCount(2);
+    }
+
+    @Test
+    void validates_the_number_of_package_types_built_in_parallel() {
+        build.appBuildFile.appendText("""
+            javaModulePackaging {
+                maxParallelPackageTypes.set(0)
+            }
+        """);
+
+        var result = build.fail(":app:jpackage");
+
+        assertThat(result.getOutput()).contains("The number of package types built in parallel must be at least 1");
+    }
+
+    @Test
+    void can_compute_checksums_with_several_algorithms() {
+        build.appBuildFile.appendText("""
+            javaModulePackaging {
+                checksumAlgorithms.set(listOf("SHA-256", "SHA-512", "BLAKE3"))
+            }
+        """);
+
+        build.build(":app:jpackage");
+
+        var packages = build.packagesFolder(packageType());
+        assertThat(packages.getAsPath())
+                .isDirectoryContaining(f -> f.getFileName().toString().endsWith(".sha256"))
+                .isDirectoryContaining(f -> f.getFileName().toString().endsWith(".sha512"))
+                .isDirectoryContaining(f -> f.getFileName().toString().endsWith(".blake3"));
+        assertThat(packages.file("SHA256SUMS").text()).matches("[0-9a-f]{64}  app\\S+\\n");
+        assertThat(packages.file("SHA512SUMS").getAsPath()).exists();
+        assertThat(packages.file("BLAKE3SUMS").getAsPath()).exists();
+    }
+
     @Test
     void can_set_target_specific_option() {
         build.appBuildFile.appendText("""
@@ -197,13 +313,356 @@ class JavaModulePackagingOptionsTest {
             }
         """);
 
-        build.build(":app:jpackage");
+        var result = build.build(":app:jpackage");
 
-        assertThat(build.appImageFolder().getAsPath())
+        assertThat(build.packagesFolder(packageType()).getAsPath())
                 .isDirectoryContaining(f -> f.getFileName().toString().contains("app")
                         && f.getFileName().toString().contains("1.0"));
-        assertThat(build.appImageFolder().getAsPath())
+        assertThat(build.packagesFolder(packageType()).getAsPath())
                 .isDirectoryNotContaining(f -> f.toFile().isDirectory());
+        assertThat(result.task(":app:jpackageAppImage" + capitalize(currentTarget())))
+                .isNull();
+    }
+
+    @Test
+    void links_runtime_and_builds_image_and_each_package_type_in_separate_tasks() {
+        var target = capitalize(currentTarget());
+
+        var result = build.build(":app:jpackage");
+
+        assertThat(result.task(":app:jlink" + target)).isNotNull();
+        assertThat(result.task(":app:jpackageAppImage" + target)).isNotNull();
+        assertThat(result.task(":app:jpackage" + capitalize(packageType()) + target))
+                .isNotNull();
+        assertThat(result.task(":app:jpackageRpm" + target)).isNull();
+        assertThat(build.appContentsFolder().file("app/app.cfg").getAsPath()).exists();
+        assertThat(build.packagesFolder(packageType()).getAsPath())
+                .isDirectoryContaining(f -> f.getFileName().toString().contains("1.0"));
+    }
+
+    @Test
+    void fails_for_an_unsupported_package_type() {
+        build.appBuildFile.appendText("""
+            javaModulePackaging {
+                allTargets { packageTypes.set(listOf("zip")) }
+            }
+        """);
+
+        var result = build.fail(":app:jpackage");
+
+        assertThat(result.getOutput()).contains("Unsupported package type 'zip'");
+    }
+
+    @Test
+    void can_write_deb_and_rpm_packages_without_jpackage() throws IOException {
+        assumeTrue(runsOnLinux());
+        build.appBuildFile.appendText("""
+            javaModulePackaging {
+                targetsWithOs("linux") {
+                    packagingBackend.set("builtin")
+                    packageTypes.set(listOf("deb", "rpm"))
+                    options.addAll("--linux-app-release", "2")
+                }
+            }
+        """);
+
+        build.build(":app:jpackage");
+
+        var deb = build.packagesFolder("deb").file("app_1.0-2_amd64.deb");
+        var rpm = build.packagesFolder("rpm").file("app-1.0-2.x86_64.rpm");
+        assertThat(Files.readAllBytes(deb.getAsPath())).startsWith("!<arch>\ndebian-binary".getBytes(UTF_8));
+        assertThat(Files.readAllBytes(rpm.getAsPath())).startsWith(0xED, 0xAB, 0xEE, 0xDB);
+        assertThat(build.packagesFolder("deb").file("SHA256SUMS").text()).contains("app_1.0-2_amd64.deb");
+        assertThat(build.packagesFolder("rpm").file("SHA256SUMS").text()).contains("app-1.0-2.x86_64.rpm");
+    }
+
+    @Test
+    void can_write_the_app_image_as_archive() throws IOException {
+        build.appBuildFile.appendText("""
+            javaModulePackaging {
+                allTargets { packageTypes.add("archive") }
+            }
+        """);
+
+        build.build(":app:jpackage");
+
+        var archives = build.packagesFolder("archive");
+        assertThat(Files.readAllBytes(archives.file("app-1.0.tar.gz").getAsPath()))
+                .startsWith(0x1F, 0x8B);
+        assertThat(archives.file("app-1.0.tar.gz.sha256").getAsPath()).exists();
+        assertThat(archives.file("SHA256SUMS").text()).contains("  app-1.0.tar.gz\n");
+    }
+
+    @Test
+    void can_package_with_the_dev_profile() throws IOException {
+        build.appBuildFile.appendText("""
+            javaModulePackaging {
+                jlinkOptions.addAll("--strip-debug", "--compress", "2")
+                allTargets { packageTypes.add("archive") }
+            }
+        """);
+        build.build(":app:jpackage");
+        var releaseArchive = Files.readAllBytes(
+                build.packagesFolder("archive").file("app-1.0.tar.gz").getAsPath());
+
+        build.appBuildFile.appendText("""
+            javaModulePackaging {
+                allTargets { packagingProfile.set("dev") }
+            }
+        """);
+        build.build(":app:jpackage");
+        var devArchive = Files.readAllBytes(
+                build.packagesFolder("archive").file("app-1.0.tar.gz").getAsPath());
+
+        // the gzip header records the level: 2 for the smallest and 4 for the fastest compression
+        assertThat(releaseArchive[8]).isEqualTo((byte) 2);
+        assertThat(devArchive[8]).isEqualTo((byte) 4);
+        assertThat(build.packagesFolder(packageType()).getAsPath())
+                .isDirectoryContaining(f -> f.getFileName().toString().contains("1.0"))
+                .isDirectoryNotContaining(f -> f.getFileName().toString().endsWith(".sha256"))
+                .isDirectoryNotContaining(f -> f.getFileName().toString().equals("SHA256SUMS"));
+        if (runsOnLinux()) {
+            // 'dpkg-deb' compresses with gzip instead of its default 'xz' or 'zstd'
+            var deb = build.packagesFolder("deb").file("app_1.0-1_amd64.deb").getAsPath();
+            assertThat(new String(Files.readAllBytes(deb), UTF_8)).contains("data.tar.gz");
+
+            // 'rpm' packages are written by the builtin backend, which does not need 'rpmbuild'
+            build.build(":app:jpackageRpm" + capitalize(currentTarget()));
+            try (var rpms = Files.list(build.packagesFolder("rpm").getAsPath())) {
+                var rpm = Files.readAllBytes(rpms.filter(f -> f.toString().endsWith(".rpm"))
+                        .findFirst()
+                        .orElseThrow());
+                var payload = new String(rpm, ISO_8859_1).indexOf("\u001f\u008b\u0008");
+                assertThat(payload).isPositive();
+                assertThat(rpm[payload + 8]).isEqualTo((byte) 4);
+            }
+        }
+    }
+
+    @Test
+    void can_share_runtime_images_that_only_contain_jdk_modules() throws IOException {
+        build.appBuildFile.appendText("""
+            javaModulePackaging {
+                shareRuntimeImages.set(true)
+            }
+        """);
+
+        build.build(":app:jpackage");
+
+        assertThat(build.appContentsFolder().file("app/mods/app-1.0.jar").getAsPath())
+                .exists();
+        assertThat(build.appContentsFolder().file("app/app.cfg").text()).contains("java-options=$APPDIR/mods");
+        if (!runsOnMacos()) {
+            // the runtime in the app-image is linked to the image from the store instead of copied
+            var linked = build.projectDir.file("app/build/jlink/" + currentTarget() + "/lib/modules");
+            assertThat(Files.isSameFile(
+                            build.appContentsFolder().file("runtime/lib/modules").getAsPath(), linked.getAsPath()))
+                    .isTrue();
+        }
+    }
+
+    @Test
+    void deletes_shared_runtime_images_that_were_not_used_for_a_week() throws IOException {
+        build.appBuildFile.appendText("""
+            javaModulePackaging {
+                shareRuntimeImages.set(true)
+            }
+        """);
+        var userHome = build.projectDir.dir("user-home");
+        var store = userHome.dir("caches/java-module-packaging-runtime-images");
+        var unused = store.dir("unused");
+        unused.file("release").writeText("JAVA_VERSION=\"17\"");
+        var unusedLock = store.file("unused.lock");
+        unusedLock.writeText("");
+        Files.setLastModifiedTime(
+                unusedLock.getAsPath(),
+                FileTime.from(Instant.now().minus(8, ChronoUnit.DAYS)));
+
+        build.runner(":app:jpackage").withTestKitDir(userHome.getAsPath().toFile()).build();
+
+        assertThat(unused.getAsPath()).doesNotExist();
+        assertThat(unusedLock.getAsPath()).doesNotExist();
+        assertThat(store.getAsPath())
+                .isDirectoryContaining(f -> f.getFileName().toString().endsWith(".lock"))
+                .isDirectoryContaining(f -> f.getFileName().toString().equals("last-cleanup"));
+    }
+
+    @Test
+    void links_only_jdk_modules_and_places_automatic_modules_next_to_the_runtime() {
+        build.appBuildFile.appendText("""
+            dependencies { implementation("org.slf4j:slf4j-api:1.7.36") }
+        """);
+        build.appModuleInfoFile.writeText("""
+            module org.example.app {
+                requires org.slf4j;
+            }
+        """);
+
+        build.build(":app:jpackage");
+
+        assertThat(build.projectDir
+                        .file("app/build/jlink/" + currentTarget() + "/lib/modules")
+                        .getAsPath())
+                .exists();
+        assertThat(build.appContentsFolder().file("app/mods/slf4j-api-1.7.36.jar").getAsPath())
+                .exists();
+        assertThat(build.appContentsFolder().file("app/mods/app-1.0.jar").getAsPath())
+                .exists();
+    }
+
+    @Test
+    void can_create_an_appcds_archive_for_the_app_image() {
+        build.appBuildFile.appendText("""
+            javaModulePackaging {
+                allTargets {
+                    appCdsArchive.set(true)
+                    packageTypes.set(listOf("app-image"))
+                }
+            }
+        """);
+
+        build.build(":app:jpackage");
+
+        assertThat(build.appContentsFolder().file("app/app.jsa").getAsPath()).exists();
+        assertThat(build.appContentsFolder().file("app/app.cfg").text())
+                .contains("java-options=-XX:SharedArchiveFile=$APPDIR/app.jsa");
+    }
+
+    @Test
+    void can_create_an_aot_cache_for_the_app_image() {
+        var java25 = System.getenv("JAVA_25");
+        assumeTrue(java25 != null, "AOT cache requires Java 24 or higher");
+        build.appBuildFile.appendText("""
+            java {
+                toolchain.languageVersion.set(JavaLanguageVersion.of(25))
+            }
+            javaModulePackaging {
+                allTargets {
+                    aotCache.set(true)
+                    packageTypes.set(listOf("app-image"))
+                }
+            }
+        """);
+
+        build.runner(":app:jpackage", "-Porg.gradle.java.installations.paths=" + java25)
+                .build();
+
+        assertThat(build.appContentsFolder().file("app/app.aot").getAsPath()).exists();
+        assertThat(build.appContentsFolder().file("app/app.jsa").getAsPath()).doesNotExist();
+        assertThat(build.appContentsFolder().file("app/app.cfg").text())
+                .contains("java-options=-XX:AOTCache=$APPDIR/app.aot");
+    }
+
+    @Test
+    void computes_the_jdk_modules_needed_at_runtime() {
+        build.appBuildFile.appendText("""
+            javaModulePackaging {
+                computeRuntimeModules.set(true)
+            }
+        """);
+        build.appModuleInfoFile.writeText("""
+            module org.example.app {
+                uses java.nio.charset.spi.CharsetProvider;
+            }
+        """);
+
+        build.build(":app:jpackage");
+
+        assertThat(build.projectDir
+                        .file("app/build/runtime-modules/" + currentTarget() + ".txt")
+                        .getAsPath())
+                .hasContent("java.base\njdk.charsets");
+    }
+
+    @Test
+    void does_not_compute_the_jdk_modules_needed_at_runtime_by_default() {
+        var result = build.build(":app:jpackage");
+
+        assertThat(result.task(":app:computeRuntimeModules" + capitalize(currentTarget())))
+                .isNull();
+        assertThat(result.task(":app:jlink" + capitalize(currentTarget()))).isNotNull();
+    }
+
+    @Test
+    void does_not_link_the_runtime_image_again_if_only_the_application_changes() {
+        var target = capitalize(currentTarget());
+        build.build(":app:jpackageAppImage" + target);
+        build.file("app/src/main/java/org/example/app/Extra.java").writeText("""
+            package org.example.app;
+            class Extra {}
+        """);
+
+        var result = build.build(":app:jpackageAppImage" + target);
+
+        assertThat(result.task(":app:computeJdkModules" + target).getOutcome()).isEqualTo(SUCCESS);
+        assertThat(result.task(":app:jlink" + target).getOutcome()).isEqualTo(UP_TO_DATE);
+        assertThat(result.task(":app:jpackageAppImage" + target).getOutcome()).isEqualTo(SUCCESS);
+    }
+
+    @Test
+    void can_benchmark_the_startup_of_the_app_image() {
+        build.appBuildFile.appendText("""
+            tasks.withType<org.gradlex.javamodule.packaging.tasks.BenchmarkStartup>().configureEach {
+                warmupRuns = 1
+                runs = 2
+            }
+        """);
+
+        build.build(":app:benchmarkStartup" + capitalize(currentTarget()));
+
+        assertThat(build.projectDir
+                        .file("app/build/reports/startup/" + currentTarget() + ".json")
+                        .text())
+                .contains("\"name\": \"app-image\"", "\"p50\": ", "\"p90\": ", "\"p99\": ", "\"samples\": [");
+    }
+
+    @Test
+    void stops_a_benchmark_run_that_exceeds_the_timeout() {
+        build.appBuildFile.writeText("import java.time.Duration\n" + build.appBuildFile.text());
+        build.appBuildFile.appendText("""
+            tasks.withType<org.gradlex.javamodule.packaging.tasks.BenchmarkStartup>().configureEach {
+                warmupRuns = 0
+                runs = 1
+                readinessMarker = "never printed"
+                runTimeout = Duration.ofMillis(1)
+            }
+        """);
+
+        var result = build.fail(":app:benchmarkStartup" + capitalize(currentTarget()));
+
+        assertThat(result.getOutput())
+                .contains("Application did not print 'never printed' within 1 ms and was stopped ('runTimeout')");
+    }
+
+    @Test
+    void can_report_the_size_of_the_app_image() {
+        build.build(":app:imageSizeReport" + capitalize(currentTarget()));
+
+        var reportFolder = build.projectDir.dir("app/build/reports/image-size/" + currentTarget());
+        assertThat(reportFolder.file("report.json").text())
+                .contains("{\"category\": \"runtime-module\", \"name\": \"java.base\", \"size\": ")
+                .contains("{\"category\": \"application-module\", \"name\": \"app-1.0.jar\", \"size\": ");
+        assertThat(reportFolder.file("index.html").getAsPath()).exists();
+    }
+
+    @Test
+    void reports_each_file_of_the_app_image_once() {
+        build.file("app/res/native/libfoo.so").writeText("native");
+        build.file("app/res/extra.jar").writeText("jar");
+        build.appBuildFile.appendText("""
+            javaModulePackaging {
+                resources.from("res")
+            }
+        """);
+
+        build.build(":app:imageSizeReport" + capitalize(currentTarget()));
+
+        assertThat(build.projectDir
+                        .file("app/build/reports/image-size/" + currentTarget() + "/report.json")
+                        .text())
+                .contains("{\"category\": \"resource\", \"name\": \"res\", \"size\": 9}")
+                .doesNotContain("libfoo.so")
+                .doesNotContain("extra.jar");
     }
 
     @Test
@@ -221,4 +680,12 @@ class JavaModulePackagingOptionsTest {
 
         build.build(":app:jpackage");
     }
+
+    private static String packageType() {
+        return runsOnMacos() ? "dmg" : runsOnWindows() ? "exe" : "deb";
+    }
+
+    private static String capitalize(String str) {
+        return str.substring(0, 1).toUpperCase(Locale.ROOT) + str.substring(1);
+    }
 }
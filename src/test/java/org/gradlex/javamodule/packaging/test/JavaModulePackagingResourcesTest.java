@@ -1,12 +1,18 @@
 // SPDX-License-Identifier: Apache-2.0
 package org.gradlex.javamodule.packaging.test;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.gradlex.javamodule.packaging.test.fixture.GradleBuild.currentTarget;
 import static org.gradlex.javamodule.packaging.test.fixture.GradleBuild.runsOnLinux;
 import static org.gradlex.javamodule.packaging.test.fixture.GradleBuild.runsOnMacos;
 import static org.gradlex.javamodule.packaging.test.fixture.GradleBuild.runsOnWindows;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
 import org.gradlex.javamodule.packaging.test.fixture.GradleBuild;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -64,7 +70,7 @@ class JavaModulePackagingResourcesTest {
 
         // The error shows that all options before '--unsupported-option' are passed through to jlink
         var result = build.fail(":app:jpackage");
-        assertThat(result.getOutput()).contains("jlink failed with: Error: unknown option: --unsupported-option");
+        assertThat(result.getOutput()).contains("Error: unknown option: --unsupported-option");
     }
 
     @Test
@@ -77,7 +83,7 @@ class JavaModulePackagingResourcesTest {
 
         // The error shows that the option is passed on to jlink
         var result = build.fail(":app:jpackage");
-        assertThat(result.getOutput()).contains("jlink failed with: Error: Module com.acme.boo not found");
+        assertThat(result.getOutput()).contains("Error: Module com.acme.boo not found");
     }
 
     @Test
@@ -133,6 +139,157 @@ class JavaModulePackagingResourcesTest {
         assertThat(build.appContentsFolder().file("app/dummy.txt").getAsPath()).exists();
     }
 
+    @Test
+    void patches_the_app_image_if_only_resources_change() {
+        build.appBuildFile.appendText("""
+            javaModulePackaging {
+                shareRuntimeImages.set(true)
+                allTargets { packageTypes.set(listOf("app-image")) }
+                resources.from("res")
+            }
+        """);
+        build.projectDir.file("app/res/dummy.txt").writeText("1");
+        build.build(":app:jpackage");
+
+        build.projectDir.file("app/res/dummy.txt").writeText("2");
+        build.projectDir.file("app/res/added.txt").writeText("3");
+        var result = build.runner(":app:jpackage", "--info").build();
+
+        assertThat(result.getOutput())
+                .contains("Patching app-image: MODIFIED ")
+                .contains("Patching app-image: ADDED ");
+        // 'jpackage' did not run again
+        assertThat(appImageTimings())
+                .contains("{\"phase\": \"patch app-image\", ")
+                .doesNotContain("{\"phase\": \"app-image\", ");
+        assertThat(build.appContentsFolder().file("app/dummy.txt").getAsPath()).hasContent("2");
+        assertThat(build.appContentsFolder().file("app/added.txt").getAsPath()).hasContent("3");
+    }
+
+    @Test
+    void rebuilds_the_app_image_if_a_training_run_is_needed() {
+        build.appBuildFile.appendText("""
+            javaModulePackaging {
+                shareRuntimeImages.set(true)
+                allTargets {
+                    packageTypes.set(listOf("app-image"))
+                    appCdsArchive.set(true)
+                }
+                resources.from("res")
+            }
+        """);
+        build.projectDir.file("app/res/dummy.txt").writeText("1");
+        build.build(":app:jpackage");
+
+        build.projectDir.file("app/res/dummy.txt").writeText("2");
+        var result = build.runner(":app:jpackage", "--info").build();
+
+        assertThat(result.getOutput()).doesNotContain("Patching app-image");
+        assertThat(appImageTimings())
+                .contains("{\"phase\": \"app-image\", ")
+                .contains("{\"phase\": \"AppCDS training run\", ")
+                .doesNotContain("{\"phase\": \"patch app-image\", ");
+        assertThat(build.appContentsFolder().file("app/dummy.txt").getAsPath()).hasContent("2");
+    }
+
+    @Test
+    void can_link_resources_into_the_app_image() throws IOException {
+        build.appBuildFile.appendText("""
+            javaModulePackaging {
+                linkResources.set(true)
+                allTargets { packageTypes.set(listOf("app-image")) }
+                resources.from("res")
+            }
+        """);
+        var resource = build.projectDir.file("app/res/dummy.txt").writeText("1");
+
+        build.build(":app:jpackage");
+
+        var inImage = build.appContentsFolder().file("app/dummy.txt").getAsPath();
+        assertThat(inImage).hasContent("1");
+        assertThat(Files.isSameFile(resource.getAsPath(), inImage)).isTrue();
+    }
+
+    @Test
+    void replaces_linked_resources_when_the_app_image_is_patched() throws IOException {
+        build.appBuildFile.appendText("""
+            javaModulePackaging {
+                shareRuntimeImages.set(true)
+                linkResources.set(true)
+                allTargets { packageTypes.set(listOf("app-image")) }
+                resources.from("res")
+            }
+        """);
+        var resource = build.projectDir.file("app/res/dummy.txt").writeText("1");
+        build.build(":app:jpackage");
+
+        // a new file – the image still contains a link to the old one
+        resource.delete().writeText("2");
+        build.build(":app:jpackage");
+
+        var inImage = build.appContentsFolder().file("app/dummy.txt").getAsPath();
+        assertThat(inImage).hasContent("2");
+        assertThat(Files.isSameFile(resource.getAsPath(), inImage)).isTrue();
+    }
+
+    @Test
+    void copies_resources_that_are_on_another_file_system() throws IOException {
+        var otherFileSystem = Path.of("/dev/shm");
+        assumeTrue(Files.isDirectory(otherFileSystem)
+                && !Files.getFileStore(otherFileSystem).equals(Files.getFileStore(build.projectDir.getAsPath())));
+        var resources = Files.createTempDirectory(otherFileSystem, "resources");
+        try {
+            var resource = Files.writeString(resources.resolve("dummy.txt"), "1");
+            build.appBuildFile.appendText("""
+                javaModulePackaging {
+                    linkResources.set(true)
+                    allTargets { packageTypes.set(listOf("app-image")) }
+                    resources.from("%s")
+                }
+            """.formatted(resources));
+
+            build.build(":app:jpackage");
+
+            var inImage = build.appContentsFolder().file("app/dummy.txt").getAsPath();
+            assertThat(inImage).hasContent("1");
+            assertThat(Files.isSameFile(resource, inImage)).isFalse();
+        } finally {
+            Files.delete(resources.resolve("dummy.txt"));
+            Files.delete(resources);
+        }
+    }
+
+    @Test
+    void app_image_with_linked_runtime_and_resources_runs() throws IOException, InterruptedException {
+        build.file("app/src/main/java/org/example/app/Main.java").writeText("""
+            package org.example.app;
+
+            public class Main {
+                public static void main(String... args) {
+                    System.out.println("app runs");
+                }
+            }
+            """);
+        build.appBuildFile.appendText("""
+            javaModulePackaging {
+                shareRuntimeImages.set(true)
+                linkResources.set(true)
+                allTargets { packageTypes.set(listOf("app-image")) }
+                resources.from("res")
+            }
+        """);
+        build.projectDir.file("app/res/dummy.txt").writeText("1");
+
+        build.build(":app:jpackage");
+
+        var process = new ProcessBuilder(build.appLauncher().toString())
+                .redirectErrorStream(true)
+                .start();
+        var output = new String(process.getInputStream().readAllBytes(), UTF_8);
+        assertThat(process.waitFor()).isZero();
+        assertThat(output).contains("app runs");
+    }
+
     @Test
     void can_add_resources_to_image_root() {
         // Resource is added to the root of the image.
@@ -154,4 +311,14 @@ class JavaModulePackagingResourcesTest {
         assertThat(build.appContentsFolder().file("customFolder/dummy.txt").getAsPath())
                 .exists();
     }
+
+    private String appImageTimings() {
+        return build.projectDir
+                .file("app/build/reports/jpackage/jpackageAppImage" + capitalize(currentTarget()) + "-timings.json")
+                .text();
+    }
+
+    private static String capitalize(String str) {
+        return str.substring(0, 1).toUpperCase(Locale.ROOT) + str.substring(1);
+    }
 }
@@ -34,7 +34,7 @@ class JavaModulePackagingSmokeTest {
     @MethodSource("testTargets")
     void can_use_plugin(String label, String os, boolean success) {
         var taskToRun = ":app:jpackage" + capitalize(label);
-        var taskToCheck = ":app:jpackage" + capitalize(label);
+        var taskToCheck = ":app:jpackageAppImage" + capitalize(label);
         var macosArch = System.getProperty("os.arch").contains("aarch") ? "aarch64" : "x86-64";
         build.appBuildFile.appendText("""
                     version = "1.0"
@@ -0,0 +1,70 @@
+// SPDX-License-Identifier: Apache-2.0
+package org.gradlex.javamodule.packaging.test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.gradlex.javamodule.packaging.test.fixture.GradleBuild.runsOnLinux;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import org.gradlex.javamodule.packaging.test.fixture.GradleBuild;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class OciImageTest {
+
+    GradleBuild build = new GradleBuild();
+
+    @BeforeEach
+    void setup() {
+        build.appBuildFile.appendText("""
+            version = "1.0"
+            javaModulePackaging {
+                target("ubuntu") {
+                    operatingSystem.set("linux")
+                    architecture.set("x86-64")
+                }
+            }
+        """);
+        build.appModuleInfoFile.writeText("""
+            module org.example.app {
+            }
+        """);
+    }
+
+    @Test
+    void writes_a_reproducible_image_in_oci_layout() throws IOException {
+        assumeTrue(runsOnLinux());
+        var image = build.projectDir.file("app/build/images/ubuntu/app-oci.tar").getAsPath();
+
+        build.build(":app:ociImageUbuntu");
+        var firstImage = Files.readAllBytes(image);
+        Files.delete(image);
+        build.runner("--rerun-tasks", ":app:ociImageUbuntu").build();
+
+        assertThat(Files.readAllBytes(image)).isEqualTo(firstImage);
+        assertThat(tarEntryNames(firstImage)).startsWith("oci-layout", "index.json", "blobs/", "blobs/sha256/");
+        // the runtime, library and application layers, the config, and the manifest
+        assertThat(tarEntryNames(firstImage).stream()
+                        .filter(name -> name.startsWith("blobs/sha256/") && !name.endsWith("/")))
+                .hasSize(5);
+    }
+
+    private static List<String> tarEntryNames(byte[] tar) {
+        List<String> names = new ArrayList<>();
+        int offset = 0;
+        while (offset + 512 <= tar.length && tar[offset] != 0) {
+            int nameEnd = offset;
+            while (nameEnd < offset + 100 && tar[nameEnd] != 0) {
+                nameEnd++;
+            }
+            names.add(new String(tar, offset, nameEnd - offset, UTF_8));
+            long size = Long.parseLong(new String(tar, offset + 124, 11, UTF_8), 8);
+            offset += 512 + (int) ((size + 511) / 512 * 512);
+        }
+        return names;
+    }
+}
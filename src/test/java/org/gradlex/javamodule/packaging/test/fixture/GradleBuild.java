@@ -103,17 +103,21 @@ public class GradleBuild {
         return new WritableFile(projectDir, path);
     }
 
-    public Directory appImageFolder() {
-        if (runsOnMacos()) return projectDir.dir("app/build/packages/macos");
-        if (runsOnLinux()) return projectDir.dir("app/build/packages/ubuntu");
-        if (runsOnWindows()) return projectDir.dir("app/build/packages/windows");
-        throw new IllegalStateException("unknown os");
+    public Directory packagesFolder(String packageType) {
+        return projectDir.dir("app/build/packages/" + currentTarget() + "/" + packageType);
     }
 
     public Directory appContentsFolder() {
-        if (runsOnMacos()) return projectDir.dir("app/build/packages/macos/app.app/Contents");
-        if (runsOnLinux()) return projectDir.dir("app/build/packages/ubuntu/app/lib");
-        if (runsOnWindows()) return projectDir.dir("app/build/packages/windows/app");
+        if (runsOnMacos()) return packagesFolder("app-image").dir("app.app/Contents");
+        if (runsOnLinux()) return packagesFolder("app-image").dir("app/lib");
+        if (runsOnWindows()) return packagesFolder("app-image").dir("app");
+        throw new IllegalStateException("unknown os");
+    }
+
+    public Path appLauncher() {
+        if (runsOnMacos()) return packagesFolder("app-image").getAsPath().resolve("app.app/Contents/MacOS/app");
+        if (runsOnLinux()) return packagesFolder("app-image").getAsPath().resolve("app/bin/app");
+        if (runsOnWindows()) return packagesFolder("app-image").getAsPath().resolve("app/app.exe");
         throw new IllegalStateException("unknown os");
     }
 